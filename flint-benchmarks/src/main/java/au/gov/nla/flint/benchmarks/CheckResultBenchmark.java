@@ -0,0 +1,86 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint.benchmarks;
+
+import au.gov.nla.flint.checks.CheckCategory;
+import au.gov.nla.flint.checks.CheckCheck;
+import au.gov.nla.flint.checks.CheckResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing a check-result as xml, done for every file and format of a batch. The result
+ * has a few fixed categories and a number of policy categories, like a PDF result.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CheckResultBenchmark {
+
+    @Param({"10", "100"})
+    public int policyCategories;
+
+    private CheckResult result;
+
+    @Setup
+    public void setUp() {
+        result = new CheckResult("some <file> & more.pdf", "PDF", "0.1.0");
+        CheckCategory noDrm = new CheckCategory("NO_DRM");
+        noDrm.add(new CheckCheck("checkDRMPDFBoxAbsolute", true, null));
+        noDrm.add(new CheckCheck("checkDRMPDFBoxGranular", true, null));
+        noDrm.add(new CheckCheck("checkDRMNaiive", false, null));
+        result.add(noDrm);
+        CheckCategory wellFormed = new CheckCategory("WELL_FORMED");
+        wellFormed.add(new CheckCheck("isValidPDFBox", true, null));
+        wellFormed.add(new CheckCheck("isValidJhove1", true, null));
+        result.add(wellFormed);
+        for (int i = 0; i < policyCategories; i++) {
+            CheckCategory category = new CheckCategory("policyPattern" + i);
+            category.add(new CheckCheck("rule" + i, i % 7 != 0, (i % 7 != 0) ? null : i));
+            result.add(category);
+        }
+        result.setTime(1234L);
+        // as handed to the sinks by Flint.check
+        result.freeze();
+    }
+
+    @Benchmark
+    public int toXML() {
+        StringWriter out = new StringWriter();
+        PrintWriter pw = new PrintWriter(out);
+        result.toXML(pw, "  ", "  ");
+        pw.flush();
+        return out.getBuffer().length();
+    }
+}
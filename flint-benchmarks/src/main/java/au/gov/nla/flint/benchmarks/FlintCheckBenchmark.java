@@ -0,0 +1,74 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint.benchmarks;
+
+import au.gov.nla.flint.Flint;
+import au.gov.nla.flint.checks.CheckResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The whole check of a single file, as done for every file of a batch: mime type
+ * detection and all checks of the format(s) that can check it. The preflight cache is
+ * disabled, so every PDF is parsed and preflighted anew as it would be in a batch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dflint.preflight-cache.max-bytes=0")
+public class FlintCheckBenchmark {
+
+    @Param({
+            "format_corpus/text_only_fontsEmbeddedAll.pdf",
+            "format_corpus/encryption_nocopy.pdf",
+            "format_corpus/encryption_openpassword.pdf",
+            "epub_samples/wasteland-otf-obf-20120118.epub",
+            "mobisamples/lorem-ipsum.mobi",
+            "mobisamples/lorem-ipsum.azw3"
+    })
+    public String sample;
+
+    private Flint flint;
+    private File file;
+
+    @Setup
+    public void setUp() throws Exception {
+        flint = new Flint();
+        file = Samples.extract(sample);
+    }
+
+    @Benchmark
+    public List<CheckResult> check() {
+        return flint.check(file);
+    }
+}
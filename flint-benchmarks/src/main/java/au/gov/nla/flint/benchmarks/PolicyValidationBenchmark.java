@@ -0,0 +1,69 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint.benchmarks;
+
+import au.gov.nla.flint.checks.CheckCategory;
+import au.gov.nla.flint.formats.PDFFormat;
+import au.gov.nla.flint.wrappers.PDFBoxWrapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schematron validation of a preflight report against the PDF policy, the step that
+ * turns a third-party report into check categories.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PolicyValidationBenchmark {
+
+    @Param({
+            "format_corpus/text_only_fontsEmbeddedAll.pdf",
+            "format_corpus/encryption_nocopy.pdf"
+    })
+    public String sample;
+
+    private byte[] report;
+    private PDFFormat format;
+
+    @Setup
+    public void setUp() throws Exception {
+        report = new PDFBoxWrapper().preflightToXml(Samples.extract(sample)).toByteArray();
+        format = new PDFFormat();
+    }
+
+    @Benchmark
+    public LinkedHashMap<String, CheckCategory> policyValidationResult() throws Exception {
+        return format.policyValidationResult(report);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint.benchmarks;
+
+import au.gov.nla.flint.wrappers.PDFBoxWrapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Apache preflight over a PDF and the conversion of its report to xml, with and without
+ * the preflight cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PreflightBenchmark {
+
+    @Param({
+            "format_corpus/text_only_fontsEmbeddedAll.pdf",
+            "format_corpus/encryption_nocopy.pdf"
+    })
+    public String sample;
+
+    private PDFBoxWrapper wrapper;
+    private File file;
+
+    @Setup
+    public void setUp() throws Exception {
+        wrapper = new PDFBoxWrapper();
+        file = Samples.extract(sample);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Dflint.preflight-cache.max-bytes=0")
+    public ByteArrayOutputStream preflightToXml() throws Exception {
+        return wrapper.preflightToXml(file);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public ByteArrayOutputStream preflightToXmlCached() throws Exception {
+        return wrapper.preflightToXml(file);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Access to the sample files of the format modules, which are packaged with the benchmarks.
+ */
+final class Samples {
+
+    private static File directory = null;
+
+    private Samples() {}
+
+    /**
+     * Copy a sample file out of the benchmark jar, so that it can be checked like any other file
+     * @param resource the path of the sample, e.g. "format_corpus/encryption_nocopy.pdf"
+     * @return a temporary copy of the sample, deleted when the JVM exits
+     * @throws IOException if the sample does not exist or can't be copied
+     */
+    static synchronized File extract(String resource) throws IOException {
+        if (directory == null) {
+            directory = Files.createTempDirectory("flint-benchmarks").toFile();
+            directory.deleteOnExit();
+        }
+        File file = new File(directory, resource.replace('/', '_'));
+        if (!file.exists()) {
+            try (InputStream in = Samples.class.getResourceAsStream("/" + resource)) {
+                if (in == null) {
+                    throw new IOException("no such sample: " + resource);
+                }
+                Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            file.deleteOnExit();
+        }
+        return file;
+    }
+
+    /**
+     * Read a sample file into memory
+     * @param resource the path of the sample
+     * @return the content of the sample
+     * @throws IOException if the sample does not exist or can't be read
+     */
+    static byte[] read(String resource) throws IOException {
+        return Files.readAllBytes(extract(resource).toPath());
+    }
+}
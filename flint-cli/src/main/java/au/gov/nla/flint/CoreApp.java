@@ -18,6 +18,7 @@
 package au.gov.nla.flint;
 
 import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.ArgumentParserException;
 import net.sourceforge.argparse4j.inf.Namespace;
@@ -25,15 +26,38 @@ import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import au.gov.nla.flint.batch.BatchChecker;
+import au.gov.nla.flint.batch.CostEstimator;
+import au.gov.nla.flint.batch.Manifest;
+import au.gov.nla.flint.batch.ProcessWorkerPool;
+import au.gov.nla.flint.batch.Shard;
 import au.gov.nla.flint.checks.CheckResult;
 import au.gov.nla.flint.formats.Format;
+import au.gov.nla.flint.metrics.MetricsExporter;
+import au.gov.nla.flint.metrics.MetricsRegistry;
+import au.gov.nla.flint.results.Compression;
+import au.gov.nla.flint.results.JdbcResultSink;
+import au.gov.nla.flint.results.CsvResultSink;
+import au.gov.nla.flint.results.Journal;
+import au.gov.nla.flint.results.JsonLinesResultSink;
+import au.gov.nla.flint.results.ResultArchiveWriter;
+import au.gov.nla.flint.results.ResultSink;
+import au.gov.nla.flint.results.ResultStore;
+import au.gov.nla.flint.results.ToolOutputStore;
+import au.gov.nla.flint.results.ResultSummary;
+import au.gov.nla.flint.results.TextResultSink;
+import au.gov.nla.flint.results.XmlResultSink;
 
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import static au.gov.nla.flint.Flint.getAvailableFormats;
 
@@ -44,62 +68,102 @@ public class CoreApp {
 
     private static Logger LOGGER = LoggerFactory.getLogger(CoreApp.class);
 
+    private static final String OUTPUT_DEFAULT = ".";
+
     public static void main(String[] args) {
         LOGGER.info("Java version: {}", getJavaVersion());
-        ArgumentParser parser = ArgumentParsers.newArgumentParser("FLint")
-                .defaultHelp(true)
-                .description("A program for policy-driven file/format validation.");
-
+        ArgumentParser parser = null;
         try {
             Map<String, Format> formats = getAvailableFormats();
-            parser.addArgument("input")
-                .help("Path to file or directory (recursivly searched for files of interest) to be analysed.");
-            String outputDefault = ".";
-            parser.addArgument("-o", "--output")
-                    .help("Where to write the results - in case the specified path is that of a directory," +
-                            "a file 'results.xml' will be created within this directory.")
-                    .setDefault(outputDefault);
-            parser.addArgument("-p", "--policy-properties-dir")
-                    .help("Overwrite format-specific policy properties with properties files " +
-                            "in the specified directory; the filename has to have the format " +
-                            "'<FORMAT_TYPE>-policy.properties', where FORMAT_TYPE can be one of " +
-                            formats.keySet());
-
-            File output;
+            parser = createParser(formats);
             Namespace ns = parser.parseArgs(args);
-            if (ns.getString("output") != null) {
-                output = new File(ns.getString("output").trim());
-                if (output.isDirectory()) {
-                    output = new File(output, "results.xml");
-                } else if (!output.exists() && output.getParent() != null) {
-                    System.out.println("Output path " + output + " not found, nor the parent directory");
-                    System.exit(1);
+
+            String outputFormat = ns.getString("output_format");
+            Compression compression = null;
+            if (ns.getString("compress") != null) {
+                compression = Compression.valueOf(ns.getString("compress").toUpperCase());
+            }
+            File output = outputFile(ns, outputFormat, compression);
+            if (compression == null) {
+                compression = Compression.forFile(output);
+            }
+            if (ns.getLong("roll_every") < 0) {
+                throw new ArgumentParserException("--roll-every can't be negative", parser);
+            }
+            File inputFile = inputFile(ns, parser);
+            Shard shard = null;
+            if (ns.getString("shard") != null) {
+                try {
+                    shard = Shard.parse(ns.getString("shard"));
+                } catch (IllegalArgumentException e) {
+                    throw new ArgumentParserException(e.getMessage(), parser);
                 }
-                LOGGER.info("output: {}", output);
-            } else {
-                // use current directory
-                output = new File(outputDefault);
             }
 
-            try (PrintWriter out = new PrintWriter(new FileWriter(output))) {
-                File inputFile = new File(ns.getString("input"));
-                if (!inputFile.exists()) {
-                    String f =  (inputFile.isDirectory() ? "directory" : "file");
-                    System.out.println("Input " + f + " " + inputFile + " not found.");
-                    System.exit(1);
+            try (TextResultSink out = createResultSink(outputFormat, output, compression, ns.getLong("roll_every"))) {
+                if (shard != null) {
+                    // the paths are the merge keys of the shards' reports, so they have to be
+                    // there before anything is written, including results replayed from a journal
+                    out.writePaths(inputFile);
+                }
+                Flint flint = createFlint(ns, parser, formats);
+                BatchChecker batch = createBatchChecker(ns, parser, formats, flint);
+                // counted as they are written, so that the report never has to be read back
+                ResultSummary summary = (ns.getString("summary") != null) ? new ResultSummary() : null;
+                ResultSink sink = (summary != null) ? summary.counting(out) : out;
+                ResultArchiveWriter archive = null;
+                if (ns.getString("archive") != null) {
+                    // paths relative to the input directory, as listed in a manifest otherwise
+                    archive = new ResultArchiveWriter(new File(ns.getString("archive")), inputFile);
+                    sink = tee(sink, archive);
+                }
+                JdbcResultSink database = null;
+                if (ns.getString("database") != null) {
+                    database = new JdbcResultSink(databaseUrl(ns.getString("database")), inputFile);
+                    sink = tee(sink, database);
+                }
+                ProcessWorkerPool processPool = null;
+                if (ns.getBoolean("isolate")) {
+                    processPool = startProcessPool(ns, batch);
+                }
+                Journal journal = null;
+                if (ns.getString("journal") != null || ns.getBoolean("resume")) {
+                    journal = openJournal(ns, output, sink);
+                    batch.setJournal(journal);
                 }
-                List<List<CheckResult>> resultCollection;
-                String ppd = ns.getString("policy_properties_dir");
-                if (ppd != null) {
-                    resultCollection = Flint.checkMany(inputFile, new File(ppd));
-                } else {
-                    resultCollection = Flint.checkMany(inputFile, new Flint());
+                MetricsExporter metrics = null;
+                if (ns.getString("metrics_prometheus") != null || ns.getString("metrics_json") != null) {
+                    metrics = startMetrics(ns);
                 }
-                for (List<CheckResult> results : resultCollection) {
-                    Flint.printResults(results, out);
+                try {
+                    check(ns, inputFile, shard, batch, sink);
+                } finally {
+                    if (processPool != null) {
+                        processPool.close();
+                        LOGGER.info("worker processes: {} replaced", processPool.getReplaced());
+                    }
+                    if (metrics != null) {
+                        metrics.close();
+                    }
+                    if (journal != null) {
+                        journal.close();
+                    }
+                    if (archive != null) {
+                        archive.close();
+                    }
+                    if (database != null) {
+                        database.close();
+                        LOGGER.info("database: results of {} files written", database.getCommitted());
+                    }
                 }
+                if (summary != null) {
+                    summary.toXML(new File(ns.getString("summary")));
+                    System.out.println(summary);
+                }
+                logStores(flint);
                 LOGGER.info("DONE.");
-                System.out.println("\ndone. results written to " + output);
+                System.out.println("\ndone. results written to " +
+                        (out.getFiles().size() == 1 ? out.getFiles().get(0) : out.getFiles()));
             } catch (IOException e) {
                 LOGGER.error("can't write results: {}", e);
                 System.exit(-1);
@@ -118,6 +182,422 @@ public class CoreApp {
         }
     }
 
+    /**
+     * @return the parser for the command line options, listing the given formats in the help
+     */
+    private static ArgumentParser createParser(Map<String, Format> formats) {
+        ArgumentParser parser = ArgumentParsers.newArgumentParser("FLint")
+                .defaultHelp(true)
+                .description("A program for policy-driven file/format validation.");
+        parser.addArgument("input")
+            .nargs("?")
+            .help("Path to file or directory (recursivly searched for files of interest) to be analysed.");
+        parser.addArgument("-m", "--manifest")
+                .metavar("FILE")
+                .help("Check the files listed in FILE ('-' for stdin) instead of an input path, one per line; " +
+                        "each path may be followed by a tab and the file size, and another tab and its " +
+                        "mime type, in which case mime type detection is skipped.");
+        parser.addArgument("-0", "--null")
+                .action(Arguments.storeTrue())
+                .help("Manifest records are separated by NUL characters rather than newlines.");
+        parser.addArgument("-o", "--output")
+                .help("Where to write the results - in case the specified path is that of a directory," +
+                        "a file 'results.xml' (or .jsonl, .csv) will be created within this directory.")
+                .setDefault(OUTPUT_DEFAULT);
+        parser.addArgument("--output-format")
+                .choices("xml", "jsonl", "csv")
+                .setDefault("xml")
+                .help("Write the results as XML, as JSON Lines (one object per file and format) " +
+                        "or as CSV (one row per file and format).");
+        parser.addArgument("--compress")
+                .choices("none", "gzip", "xz")
+                .help("Compress the results; defaults to what the name of the output file " +
+                        "ends with (.gz or .xz), if anything.");
+        parser.addArgument("--roll-every")
+                .type(Long.class)
+                .metavar("N")
+                .setDefault(0L)
+                .help("Start a new output file after every N checked files, numbering the files " +
+                        "(e.g. results-00000.xml); each is a complete document of its own.");
+        parser.addArgument("-p", "--policy-properties-dir")
+                .help("Overwrite format-specific policy properties with properties files " +
+                        "in the specified directory; the filename has to have the format " +
+                        "'<FORMAT_TYPE>-policy.properties', where FORMAT_TYPE can be one of " +
+                        formats.keySet());
+        parser.addArgument("-t", "--threads")
+                .type(Integer.class)
+                .help("Number of files to check in parallel; results are written in the same order " +
+                        "whatever the number of threads.")
+                .setDefault(1);
+        parser.addArgument("--format-threads")
+                .action(Arguments.append())
+                .metavar("FORMAT=N")
+                .help("Limit the number of files of a format that are checked at the same time, " +
+                        "e.g. 'PDF=2'; can be given once per format.");
+        parser.addArgument("--max-in-flight")
+                .type(Integer.class)
+                .metavar("N")
+                .help("How many files may be queued or checked at the same time; defaults to four " +
+                        "times the number of threads.");
+        parser.addArgument("--schedule")
+                .choices("input", "cost")
+                .setDefault("input")
+                .help("Check the files in flight in input order, or the ones that are estimated to be " +
+                        "most expensive (by size and format) first; results are written in input order " +
+                        "either way, so cost scheduling only reorders files within the --max-in-flight " +
+                        "window (by default four times the number of threads).");
+        parser.addArgument("--format-weight")
+                .action(Arguments.append())
+                .metavar("FORMAT=W")
+                .help("How expensive a format is per byte for --schedule cost, relative to the default " +
+                        "of 1, e.g. 'PDF=4'; can be given once per format.");
+        parser.addArgument("--large-files")
+                .type(Long.class)
+                .metavar("MB")
+                .help("With --schedule cost, check files of at least this many (weighted) megabytes on " +
+                        "a quarter of the threads of their own, largest first, and all other files " +
+                        "smallest first; needs at least two threads.");
+        parser.addArgument("--isolate")
+                .action(Arguments.storeTrue())
+                .help("Check files in a pool of child JVMs (one per thread) so that a file that " +
+                        "exhausts the memory of or hangs its checks can't take down the whole run; " +
+                        "such workers are killed and replaced, and the file is reported as erroneous.");
+        parser.addArgument("--worker-heap")
+                .metavar("SIZE")
+                .help("Maximum heap of each child JVM with --isolate, as given to -Xmx, e.g. '2g'.");
+        parser.addArgument("--worker-timeout")
+                .type(Long.class)
+                .metavar("SECONDS")
+                .setDefault(20 * 60L)
+                .help("With --isolate, kill a child JVM that takes longer than this to check a single file.");
+        parser.addArgument("--result-store")
+                .metavar("DIR")
+                .help("Directory in which to keep check-results between runs; files that have not " +
+                        "changed since they were last checked (same content, format version and policy) " +
+                        "are not validated again.");
+        parser.addArgument("--tool-outputs")
+                .metavar("DIR")
+                .help("Directory in which to keep the raw reports of the third-party validators the " +
+                        "policy is checked against (e.g. preflight, EpubCheck), keyed by file content " +
+                        "and tool version, for --repolicy.");
+        parser.addArgument("--repolicy")
+                .action(Arguments.storeTrue())
+                .help("Only check the current policy and policy properties against the reports kept in " +
+                        "--tool-outputs, without running the validators; the other categories are taken " +
+                        "from the results kept in --result-store. Files without a kept report and result " +
+                        "are checked as usual.");
+        parser.addArgument("--shard")
+                .metavar("I/N")
+                .help("Only check the I-th of N disjoint slices of the files (by a hash of their path " +
+                        "relative to the input directory, or as listed in the manifest), e.g. 2/4 on the " +
+                        "second of four nodes; the reports can be put together with the merge command.");
+        parser.addArgument("--journal")
+                .metavar("FILE")
+                .help("Record each checked file and its results in this file as the run goes, so that " +
+                        "it can be resumed with --resume if it dies; defaults to the output file with " +
+                        "'.journal' appended when --resume is given.");
+        parser.addArgument("--resume")
+                .action(Arguments.storeTrue())
+                .help("Skip the files recorded in the journal of an earlier, unfinished run, and write " +
+                        "their journaled results into the output along with the results of the remaining files.");
+        parser.addArgument("--archive")
+                .metavar("FILE")
+                .help("Also write the results to this indexed binary archive, in which the results of " +
+                        "single files can be looked up with the query-results command.");
+        parser.addArgument("--database")
+                .metavar("FILE|URL")
+                .help("Also write the results into the files, categories and checks tables of this " +
+                        "database while checking: a JDBC url, or a file for an embedded H2 database " +
+                        "that can be queried while the run is going.");
+        parser.addArgument("--summary")
+                .metavar("FILE")
+                .help("Write the number of passed, failed and erroneous results per format, category " +
+                        "and check, and the percentiles of the time taken per format, to this xml file " +
+                        "at the end of the run.");
+        parser.addArgument("--metrics-prometheus")
+                .metavar("FILE")
+                .help("Write counters and latency percentiles to this file in the Prometheus text " +
+                        "format while checking, e.g. for the node exporter's textfile collector.");
+        parser.addArgument("--metrics-json")
+                .metavar("FILE")
+                .help("Write counters and latency percentiles to this file as JSON while checking.");
+        parser.addArgument("--metrics-interval")
+                .type(Long.class)
+                .metavar("SECONDS")
+                .setDefault(15L)
+                .help("How often to rewrite the --metrics-prometheus and --metrics-json files.");
+
+        return parser;
+    }
+
+    /**
+     * @return the file to write the results to, 'results.<format>' if the output is a directory
+     */
+    private static File outputFile(Namespace ns, String outputFormat, Compression compression) {
+        if (ns.getString("output") == null) {
+            // use current directory
+            return new File(OUTPUT_DEFAULT);
+        }
+        File output = new File(ns.getString("output").trim());
+        if (output.isDirectory()) {
+            output = new File(output, "results." + outputFormat +
+                    (compression == null ? "" : compression.getExtension()));
+        } else if (!output.exists() && output.getParent() != null) {
+            System.out.println("Output path " + output + " not found, nor the parent directory");
+            System.exit(1);
+        }
+        LOGGER.info("output: {}", output);
+        return output;
+    }
+
+    /**
+     * Check that either an existing input path or a manifest is given
+     * @return the input file or directory, or null if the files are listed in a manifest
+     */
+    private static File inputFile(Namespace ns, ArgumentParser parser) throws ArgumentParserException {
+        String input = ns.getString("input");
+        String manifest = ns.getString("manifest");
+        if ((input == null) == (manifest == null)) {
+            throw new ArgumentParserException("either an input path or --manifest has to be given", parser);
+        }
+        if (input == null) {
+            if (!manifest.equals("-") && !new File(manifest).isFile()) {
+                System.out.println("Manifest " + manifest + " not found.");
+                System.exit(1);
+            }
+            return null;
+        }
+        File inputFile = new File(input);
+        if (!inputFile.exists()) {
+            String f =  (inputFile.isDirectory() ? "directory" : "file");
+            System.out.println("Input " + f + " " + inputFile + " not found.");
+            System.exit(1);
+        }
+        return inputFile;
+    }
+
+    /**
+     * @return a Flint with the policy properties, per format limits and stores given on the command line
+     */
+    private static Flint createFlint(Namespace ns, ArgumentParser parser, Map<String, Format> formats)
+            throws ArgumentParserException, IOException, InstantiationException, IllegalAccessException {
+        String ppd = ns.getString("policy_properties_dir");
+        Flint flint = (ppd != null) ? new Flint(new File(ppd)) : new Flint();
+        List<String> formatThreads = ns.getList("format_threads");
+        if (formatThreads != null) {
+            for (String limit : formatThreads) {
+                String[] bits = formatSetting(limit, "--format-threads", "FORMAT=N", parser, formats);
+                try {
+                    flint.setFormatConcurrency(bits[0], Integer.parseInt(bits[1]));
+                } catch (IllegalArgumentException e) {
+                    throw new ArgumentParserException("invalid --format-threads value '" + limit +
+                            "': " + e.getMessage(), parser);
+                }
+            }
+        }
+        if (ns.getString("result_store") != null) {
+            flint.setResultStore(new ResultStore(new File(ns.getString("result_store"))));
+        }
+        String toolOutputs = ns.getString("tool_outputs");
+        if (ns.getBoolean("repolicy") && (toolOutputs == null || ns.getString("result_store") == null)) {
+            throw new ArgumentParserException("--repolicy needs --tool-outputs and --result-store", parser);
+        }
+        if (toolOutputs != null) {
+            flint.setToolOutputStore(new ToolOutputStore(new File(toolOutputs)));
+            flint.setRepolicy(ns.getBoolean("repolicy"));
+        }
+        return flint;
+    }
+
+    /**
+     * @return a BatchChecker with the threads and scheduling given on the command line
+     */
+    private static BatchChecker createBatchChecker(Namespace ns, ArgumentParser parser, Map<String, Format> formats,
+                                                   Flint flint) throws ArgumentParserException {
+        int threads = ns.getInt("threads");
+        if (threads < 1) {
+            throw new ArgumentParserException("--threads must be at least 1", parser);
+        }
+        BatchChecker batch = new BatchChecker(flint);
+        batch.setThreads(threads);
+        if (ns.getInt("max_in_flight") != null) {
+            if (ns.getInt("max_in_flight") < 1) {
+                throw new ArgumentParserException("--max-in-flight must be at least 1", parser);
+            }
+            batch.setMaxInFlight(ns.getInt("max_in_flight"));
+        }
+        if (ns.getString("schedule").equals("cost")) {
+            CostEstimator estimator = new CostEstimator(flint);
+            List<String> formatWeights = ns.getList("format_weight");
+            if (formatWeights != null) {
+                for (String weight : formatWeights) {
+                    String[] bits = formatSetting(weight, "--format-weight", "FORMAT=W", parser, formats);
+                    try {
+                        estimator.setFormatWeight(bits[0], Double.parseDouble(bits[1]));
+                    } catch (IllegalArgumentException e) {
+                        throw new ArgumentParserException("invalid --format-weight value '" + weight +
+                                "': " + e.getMessage(), parser);
+                    }
+                }
+            }
+            batch.setCostEstimator(estimator);
+            Long largeFiles = ns.getLong("large_files");
+            if (largeFiles != null) {
+                if (threads < 2) {
+                    throw new ArgumentParserException("--large-files needs at least two threads", parser);
+                }
+                batch.setLargeFileLane(largeFiles * 1024 * 1024, Math.max(1, threads / 4));
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Split a per format setting such as 'PDF=2'
+     * @return the format name and the value, trimmed
+     */
+    private static String[] formatSetting(String setting, String option, String expected, ArgumentParser parser,
+                                          Map<String, Format> formats) throws ArgumentParserException {
+        String[] bits = setting.split("=", 2);
+        if (bits.length != 2 || !formats.containsKey(bits[0].trim())) {
+            throw new ArgumentParserException("invalid " + option + " value '" + setting +
+                    "', expected " + expected + " with FORMAT one of " + formats.keySet(), parser);
+        }
+        return new String[] { bits[0].trim(), bits[1].trim() };
+    }
+
+    /**
+     * Start one worker process per thread, passing on the options the workers need, and
+     * let the batch check files in them
+     * @return the started pool
+     */
+    private static ProcessWorkerPool startProcessPool(Namespace ns, BatchChecker batch) throws IOException {
+        if (ns.getList("format_threads") != null) {
+            LOGGER.warn("--format-threads is not enforced across worker processes");
+        }
+        List<String> workerArgs = new ArrayList<String>();
+        if (ns.getString("policy_properties_dir") != null) {
+            workerArgs.add("-p");
+            workerArgs.add(new File(ns.getString("policy_properties_dir")).getAbsolutePath());
+        }
+        if (ns.getString("result_store") != null) {
+            workerArgs.add("-s");
+            workerArgs.add(new File(ns.getString("result_store")).getAbsolutePath());
+        }
+        if (ns.getString("tool_outputs") != null) {
+            workerArgs.add(ns.getBoolean("repolicy") ? "-r" : "-t");
+            workerArgs.add(new File(ns.getString("tool_outputs")).getAbsolutePath());
+        }
+        ProcessWorkerPool processPool = new ProcessWorkerPool(ns.getInt("threads"), workerArgs);
+        processPool.forwardSystemProperties();
+        if (ns.getString("worker_heap") != null) {
+            processPool.setMaxHeap(ns.getString("worker_heap"));
+        }
+        processPool.setTimeout(ns.getLong("worker_timeout"), TimeUnit.SECONDS);
+        processPool.start();
+        batch.setProcessPool(processPool);
+        return processPool;
+    }
+
+    /**
+     * Create a new journal, or with --resume, write the results journaled by an earlier run to the sink
+     * @return the journal to record the results of this run in
+     */
+    private static Journal openJournal(Namespace ns, File output, ResultSink sink) throws IOException {
+        File journalFile = (ns.getString("journal") != null) ? new File(ns.getString("journal"))
+                : new File(output.getPath() + ".journal");
+        // the output is written from scratch, starting with what the journal has
+        Journal journal = ns.getBoolean("resume") ? Journal.resume(journalFile, sink) : Journal.create(journalFile);
+        if (journal.getCompletedCount() > 0) {
+            System.out.println("resuming: " + journal.getCompletedCount() + " files already checked");
+        }
+        return journal;
+    }
+
+    /**
+     * @return an exporter writing the metrics to the files given on the command line, already started
+     */
+    private static MetricsExporter startMetrics(Namespace ns) {
+        MetricsExporter metrics = new MetricsExporter(MetricsRegistry.getInstance(),
+                (ns.getString("metrics_prometheus") != null) ? new File(ns.getString("metrics_prometheus")) : null,
+                (ns.getString("metrics_json") != null) ? new File(ns.getString("metrics_json")) : null);
+        metrics.start(ns.getLong("metrics_interval"), TimeUnit.SECONDS);
+        return metrics;
+    }
+
+    /**
+     * Check the files below the input path, or those listed in the manifest
+     */
+    private static void check(Namespace ns, File inputFile, Shard shard, BatchChecker batch, ResultSink sink)
+            throws IOException, InstantiationException, IllegalAccessException {
+        if (inputFile != null) {
+            Flint.checkMany(inputFile, batch, shard, sink);
+            return;
+        }
+        String manifest = ns.getString("manifest");
+        Reader reader = manifest.equals("-")
+                ? new InputStreamReader(System.in, StandardCharsets.UTF_8)
+                : new InputStreamReader(new FileInputStream(manifest), StandardCharsets.UTF_8);
+        try (Manifest files = new Manifest(reader, ns.getBoolean("null"))) {
+            files.setShard(shard);
+            Flint.checkManifest(files, batch, sink);
+        }
+    }
+
+    private static void logStores(Flint flint) {
+        if (flint.getResultStore() != null) {
+            LOGGER.info("result store: {} results re-used, {} stored", flint.getResultStore().getHits(),
+                    flint.getResultStore().getWrites());
+        }
+        if (flint.getToolOutputStore() != null) {
+            LOGGER.info("tool outputs: {} re-used, {} stored", flint.getToolOutputStore().getHits(),
+                    flint.getToolOutputStore().getWrites());
+        }
+    }
+
+    /**
+     * A file name is taken for an embedded H2 database, which other processes can connect to
+     * while the run is going (AUTO_SERVER)
+     */
+    private static String databaseUrl(String database) {
+        if (database.startsWith("jdbc:")) {
+            return database;
+        }
+        return "jdbc:h2:file:" + new File(database).getAbsolutePath() + ";AUTO_SERVER=TRUE";
+    }
+
+    /**
+     * @return a sink writing to both sinks, closing neither
+     */
+    private static ResultSink tee(final ResultSink first, final ResultSink second) {
+        return new ResultSink() {
+            @Override
+            public void write(File file, List<CheckResult> results) throws IOException {
+                first.write(file, results);
+                second.write(file, results);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * @return a sink writing results in the given format ('xml', 'jsonl' or 'csv')
+     */
+    static TextResultSink createResultSink(String format, File output, Compression compression, long filesPerPart)
+            throws IOException {
+        switch (format) {
+            case "jsonl":
+                return new JsonLinesResultSink(output, compression, filesPerPart);
+            case "csv":
+                return new CsvResultSink(output, compression, filesPerPart);
+            default:
+                return new XmlResultSink(output, compression, filesPerPart);
+        }
+    }
+
     /**
      * @return the version of the current jvm
      */
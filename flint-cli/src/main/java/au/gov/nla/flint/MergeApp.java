@@ -0,0 +1,83 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint;
+
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
+import net.sourceforge.argparse4j.inf.Namespace;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import au.gov.nla.flint.results.ReportMerger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Merges the reports of the shards of a run (see the --shard option of {@link CoreApp})
+ * into a single report.
+ */
+public class MergeApp {
+    private static Logger LOGGER = LoggerFactory.getLogger(MergeApp.class);
+
+    public static void main(String[] args) {
+        ArgumentParser parser = ArgumentParsers.newArgumentParser("MergeApp")
+                .defaultHelp(true)
+                .description("Merges the xml reports of the shards of a run into one report, " +
+                        "ordered by the paths of the checked files.");
+        try {
+            parser.addArgument("reports")
+                    .nargs("+")
+                    .help("The reports to merge.");
+            parser.addArgument("-o", "--output")
+                    .setDefault("results.xml")
+                    .help("Where to write the merged report - in case the specified path is that of a directory, " +
+                            "a file 'results.xml' will be created within this directory.");
+            Namespace ns = parser.parseArgs(args);
+
+            List<File> reports = new ArrayList<File>();
+            for (Object report : ns.getList("reports")) {
+                File file = new File(report.toString());
+                if (!file.isFile()) {
+                    System.out.println("Report " + file + " not found.");
+                    System.exit(1);
+                }
+                reports.add(file);
+            }
+            File output = new File(ns.getString("output").trim());
+            if (output.isDirectory()) {
+                output = new File(output, "results.xml");
+            }
+            LOGGER.info("merging {} reports into {}", reports.size(), output);
+            ReportMerger.merge(reports, output);
+            System.out.println("\ndone. merged report written to " + output);
+        } catch (ArgumentParserException e) {
+            if (args.length == 0) {
+                parser.printHelp();
+            } else {
+                parser.handleError(e);
+            }
+            System.exit(1);
+        } catch (IOException e) {
+            LOGGER.error("can't merge reports: {}", e);
+            System.exit(-1);
+        }
+    }
+}
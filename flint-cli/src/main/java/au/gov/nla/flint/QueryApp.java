@@ -0,0 +1,118 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint;
+
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
+import net.sourceforge.argparse4j.inf.Namespace;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import au.gov.nla.flint.checks.CheckResult;
+import au.gov.nla.flint.results.ResultArchive;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+
+/**
+ * Queries a result archive (see the --archive option of {@link CoreApp}): looks up the
+ * results of given files, or lists the files with a given result.
+ */
+public class QueryApp {
+    private static Logger LOGGER = LoggerFactory.getLogger(QueryApp.class);
+
+    public static void main(String[] args) {
+        ArgumentParser parser = ArgumentParsers.newArgumentParser("QueryApp")
+                .defaultHelp(true)
+                .description("Looks up the results of files in a result archive, or lists the files " +
+                        "whose results match --result (and --format, --category).");
+        try {
+            parser.addArgument("archive")
+                    .help("The result archive.");
+            parser.addArgument("paths")
+                    .nargs("*")
+                    .help("Paths of files to look up, as written to the archive (relative to the input directory).");
+            parser.addArgument("--format")
+                    .help("Only look at the results of this format, e.g. PDF.");
+            parser.addArgument("--category")
+                    .help("Look at the result of this category rather than the overall result.");
+            parser.addArgument("--result")
+                    .choices("passed", "failed", "error", "erroneous")
+                    .help("List the files with this result ('error' for a category, 'erroneous' overall).");
+            parser.addArgument("--xml")
+                    .action(Arguments.storeTrue())
+                    .help("Print the full results of looked up files as xml.");
+            Namespace ns = parser.parseArgs(args);
+
+            List<Object> paths = ns.getList("paths");
+            if (paths.isEmpty() == (ns.getString("result") == null)) {
+                throw new ArgumentParserException("either paths to look up or --result has to be given", parser);
+            }
+            File file = new File(ns.getString("archive"));
+            if (!file.isFile()) {
+                System.out.println("Archive " + file + " not found.");
+                System.exit(1);
+            }
+            boolean missing = false;
+            try (ResultArchive archive = ResultArchive.open(file)) {
+                LOGGER.info("opened {}", archive);
+                PrintWriter out = new PrintWriter(System.out);
+                if (ns.getString("result") != null) {
+                    for (String path : archive.find(ns.getString("format"), ns.getString("category"), ns.getString("result"))) {
+                        out.println(path);
+                    }
+                }
+                for (Object path : paths) {
+                    List<CheckResult> results = archive.get(path.toString());
+                    if (results == null) {
+                        out.println(path + ": not in archive");
+                        missing = true;
+                        continue;
+                    }
+                    for (CheckResult result : results) {
+                        if (ns.getString("format") != null && !ns.getString("format").equals(result.getFormat())) {
+                            continue;
+                        }
+                        if (ns.getBoolean("xml")) {
+                            result.toXML(out, "", "  ", path.toString());
+                        } else {
+                            out.println(path + ": " + result.getResult() + " - " + result);
+                        }
+                    }
+                }
+                out.flush();
+            }
+            if (missing) {
+                System.exit(2);
+            }
+        } catch (ArgumentParserException e) {
+            if (args.length == 0) {
+                parser.printHelp();
+            } else {
+                parser.handleError(e);
+            }
+            System.exit(1);
+        } catch (IOException e) {
+            LOGGER.error("can't read archive: {}", e);
+            System.exit(-1);
+        }
+    }
+}
@@ -17,11 +17,13 @@
  */
 package au.gov.nla.flint;
 
-import org.reflections.Reflections;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import au.gov.nla.flint.checks.CheckCategory;
 import au.gov.nla.flint.checks.CheckResult;
 import au.gov.nla.flint.formats.Format;
+import au.gov.nla.flint.formats.FormatDispatch;
+import au.gov.nla.flint.formats.FormatRegistry;
 import au.gov.nla.flint.formats.PolicyAware;
 
 import java.io.File;
@@ -32,13 +34,21 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
 
+import au.gov.nla.flint.batch.BatchChecker;
+import au.gov.nla.flint.batch.FileWalker;
+import au.gov.nla.flint.batch.Manifest;
+import au.gov.nla.flint.batch.Shard;
+import au.gov.nla.flint.metrics.MetricsRegistry;
+import au.gov.nla.flint.results.ResultSink;
+import au.gov.nla.flint.results.ResultStore;
+import au.gov.nla.flint.results.ToolOutputStore;
 import au.gov.nla.flint.wrappers.TikaWrapper;
-import static uk.bl.dpt.utils.util.FileUtil.traverse;
 
 /**
  * A program to validate pluggable file formats.
@@ -49,6 +59,21 @@ public class Flint {
 
     private Collection<Format> formats = new HashSet<Format>();
 
+    // per-format concurrency caps, shared with all worker copies of this instance
+    private Map<String, Semaphore> formatPermits = new ConcurrentHashMap<String, Semaphore>();
+
+    // results of earlier runs, null if every file is validated
+    private ResultStore resultStore;
+
+    // raw outputs of the third-party validators, null if they aren't kept
+    private ToolOutputStore toolOutputs;
+
+    // only evaluate the policy again where the validators' outputs are kept
+    private boolean repolicy = false;
+
+    // which formats check which files, built on first use
+    private FormatDispatch dispatch;
+
     /**
      * Create a new FLint object, adding an instance of all formats to the format list
      * for use by check()
@@ -111,37 +136,140 @@ public class Flint {
     }
 
     /**
-     * @return a list of available formats, gathered via *reflection*
+     * Create a FLint object for a batch worker from an existing instance.
+     * @param formats the formats to use
+     * @param formatPermits the per-format concurrency caps to share
+     */
+    private Flint(Collection<Format> formats, Map<String, Semaphore> formatPermits) {
+        this.formats = formats;
+        this.formatPermits = formatPermits;
+    }
+
+    /**
+     * Create a copy of this FLint object that can be used by another worker thread.
+     * Formats that declare themselves thread-safe are shared, all others are
+     * re-instantiated with the same pattern filter. Concurrency caps set via
+     * {@link #setFormatConcurrency(String, int)}, the result store and the tool output store are
+     * shared with the copy.
+     * @return a FLint object that is safe to use alongside this one
      * @throws IllegalAccessException
      * @throws InstantiationException
      */
-    public static Map<String, Format> getAvailableFormats() throws IllegalAccessException, InstantiationException {
-        Map<String, Format> fs = new LinkedHashMap<String, Format>();
-        Set<Class<? extends Format>> reflections = new Reflections("au.gov.nla.flint.formats").getSubTypesOf(Format.class);
-        for (Class<? extends Format> fClass : reflections) {
-            Format f = fClass.newInstance();
-            gLogger.info("available format {}, as in {}", fClass, fClass);
-            fs.put(f.getFormatName(), f);
+    public Flint newWorkerInstance() throws IllegalAccessException, InstantiationException {
+        Collection<Format> workerFormats = new ArrayList<Format>();
+        for (Format f : formats) {
+            if (f.isThreadSafe()) {
+                workerFormats.add(f);
+                continue;
+            }
+            Format copy = f.getClass().newInstance();
+            if (f instanceof PolicyAware) {
+                ((PolicyAware) copy).setPatternFilter(((PolicyAware) f).getPatternFilter());
+                ((PolicyAware) copy).setToolOutputStore(toolOutputs);
+            }
+            workerFormats.add(copy);
+        }
+        Flint worker = new Flint(workerFormats, formatPermits);
+        worker.resultStore = resultStore;
+        worker.toolOutputs = toolOutputs;
+        worker.repolicy = repolicy;
+        return worker;
+    }
+
+    /**
+     * Re-use results of earlier runs for files whose content, format version and policy
+     * have not changed, and store the results of files that do get validated.
+     * Worker copies created afterwards share the store.
+     * @param resultStore the store to use, or null to validate every file
+     */
+    public void setResultStore(final ResultStore resultStore) {
+        this.resultStore = resultStore;
+        if (resultStore != null) {
+            MetricsRegistry.getInstance().registerGauge("result_store_hits_total", resultStore::getHits);
+            MetricsRegistry.getInstance().registerGauge("result_store_misses_total", resultStore::getMisses);
+        }
+    }
+
+    /**
+     * @return the result store in use, or null
+     */
+    public ResultStore getResultStore() {
+        return resultStore;
+    }
+
+    /**
+     * Keep the raw outputs of the third-party validators of policy aware formats (e.g. the
+     * preflight report), so that a changed policy can be evaluated again without running
+     * them, see {@link #setRepolicy(boolean)}. Worker copies created afterwards share the store.
+     * @param toolOutputs the store to use, or null not to keep the outputs
+     */
+    public void setToolOutputStore(final ToolOutputStore toolOutputs) {
+        this.toolOutputs = toolOutputs;
+        for (Format f : formats) {
+            if (f instanceof PolicyAware) {
+                ((PolicyAware) f).setToolOutputStore(toolOutputs);
+            }
+        }
+        if (toolOutputs != null) {
+            MetricsRegistry.getInstance().registerGauge("tool_output_store_hits_total", toolOutputs::getHits);
+            MetricsRegistry.getInstance().registerGauge("tool_output_store_misses_total", toolOutputs::getMisses);
+        }
+    }
+
+    /**
+     * @return the tool output store in use, or null
+     */
+    public ToolOutputStore getToolOutputStore() {
+        return toolOutputs;
+    }
+
+    /**
+     * Re-evaluate the policy only: for files whose validator output is in the tool output
+     * store and whose latest result is in the result store (both kept by an earlier run with
+     * the same stores), the current policy and pattern filter are checked against the stored
+     * output and nothing else is run; the fresh policy categories replace those of the stored
+     * result, whose other categories are kept. All other files are checked as usual (and
+     * their outputs and results stored). Worker copies created afterwards re-evaluate too.
+     * @param repolicy true to only re-evaluate the policy where possible
+     */
+    public void setRepolicy(boolean repolicy) {
+        if (repolicy && (toolOutputs == null || resultStore == null)) {
+            throw new IllegalStateException("re-evaluating the policy needs a tool output store and a result store");
+        }
+        this.repolicy = repolicy;
+    }
+
+    /**
+     * Limit how many files of a given format may be validated at the same time by this
+     * FLint object and all of its worker copies.
+     * @param formatName the format name (e.g. "PDF")
+     * @param maxConcurrent the maximum number of concurrent validations, at least 1
+     */
+    public void setFormatConcurrency(String formatName, int maxConcurrent) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("concurrency for " + formatName + " must be at least 1, was " + maxConcurrent);
         }
-        return fs;
+        formatPermits.put(formatName, new Semaphore(maxConcurrent, true));
     }
 
     /**
-     * @return a list of available formats, gathered via *reflection*
+     * @return a new instance of each available format, see {@link au.gov.nla.flint.formats.FormatRegistry}
+     * @throws IllegalAccessException
+     * @throws InstantiationException
+     */
+    public static Map<String, Format> getAvailableFormats() throws IllegalAccessException, InstantiationException {
+        return FormatRegistry.getInstance().newInstances();
+    }
+
+    /**
+     * @param mimeType the mime type the formats have to be able to check
+     * @return a new instance of each available format that can check the mime type,
+     * see {@link au.gov.nla.flint.formats.FormatRegistry}
      * @throws IllegalAccessException
      * @throws InstantiationException
      */
     public static Map<String, Format> getAvailableFormats(String mimeType) throws IllegalAccessException, InstantiationException {
-        Map<String, Format> fs = new LinkedHashMap<String, Format>();
-        Set<Class<? extends Format>> reflections = new Reflections("au.gov.nla.flint.formats").getSubTypesOf(Format.class);
-        for (Class<? extends Format> fClass : reflections) {
-            Format f = fClass.newInstance();
-            if (f.canCheck(mimeType)) {
-                gLogger.info("available format {}, as in {}", fClass, fClass);
-                fs.put(f.getFormatName(), f);
-            }
-        }
-        return fs;
+        return FormatRegistry.getInstance().newInstances(mimeType);
     }
 
     /**
@@ -151,11 +279,7 @@ public class Flint {
      * @throws IllegalAccessException
      */
     public static Collection<String> getAcceptedMimetypes() throws InstantiationException, IllegalAccessException {
-        Collection<String> mTypes = new HashSet<String>();
-        for (Format f : getAvailableFormats().values()) {
-            mTypes.addAll(f.acceptedMimeTypes());
-        }
-        return mTypes;
+        return new HashSet<String>(FormatRegistry.getInstance().getAcceptedMimeTypes());
     }
 
     /**
@@ -164,31 +288,180 @@ public class Flint {
      * @return a list of {@link au.gov.nla.flint.checks.CheckResult}
      */
     public List<CheckResult> check(File pFile) {
+        return check(pFile, null);
+    }
+
+    /**
+     * Check a file of a known mime type using the specific format's check criteria.
+     * @param pFile file to check
+     * @param knownMimetype the mime type of the file, or null to detect it
+     * @return a list of {@link au.gov.nla.flint.checks.CheckResult}
+     */
+    public List<CheckResult> check(File pFile, String knownMimetype) {
 
         boolean checked = false;
 
-        String mimetype = new TikaWrapper().getMimetype(pFile);
+        String mimetype = (knownMimetype != null) ? knownMimetype : new TikaWrapper().getMimetype(pFile);
 
         List<CheckResult> results = new ArrayList<CheckResult>();
+        // digest of the file content, only calculated when needed for the result store
+        String contentDigest = null;
 
         gLogger.info("Starting to check file {}..", pFile.getName());
-        for(Format format:formats) {
-            if(format.canCheck(pFile, mimetype)) {
-                gLogger.info("Validating {} with {} checker", pFile.getName(), format.getFormatName());
-                CheckResult checkResult = format.validationResult(pFile);
+        for(Format format:getDispatch().select(pFile, mimetype)) {
+            CheckResult checkResult = null;
+            String storeKey = null;
+            String tool = (repolicy && format instanceof PolicyAware) ? ((PolicyAware) format).getPolicyTool() : null;
+            if (tool != null) {
+                try {
+                    if (contentDigest == null) {
+                        contentDigest = ResultStore.digest(pFile);
+                    }
+                    byte[] toolOutput = toolOutputs.get(contentDigest, tool);
+                    CheckResult latest = null;
+                    if (toolOutput != null) {
+                        latest = resultStore.get(resultStore.latestKey(contentDigest, format), pFile.getName());
+                    }
+                    if (latest != null) {
+                        checkResult = repolicy(format, pFile, toolOutput, latest);
+                    }
+                } catch (IOException e) {
+                    gLogger.warn("can't look up stored {} output for {}: {}", tool, pFile, e);
+                }
+            }
+            if (checkResult != null) {
+                gLogger.info("Re-evaluated the {} policy for {}", format.getFormatName(), pFile.getName());
                 gLogger.info("check-result: {}", checkResult);
+                // not validated, so its time says nothing about the format's latency
+                MetricsRegistry.getInstance().recordResult(checkResult, true);
                 results.add(checkResult);
                 checked = true;
+                continue;
+            }
+            if (resultStore != null) {
+                try {
+                    if (contentDigest == null) {
+                        contentDigest = ResultStore.digest(pFile);
+                    }
+                    storeKey = resultStore.key(contentDigest, format);
+                    checkResult = resultStore.get(storeKey, pFile.getName());
+                } catch (IOException e) {
+                    gLogger.warn("can't look up stored result for {}: {}", pFile, e);
+                }
+            }
+            boolean stored = (checkResult != null);
+            if (stored) {
+                gLogger.info("Using stored {} result for unchanged {}", format.getFormatName(), pFile.getName());
+            } else {
+                gLogger.info("Validating {} with {} checker", pFile.getName(), format.getFormatName());
+                checkResult = validate(format, pFile);
+                // the checks are done, nothing changes the result from here on
+                checkResult.freeze();
+                if (storeKey != null) {
+                    try {
+                        resultStore.put(storeKey, checkResult);
+                        if (toolOutputs != null && format instanceof PolicyAware) {
+                            // for re-evaluating a changed policy later
+                            resultStore.put(resultStore.latestKey(contentDigest, format), checkResult);
+                        }
+                    } catch (IOException e) {
+                        gLogger.warn("can't store result for {}: {}", pFile, e);
+                    }
+                }
             }
+            gLogger.info("check-result: {}", checkResult);
+            MetricsRegistry.getInstance().recordResult(checkResult, stored);
+            results.add(checkResult);
+            checked = true;
         }
 
         if(!checked) {
             gLogger.error("Unable to check: {}, mimetype: {}", pFile, mimetype);
         }
+        MetricsRegistry.getInstance().recordFile(pFile.length());
 
         return results;
     }
 
+    /**
+     * Get the formats a file would be checked with, without detecting its mime type;
+     * formats are chosen by extension only if no mime type is given.
+     * @param pFile the file
+     * @param mimetype the mime type of the file, or null if not known
+     * @return the formats, in the order they would check the file
+     */
+    public List<Format> selectFormats(File pFile, String mimetype) {
+        return getDispatch().select(pFile, mimetype);
+    }
+
+    /**
+     * @return the index of this FLint object's formats by mime type and extension
+     */
+    private FormatDispatch getDispatch() {
+        // the formats don't change after construction; the index is immutable, so a
+        // concurrent first use at worst builds it twice
+        FormatDispatch d = dispatch;
+        if (d == null) {
+            d = new FormatDispatch(formats);
+            dispatch = d;
+        }
+        return d;
+    }
+
+    /**
+     * Check the policy of a format against a stored output of its validator.
+     * @param format a policy aware format
+     * @param pFile the file the output is of
+     * @param toolOutput the stored output
+     * @param latest the latest stored result of the format for the file
+     * @return a check-result with the fixed categories of the stored result and the fresh
+     *         policy categories, or null if the policy can't be checked against the output
+     */
+    private CheckResult repolicy(Format format, File pFile, byte[] toolOutput, CheckResult latest) {
+        long startTime = System.currentTimeMillis();
+        LinkedHashMap<String, CheckCategory> categories;
+        CheckResult checkResult;
+        try {
+            categories = ((PolicyAware) format).policyValidationResult(toolOutput);
+            checkResult = new CheckResult(pFile.getName(), format.getFormatName(), format.getVersion(),
+                    format.getAllCategoryNames());
+        } catch (Exception e) {
+            // the file gets validated as usual instead
+            gLogger.warn("can't re-evaluate the {} policy for {}: {}", format.getFormatName(), pFile, e);
+            return null;
+        }
+        // the policy categories of the stored result are those of the policy it was checked with
+        for (String name : format.getFixedCategories().keySet()) {
+            CheckCategory cc = latest.get(name);
+            if (cc != null) {
+                checkResult.add(cc);
+            }
+        }
+        checkResult.addAll(categories);
+        checkResult.setTime(System.currentTimeMillis() - startTime);
+        checkResult.freeze();
+        return checkResult;
+    }
+
+    /**
+     * Validate a file with a format, respecting the format's concurrency cap if one is set.
+     * @param format the format to validate with
+     * @param pFile the file to validate
+     * @return the format's check-result
+     */
+    private CheckResult validate(Format format, File pFile) {
+        Semaphore permits = formatPermits.get(format.getFormatName());
+        if (permits == null) {
+            return format.validationResult(pFile);
+        }
+        permits.acquireUninterruptibly();
+        try {
+            return format.validationResult(pFile);
+        } finally {
+            permits.release();
+        }
+    }
+
     /**
      * Checks a file or all files in a directory recursively using a given FLint instance.
      *
@@ -199,17 +472,140 @@ public class Flint {
      * @throws IllegalAccessException
      */
     public static List<List<CheckResult>> checkMany(File inputFile, Flint flint) throws InstantiationException, IllegalAccessException {
-        List<File> files = new LinkedList<File>();
-        traverse(inputFile, files);
+        return checkMany(inputFile, flint, 1);
+    }
+
+    /**
+     * Checks a file or all files in a directory recursively using a given FLint instance
+     * and a pool of worker threads. The results are returned in the order of the
+     * directory traversal, whatever the number of threads.
+     *
+     * @param inputFile a file or directory
+     * @param flint a FLint instance
+     * @param threads the number of files to check in parallel
+     * @return a list of check-result lists, one list for each file (as it may have different format implementations)
+     * @throws InstantiationException
+     * @throws IllegalAccessException
+     */
+    public static List<List<CheckResult>> checkMany(File inputFile, Flint flint, int threads) throws InstantiationException, IllegalAccessException {
+        // files are listed while the first ones are already being checked
+        FileWalker files = new FileWalker(inputFile);
+        gLogger.info("Will now search the files in {} and parse the ones of suitable format.", inputFile);
+        BatchChecker batch = new BatchChecker(flint);
+        batch.setThreads(threads);
+        try {
+            return batch.check(files);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while checking " + inputFile, e);
+        } finally {
+            files.close();
+        }
+    }
+
+    /**
+     * Checks a file or all files in a directory recursively using a given FLint instance
+     * and a pool of worker threads, writing the results of each file to a sink as soon as
+     * they are available (in the order of the directory traversal). The sink is not closed.
+     *
+     * @param inputFile a file or directory
+     * @param flint a FLint instance
+     * @param threads the number of files to check in parallel
+     * @param sink where to write the results to
+     * @throws InstantiationException
+     * @throws IllegalAccessException
+     * @throws IOException if the sink fails to write results
+     */
+    public static void checkMany(File inputFile, Flint flint, int threads, ResultSink sink) throws InstantiationException, IllegalAccessException, IOException {
+        BatchChecker batch = new BatchChecker(flint);
+        batch.setThreads(threads);
+        checkMany(inputFile, batch, sink);
+    }
 
-        List<List<CheckResult>> results = new ArrayList<List<CheckResult>>();
+    /**
+     * Checks a file or all files in a directory recursively with a configured
+     * {@link au.gov.nla.flint.batch.BatchChecker}, writing the results of each file to a
+     * sink as soon as they are available (in the order of the directory traversal).
+     * The sink is not closed.
+     *
+     * @param inputFile a file or directory
+     * @param batch the batch checker to check the files with
+     * @param sink where to write the results to
+     * @throws InstantiationException
+     * @throws IllegalAccessException
+     * @throws IOException if the sink fails to write results
+     */
+    public static void checkMany(File inputFile, BatchChecker batch, ResultSink sink) throws InstantiationException, IllegalAccessException, IOException {
+        checkMany(inputFile, batch, null, sink);
+    }
 
-        gLogger.info("Will now search {} files and parse the ones of suitable format.", files.size());
-        for(File file:files) {
-            gLogger.debug("Checking: {}", file);
-            results.add(flint.check(file));
+    /**
+     * Checks the files of one shard of a directory tree with a configured
+     * {@link au.gov.nla.flint.batch.BatchChecker}, writing the results of each file to a
+     * sink as soon as they are available (in the order of the directory traversal).
+     * The sink is not closed.
+     *
+     * @param inputFile a file or directory
+     * @param batch the batch checker to check the files with
+     * @param shard the shard of the files to check, or null to check all of them
+     * @param sink where to write the results to
+     * @throws InstantiationException
+     * @throws IllegalAccessException
+     * @throws IOException if the sink fails to write results
+     */
+    public static void checkMany(File inputFile, BatchChecker batch, Shard shard, ResultSink sink) throws InstantiationException, IllegalAccessException, IOException {
+        FileWalker files = new FileWalker(inputFile);
+        files.setShard(shard);
+        gLogger.info("Will now search the files in {} and parse the ones of suitable format.", inputFile);
+        try {
+            batch.check(files, sink);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while checking " + inputFile, e);
+        } finally {
+            files.close();
+        }
+    }
+
+    /**
+     * Checks all files of a manifest using a given FLint instance and a pool of worker
+     * threads, writing the results of each file to a sink as soon as they are available
+     * (in the order of the manifest). Neither the manifest nor the sink is closed.
+     *
+     * @param manifest the files to check
+     * @param flint a FLint instance
+     * @param threads the number of files to check in parallel
+     * @param sink where to write the results to
+     * @throws InstantiationException
+     * @throws IllegalAccessException
+     * @throws IOException if the sink fails to write results
+     */
+    public static void checkManifest(Manifest manifest, Flint flint, int threads, ResultSink sink) throws InstantiationException, IllegalAccessException, IOException {
+        BatchChecker batch = new BatchChecker(flint);
+        batch.setThreads(threads);
+        checkManifest(manifest, batch, sink);
+    }
+
+    /**
+     * Checks all files of a manifest with a configured
+     * {@link au.gov.nla.flint.batch.BatchChecker}, writing the results of each file to a
+     * sink as soon as they are available (in the order of the manifest). Neither the
+     * manifest nor the sink is closed.
+     *
+     * @param manifest the files to check
+     * @param batch the batch checker to check the files with
+     * @param sink where to write the results to
+     * @throws InstantiationException
+     * @throws IllegalAccessException
+     * @throws IOException if the sink fails to write results
+     */
+    public static void checkManifest(Manifest manifest, BatchChecker batch, ResultSink sink) throws InstantiationException, IllegalAccessException, IOException {
+        try {
+            batch.checkEntries(manifest, sink);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while checking the files of a manifest", e);
         }
-        return results;
     }
 
     /**
@@ -247,7 +643,9 @@ public class Flint {
     }
 
     /**
-     * Print a set of results as XML to stdout
+     * Print a set of results as a complete XML document; use an
+     * {@link au.gov.nla.flint.results.XmlResultSink} to write the results of many files
+     * into a single document.
      * @param pResults results to print
      * @param pOut PrintWriter to send output to
      */
@@ -0,0 +1,540 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint.batch;
+
+import au.gov.nla.flint.Flint;
+import au.gov.nla.flint.checks.CheckCategory;
+import au.gov.nla.flint.checks.CheckCheck;
+import au.gov.nla.flint.checks.CheckResult;
+import au.gov.nla.flint.formats.Format;
+import au.gov.nla.flint.metrics.MetricsRegistry;
+import au.gov.nla.flint.results.Journal;
+import au.gov.nla.flint.results.ResultSink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks a batch of files with a bounded pool of worker threads.
+ *
+ * Every worker uses its own copy of the {@link au.gov.nla.flint.Flint} object
+ * (see {@link au.gov.nla.flint.Flint#newWorkerInstance()}), so formats that are not
+ * thread-safe are never shared. At most {@link #setMaxInFlight(int) maxInFlight} files
+ * are queued or being checked at any time, and results are handed to a
+ * {@link au.gov.nla.flint.results.ResultSink} in the order the files were supplied,
+ * however long each single file takes. With a {@link CostEstimator} the files in flight
+ * are checked most expensive first, optionally with a separate lane for very large files.
+ */
+public class BatchChecker {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(BatchChecker.class);
+
+    /**
+     * Name of the category (and check) of a result whose worker process was killed or died
+     */
+    public static final String WORKER_FAILED = "workerProcessFailed";
+
+    // runs jobs in the order they were submitted
+    private static final Comparator<Job> INPUT_ORDER = new Comparator<Job>() {
+        @Override
+        public int compare(Job a, Job b) {
+            return Long.compare(a.seq, b.seq);
+        }
+    };
+
+    // runs the most expensive jobs first, so that they don't end up at the tail of the run
+    private static final Comparator<Job> LARGEST_FIRST = new Comparator<Job>() {
+        @Override
+        public int compare(Job a, Job b) {
+            int c = Double.compare(b.cost, a.cost);
+            return (c != 0) ? c : Long.compare(a.seq, b.seq);
+        }
+    };
+
+    // runs the cheapest jobs first, so that small files aren't held up
+    private static final Comparator<Job> SMALLEST_FIRST = new Comparator<Job>() {
+        @Override
+        public int compare(Job a, Job b) {
+            int c = Double.compare(a.cost, b.cost);
+            return (c != 0) ? c : Long.compare(a.seq, b.seq);
+        }
+    };
+
+    private final Flint flint;
+    private int threads = 1;
+    private int maxInFlight = 0;
+    private CostEstimator costEstimator = null;
+    private double largeFileCost = Double.POSITIVE_INFINITY;
+    private int largeFileThreads = 0;
+    private ProcessWorkerPool processPool = null;
+    private Journal journal = null;
+
+    /**
+     * Create a new BatchChecker
+     * @param flint the FLint object to check files with (and to copy for further workers)
+     */
+    public BatchChecker(Flint flint) {
+        this.flint = flint;
+    }
+
+    /**
+     * Set the number of files to check in parallel
+     * @param threads number of worker threads, at least 1
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("number of threads must be at least 1, was " + threads);
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Set how many files may be queued or in progress at the same time; defaults
+     * to four times the number of threads.
+     * @param maxInFlight the maximum number of outstanding files, at least 1; values below
+     *                    the number of threads are raised to it
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("number of files in flight must be at least 1, was " + maxInFlight);
+        }
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Schedule files by their estimated cost instead of in input order: of the files that
+     * are in flight, the most expensive ones are checked first. Results are still written
+     * in input order, so files are only reordered within the window of
+     * {@link #setMaxInFlight(int) maxInFlight} files (four times the number of threads by
+     * default); a larger window lets the scheduler look further ahead.
+     * @param costEstimator how to estimate the cost of a file, or null to check files in input order
+     */
+    public void setCostEstimator(CostEstimator costEstimator) {
+        this.costEstimator = costEstimator;
+    }
+
+    /**
+     * Check files whose estimated cost is at least minCost on a lane of their own threads,
+     * largest first, while the remaining threads check all other files smallest first.
+     * That way a few very large files neither hold up the small ones nor end up starting
+     * last. Has no effect without a {@link #setCostEstimator(CostEstimator) cost estimator}.
+     * @param minCost the estimated cost from which a file counts as large
+     * @param laneThreads how many of the threads check large files, at least 1 and
+     *                    less than the number of threads when the batch is run
+     */
+    public void setLargeFileLane(double minCost, int laneThreads) {
+        if (laneThreads < 1) {
+            throw new IllegalArgumentException("number of large file threads must be at least 1, was " + laneThreads);
+        }
+        this.largeFileCost = minCost;
+        this.largeFileThreads = laneThreads;
+    }
+
+    /**
+     * Check the files in child JVMs instead of this one, so that a file that crashes or
+     * hangs its checks can't take down the batch. The pool should have (at least) as many
+     * workers as there are threads. Files whose worker had to be killed get an erroneous
+     * result for each format they would have been checked with. The pool is not closed.
+     * @param processPool the workers to check files in, or null to check files in this JVM
+     */
+    public void setProcessPool(ProcessWorkerPool processPool) {
+        this.processPool = processPool;
+    }
+
+    /**
+     * Record every checked file and its results in a journal, before they go to the sink,
+     * and skip files the journal already has (i.e. when it was
+     * {@link au.gov.nla.flint.results.Journal#resume(File, ResultSink) resumed}). The journal
+     * is not closed.
+     * @param journal the journal to keep, or null
+     */
+    public void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Check all the given files and collect their results.
+     * @param files the files to check
+     * @return a list of check-result lists, one list for each file, in the order of the input
+     * @throws InstantiationException
+     * @throws IllegalAccessException
+     * @throws InterruptedException
+     */
+    public List<List<CheckResult>> check(Iterable<File> files) throws InstantiationException, IllegalAccessException, InterruptedException {
+        final List<List<CheckResult>> results = new ArrayList<List<CheckResult>>();
+        try {
+            check(files, new ResultSink() {
+                @Override
+                public void write(File file, List<CheckResult> fileResults) {
+                    results.add(fileResults);
+                }
+
+                @Override
+                public void close() {
+                }
+            });
+        } catch (IOException e) {
+            // collecting into a list doesn't do any I/O
+            throw new UncheckedIOException(e);
+        }
+        return results;
+    }
+
+    /**
+     * Check all the given files, handing the results of each file to the sink as soon as
+     * it and all files before it have been checked. The sink is not closed.
+     * @param files the files to check
+     * @param sink where to write the results to, in the order of the input
+     * @throws InstantiationException
+     * @throws IllegalAccessException
+     * @throws InterruptedException
+     * @throws IOException if the sink fails to write results
+     */
+    public void check(final Iterable<File> files, ResultSink sink) throws InstantiationException, IllegalAccessException, InterruptedException, IOException {
+        checkEntries(new Iterable<Manifest.Entry>() {
+            @Override
+            public Iterator<Manifest.Entry> iterator() {
+                final Iterator<File> it = files.iterator();
+                return new Iterator<Manifest.Entry>() {
+                    @Override
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
+
+                    @Override
+                    public Manifest.Entry next() {
+                        return new Manifest.Entry(it.next(), -1, null);
+                    }
+                };
+            }
+        }, sink);
+    }
+
+    /**
+     * Check all the files of a manifest, handing the results of each file to the sink as soon
+     * as it and all files before it have been checked. Mime type detection is skipped for
+     * entries that come with a mime type. The sink is not closed.
+     * @param entries the files to check
+     * @param sink where to write the results to, in the order of the input
+     * @throws InstantiationException
+     * @throws IllegalAccessException
+     * @throws InterruptedException
+     * @throws IOException if the sink fails to write results
+     */
+    public void checkEntries(Iterable<Manifest.Entry> entries, ResultSink sink) throws InstantiationException, IllegalAccessException, InterruptedException, IOException {
+        if (journal != null) {
+            entries = skipJournaled(entries, journal);
+            sink = journaling(sink, journal);
+        }
+        if (threads == 1) {
+            // no need for any thread hand-over
+            for (Manifest.Entry entry : entries) {
+                sink.write(entry.getFile(), (processPool != null) ? checkIsolated(entry) : checkOne(flint, entry));
+            }
+            return;
+        }
+
+        final BlockingQueue<Flint> workers = new ArrayBlockingQueue<Flint>(threads);
+        if (processPool == null) {
+            workers.add(flint);
+            for (int i = 1; i < threads; i++) {
+                workers.add(flint.newWorkerInstance());
+            }
+        }
+        int window = Math.max(maxInFlight, threads);
+        if (maxInFlight <= 0) {
+            window = threads * 4;
+        }
+
+        WorkerThreadFactory threadFactory = new WorkerThreadFactory();
+        ThreadPoolExecutor pool;
+        ThreadPoolExecutor largePool = null;
+        if (costEstimator == null) {
+            pool = newLane(threads, INPUT_ORDER, threadFactory);
+        } else if (largeFileThreads > 0) {
+            if (largeFileThreads >= threads) {
+                throw new IllegalArgumentException("the large file lane needs fewer than all " + threads + " threads");
+            }
+            pool = newLane(threads - largeFileThreads, SMALLEST_FIRST, threadFactory);
+            largePool = newLane(largeFileThreads, LARGEST_FIRST, threadFactory);
+        } else {
+            pool = newLane(threads, LARGEST_FIRST, threadFactory);
+        }
+
+        Deque<Pending> inFlight = new ArrayDeque<Pending>();
+        AtomicLong inFlightGauge = MetricsRegistry.getInstance().counter(MetricsRegistry.IN_FLIGHT);
+        long seq = 0;
+        try {
+            for (final Manifest.Entry entry : entries) {
+                if (inFlight.size() >= window) {
+                    writeNext(inFlight, sink);
+                }
+                double cost = (costEstimator != null) ? costEstimator.estimate(entry) : 0;
+                Job job = new Job(seq++, cost, new Callable<List<CheckResult>>() {
+                    @Override
+                    public List<CheckResult> call() throws Exception {
+                        if (processPool != null) {
+                            return checkIsolated(entry);
+                        }
+                        Flint worker = workers.take();
+                        try {
+                            return checkOne(worker, entry);
+                        } finally {
+                            workers.put(worker);
+                        }
+                    }
+                });
+                inFlight.addLast(new Pending(entry.getFile(), job));
+                inFlightGauge.incrementAndGet();
+                if (largePool != null && cost >= largeFileCost) {
+                    largePool.execute(job);
+                } else {
+                    pool.execute(job);
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                writeNext(inFlight, sink);
+            }
+        } finally {
+            for (Pending pending : inFlight) {
+                pending.future.cancel(true);
+            }
+            inFlightGauge.addAndGet(-inFlight.size());
+            pool.shutdownNow();
+            if (largePool != null) {
+                largePool.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Leave out the entries whose files a journal already has
+     * @param entries the entries to check
+     * @param journal the journal of earlier runs
+     * @return the entries still to check
+     */
+    private static Iterable<Manifest.Entry> skipJournaled(final Iterable<Manifest.Entry> entries, final Journal journal) {
+        return new Iterable<Manifest.Entry>() {
+            @Override
+            public Iterator<Manifest.Entry> iterator() {
+                final Iterator<Manifest.Entry> it = entries.iterator();
+                return new Iterator<Manifest.Entry>() {
+                    private Manifest.Entry next = null;
+
+                    @Override
+                    public boolean hasNext() {
+                        while (next == null && it.hasNext()) {
+                            Manifest.Entry entry = it.next();
+                            if (!journal.isCompleted(entry.getFile())) {
+                                next = entry;
+                            }
+                        }
+                        return next != null;
+                    }
+
+                    @Override
+                    public Manifest.Entry next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        Manifest.Entry entry = next;
+                        next = null;
+                        return entry;
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Journal the results of each file before writing them to a sink
+     * @param sink the sink to write to
+     * @param journal the journal to keep
+     * @return a sink writing to both, closing neither
+     */
+    private static ResultSink journaling(final ResultSink sink, final Journal journal) {
+        return new ResultSink() {
+            @Override
+            public void write(File file, List<CheckResult> results) throws IOException {
+                journal.write(file, results);
+                sink.write(file, results);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Create a pool of threads that picks queued jobs in the given order
+     * @param threads the number of threads
+     * @param order the order in which to run queued jobs
+     * @param threadFactory where to get the threads from
+     * @return the new pool
+     */
+    private static ThreadPoolExecutor newLane(int threads, final Comparator<Job> order, ThreadFactory threadFactory) {
+        // only Jobs are ever queued, see execute() in checkEntries()
+        BlockingQueue<Runnable> queue = new PriorityBlockingQueue<Runnable>(16, new Comparator<Runnable>() {
+            @Override
+            public int compare(Runnable a, Runnable b) {
+                return order.compare((Job) a, (Job) b);
+            }
+        });
+        ThreadPoolExecutor lane = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, queue, threadFactory);
+        // idle threads take jobs from the queue, so every job but the first few is picked by priority
+        lane.prestartAllCoreThreads();
+        return lane;
+    }
+
+    /**
+     * Wait for the oldest outstanding file to be checked and write its results
+     * @param inFlight the outstanding files, oldest first
+     * @param sink where to write the results to
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    private void writeNext(Deque<Pending> inFlight, ResultSink sink) throws InterruptedException, IOException {
+        Pending pending = inFlight.peekFirst();
+        List<CheckResult> results;
+        try {
+            results = pending.future.get();
+        } catch (ExecutionException e) {
+            // checkOne catches everything a format can throw, so this is unexpected
+            LOGGER.error("worker failed on {}: {}", pending.file, e.getCause());
+            results = Collections.emptyList();
+        }
+        inFlight.removeFirst();
+        MetricsRegistry.getInstance().counter(MetricsRegistry.IN_FLIGHT).decrementAndGet();
+        sink.write(pending.file, results);
+    }
+
+    /**
+     * Check a single file, making sure a failing format does not abort the whole batch
+     * @param worker the FLint object to use
+     * @param entry the file to check
+     * @return the check-results for this file (empty if the file could not be checked)
+     */
+    private static List<CheckResult> checkOne(Flint worker, Manifest.Entry entry) {
+        LOGGER.debug("Checking: {}", entry);
+        try {
+            return worker.check(entry.getFile(), entry.getMimeType());
+        } catch (RuntimeException e) {
+            LOGGER.error("Unable to check {}: {}", entry, e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Check a single file in a child JVM, turning a killed worker into erroneous results
+     * @param entry the file to check
+     * @return the check-results for this file
+     * @throws InterruptedException
+     */
+    private List<CheckResult> checkIsolated(Manifest.Entry entry) throws InterruptedException {
+        LOGGER.debug("Checking in worker process: {}", entry);
+        long start = System.currentTimeMillis();
+        MetricsRegistry.getInstance().recordFile(entry.getFile().length());
+        try {
+            List<CheckResult> results = processPool.check(entry.getFile(), entry.getMimeType());
+            for (CheckResult result : results) {
+                MetricsRegistry.getInstance().recordResult(result, false);
+            }
+            return results;
+        } catch (IOException e) {
+            LOGGER.error("Unable to check {}: {}", entry, e.getMessage());
+            List<CheckResult> results = new ArrayList<CheckResult>();
+            // the formats the worker would have used, as far as we can tell without detecting the mime type
+            for (Format format : flint.selectFormats(entry.getFile(), entry.getMimeType())) {
+                CheckCategory cc = new CheckCategory(WORKER_FAILED);
+                cc.add(new CheckCheck(WORKER_FAILED, null, null));
+                CheckResult result = new CheckResult(entry.getFile().getName(), format.getFormatName(), format.getVersion());
+                result.add(cc);
+                result.setTime(System.currentTimeMillis() - start);
+                result.freeze();
+                MetricsRegistry.getInstance().recordResult(result, false);
+                results.add(result);
+            }
+            return results;
+        }
+    }
+
+    /**
+     * A file that has been handed to the worker pool
+     */
+    private static class Pending {
+        private final File file;
+        private final Future<List<CheckResult>> future;
+
+        Pending(File file, Future<List<CheckResult>> future) {
+            this.file = file;
+            this.future = future;
+        }
+    }
+
+    /**
+     * The check of a single file, ordered in a lane's queue by its estimated cost
+     */
+    private static class Job extends FutureTask<List<CheckResult>> {
+        private final long seq;
+        private final double cost;
+
+        Job(long seq, double cost, Callable<List<CheckResult>> callable) {
+            super(callable);
+            this.seq = seq;
+            this.cost = cost;
+        }
+    }
+
+    /**
+     * Names worker threads so that log lines can be attributed.
+     */
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "flint-worker-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint.batch;
+
+import au.gov.nla.flint.Flint;
+import au.gov.nla.flint.formats.Format;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Estimates how long a file will take to check, so that a {@link BatchChecker}
+ * can schedule expensive files early (or on a lane of their own).
+ *
+ * The estimate is the size of the file multiplied by the summed weights of the formats it
+ * would be checked with (1 for formats without a weight, and at least 1 in total). Only
+ * the relative size of estimates matters. The size given in a manifest is used if there
+ * is one, so the file system is only asked for files without one; the formats are
+ * chosen by mime type if known and by extension otherwise.
+ */
+public class CostEstimator {
+
+    private final Flint flint;
+    private final Map<String, Double> weights = new ConcurrentHashMap<String, Double>();
+
+    /**
+     * Create a new CostEstimator
+     * @param flint the FLint object that decides which formats check a file
+     */
+    public CostEstimator(Flint flint) {
+        this.flint = flint;
+    }
+
+    /**
+     * Set how expensive a format is per byte, relative to the default weight of 1
+     * @param formatName the name of the format, e.g. 'PDF'
+     * @param weight the weight of the format, greater than 0
+     */
+    public void setFormatWeight(String formatName, double weight) {
+        if (!(weight > 0)) {
+            throw new IllegalArgumentException("weight of " + formatName + " must be greater than 0, was " + weight);
+        }
+        weights.put(formatName, weight);
+    }
+
+    /**
+     * Estimate the cost of checking a file
+     * @param entry the file to check
+     * @return the estimated cost; 0 for files that are missing or empty
+     */
+    public double estimate(Manifest.Entry entry) {
+        long size = entry.getSize() >= 0 ? entry.getSize() : entry.getFile().length();
+        double weight = 0;
+        for (Format format : flint.selectFormats(entry.getFile(), entry.getMimeType())) {
+            Double w = weights.get(format.getFormatName());
+            weight += (w != null) ? w : 1;
+        }
+        return size * Math.max(weight, 1);
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint.batch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Lists all files below a file or directory lazily.
+ *
+ * The directory tree is walked on a background thread that hands the files it finds
+ * over through a bounded queue, so the first files can be checked while the
+ * rest of the tree is still being listed, and no more than
+ * {@link #DEFAULT_CAPACITY} (or the given capacity) paths are held in memory
+ * whatever the size of the tree. The walker blocks whenever the consumer falls behind.
+ *
+ * The entries of each directory are listed in order of their names, so a tree is
+ * always listed in the same order ({@link Shard#PATH_ORDER} of the relative paths).
+ * Only the entries of the directories on the current path are held for that.
+ * Symbolic links to regular files are listed; other symbolic links (to directories,
+ * which could form cycles, or dangling ones) are skipped.
+ *
+ * A FileWalker can only be iterated once; {@link #close()} stops a walk that has
+ * not been consumed to the end.
+ */
+public class FileWalker implements Iterable<File>, Closeable {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(FileWalker.class);
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    // marks the end of the walk in the queue
+    private static final File END = new File("");
+
+    private final File root;
+    private final BlockingQueue<File> queue;
+    private volatile boolean closed = false;
+    private Thread walker = null;
+    private Shard shard = null;
+
+    private static final Comparator<Path> BY_NAME = new Comparator<Path>() {
+        @Override
+        public int compare(Path a, Path b) {
+            return a.getFileName().toString().compareTo(b.getFileName().toString());
+        }
+    };
+
+    /**
+     * Create a new FileWalker with the default capacity
+     * @param root a file or the directory to list recursively
+     */
+    public FileWalker(File root) {
+        this(root, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a new FileWalker
+     * @param root a file or the directory to list recursively
+     * @param capacity how many paths may be listed ahead of the consumer, at least 1
+     */
+    public FileWalker(File root, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1, was " + capacity);
+        }
+        this.root = root;
+        this.queue = new ArrayBlockingQueue<File>(capacity);
+    }
+
+    /**
+     * Only list the files of one shard of the tree, see {@link Shard}; must be set
+     * before the walk starts
+     * @param shard the shard to list, or null for all files
+     */
+    public synchronized void setShard(Shard shard) {
+        if (walker != null) {
+            throw new IllegalStateException("the walk has already started");
+        }
+        this.shard = shard;
+    }
+
+    @Override
+    public synchronized Iterator<File> iterator() {
+        if (walker != null) {
+            throw new IllegalStateException("a FileWalker can only be iterated once");
+        }
+        walker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                walk();
+            }
+        }, "flint-walker");
+        walker.setDaemon(true);
+        walker.start();
+        return new Iterator<File>() {
+            private File next = null;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    try {
+                        next = queue.take();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        close();
+                        next = END;
+                    }
+                }
+                return next != END;
+            }
+
+            @Override
+            public File next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                File file = next;
+                next = null;
+                return file;
+            }
+        };
+    }
+
+    /**
+     * Stop the walk; the iterator ends after the files that have already been listed
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Thread t;
+        synchronized (this) {
+            t = walker;
+        }
+        if (t != null) {
+            t.interrupt();
+        }
+    }
+
+    private void walk() {
+        try {
+            Path start = root.toPath();
+            if (Files.isDirectory(start)) {
+                walk(start, "");
+            } else {
+                visit(start, root.getName());
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                LOGGER.error("Unable to walk {}: {}", root, e.toString());
+            }
+        } finally {
+            finish();
+        }
+    }
+
+    /**
+     * List a directory, its sorted entries first, then recursively
+     * @param dir the directory
+     * @param prefix the path of the directory relative to the root, '/'-terminated unless empty
+     * @throws IOException if the walk was interrupted
+     */
+    private void walk(Path dir, String prefix) throws IOException {
+        List<Path> entries = new ArrayList<Path>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path entry : stream) {
+                entries.add(entry);
+            }
+        } catch (IOException | DirectoryIteratorException e) {
+            // an unreadable directory shouldn't stop the whole walk
+            LOGGER.warn("Unable to list {}: {}", dir, e.toString());
+            return;
+        }
+        Collections.sort(entries, BY_NAME);
+        for (Path entry : entries) {
+            if (closed) {
+                return;
+            }
+            String relative = prefix + entry.getFileName();
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (IOException e) {
+                LOGGER.warn("Unable to list {}: {}", entry, e.toString());
+                continue;
+            }
+            if (attrs.isSymbolicLink()) {
+                if (!Files.isRegularFile(entry)) {
+                    LOGGER.debug("Skipping {}: not a link to a regular file", entry);
+                    continue;
+                }
+                visit(entry, relative);
+            } else if (attrs.isDirectory()) {
+                walk(entry, relative + "/");
+            } else {
+                visit(entry, relative);
+            }
+        }
+    }
+
+    private void visit(Path file, String relative) throws IOException {
+        if (shard == null || shard.accepts(relative)) {
+            offer(file.toFile());
+        }
+    }
+
+    /**
+     * Mark the end of the walk, waiting for room in the queue unless the walk was closed
+     */
+    private void finish() {
+        boolean interrupted = false;
+        while (!queue.offer(END)) {
+            if (closed) {
+                // nobody is going to read the rest, make room for the end marker
+                queue.poll();
+                continue;
+            }
+            try {
+                queue.put(END);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void offer(File file) throws IOException {
+        try {
+            queue.put(file);
+        } catch (InterruptedException e) {
+            closed = true;
+            throw new IOException("walk of " + root + " interrupted", e);
+        }
+    }
+}
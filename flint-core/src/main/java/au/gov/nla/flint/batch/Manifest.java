@@ -0,0 +1,224 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint.batch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A list of files to check, read lazily from a newline- or NUL-delimited stream
+ * (e.g. a file written by an ingest system, or stdin).
+ *
+ * Each record is a path, optionally followed by a tab and the file's size in bytes,
+ * and another tab and its known mime type:
+ * <pre>
+ *   /data/a.pdf
+ *   /data/b.epub&lt;TAB&gt;1234567&lt;TAB&gt;application/epub+zip
+ *   /data/c.mobi&lt;TAB&gt;&lt;TAB&gt;application/x-mobipocket-ebook
+ * </pre>
+ * Empty records are ignored. When a mime type is given, mime type detection is
+ * skipped for that file.
+ *
+ * A Manifest can only be iterated once, and nothing but the current record is held in
+ * memory.
+ */
+public class Manifest implements Iterable<Manifest.Entry>, Closeable {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(Manifest.class);
+
+    private final Reader reader;
+    private final char delimiter;
+    private boolean iterated = false;
+    private Shard shard = null;
+
+    /**
+     * Create a new Manifest
+     * @param reader where to read the records from; closed by {@link #close()}
+     * @param nulDelimited true if records are separated by NUL characters rather than newlines
+     */
+    public Manifest(Reader reader, boolean nulDelimited) {
+        // records are read a character at a time
+        this.reader = (reader instanceof BufferedReader) ? reader : new BufferedReader(reader);
+        this.delimiter = nulDelimited ? '\0' : '\n';
+    }
+
+    /**
+     * Only return the entries of one shard of the manifest, see {@link Shard}; a file
+     * belongs to a shard by its path as listed, so every node has to be given the same
+     * manifest. Must be set before the manifest is iterated.
+     * @param shard the shard to return, or null for all entries
+     */
+    public synchronized void setShard(Shard shard) {
+        if (iterated) {
+            throw new IllegalStateException("the manifest is already being read");
+        }
+        this.shard = shard;
+    }
+
+    @Override
+    public synchronized Iterator<Entry> iterator() {
+        if (iterated) {
+            throw new IllegalStateException("a Manifest can only be iterated once");
+        }
+        iterated = true;
+        return new Iterator<Entry>() {
+            private Entry next = null;
+            private boolean done = false;
+            private long record = 0;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && !done) {
+                    String line;
+                    try {
+                        line = readRecord();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("can't read manifest", e);
+                    }
+                    if (line == null) {
+                        done = true;
+                    } else {
+                        record++;
+                        next = parse(line, record);
+                        if (next != null && shard != null && !shard.accepts(listedPath(next.getFile()))) {
+                            next = null;
+                        }
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public Entry next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Entry entry = next;
+                next = null;
+                return entry;
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private static String listedPath(File file) {
+        return (File.separatorChar == '/') ? file.getPath() : file.getPath().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * @return the next record without its delimiter, or null at the end of the stream
+     * @throws IOException
+     */
+    private String readRecord() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = reader.read()) != -1) {
+            if (c == delimiter) {
+                return sb.toString();
+            }
+            sb.append((char) c);
+        }
+        return sb.length() > 0 ? sb.toString() : null;
+    }
+
+    /**
+     * Parse a single record
+     * @param line the record
+     * @param record the number of the record, for log messages
+     * @return the entry, or null if the record is empty
+     */
+    static Entry parse(String line, long record) {
+        if (line.endsWith("\r")) {
+            line = line.substring(0, line.length() - 1);
+        }
+        String[] fields = line.split("\t", -1);
+        if (fields[0].isEmpty()) {
+            return null;
+        }
+        long size = -1;
+        if (fields.length > 1 && !fields[1].trim().isEmpty()) {
+            try {
+                size = Long.parseLong(fields[1].trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warn("ignoring invalid size '{}' in manifest record {}", fields[1], record);
+            }
+        }
+        String mimeType = null;
+        if (fields.length > 2 && !fields[2].trim().isEmpty()) {
+            mimeType = fields[2].trim();
+        }
+        return new Entry(new File(fields[0]), size, mimeType);
+    }
+
+    /**
+     * A file to check, with what is known about it up front
+     */
+    public static class Entry {
+        private final File file;
+        private final long size;
+        private final String mimeType;
+
+        /**
+         * Create a new Entry
+         * @param file the file to check
+         * @param size the size of the file in bytes, or -1 if not known
+         * @param mimeType the mime type of the file, or null if it has to be detected
+         */
+        public Entry(File file, long size, String mimeType) {
+            this.file = file;
+            this.size = size;
+            this.mimeType = mimeType;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * @return the size of the file in bytes, or -1 if not known
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return the mime type of the file, or null if it has to be detected
+         */
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        @Override
+        public String toString() {
+            return file.getPath();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint.batch;
+
+import au.gov.nla.flint.Flint;
+import au.gov.nla.flint.checks.CheckResult;
+import au.gov.nla.flint.results.CheckResultCodec;
+import au.gov.nla.flint.results.ResultStore;
+import au.gov.nla.flint.results.ToolOutputStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The main class of a child JVM in a {@link ProcessWorkerPool}.
+ *
+ * The worker sets up a FLint object once and then checks one file after another as the
+ * parent asks for them, so the start-up and warm-up cost is paid once per worker rather
+ * than once per file. Requests are read from stdin and results written to stdout;
+ * anything the checks print to stdout goes to stderr instead. The protocol is:
+ * <ul>
+ *   <li>worker: int {@link #READY} once the FLint object has been set up</li>
+ *   <li>parent: UTF path, boolean whether a mime type follows, [UTF mime type]</li>
+ *   <li>worker: int number of results, followed by each result as written by
+ *       {@link au.gov.nla.flint.results.CheckResultCodec#write(java.io.DataOutput, CheckResult)}</li>
+ * </ul>
+ * The worker exits when stdin is closed.
+ *
+ * Arguments: [-p POLICY_PROPERTIES_DIR] [-s RESULT_STORE_DIR] [-t TOOL_OUTPUT_DIR | -r TOOL_OUTPUT_DIR],
+ * where -r also only re-evaluates the policy, see {@link Flint#setRepolicy(boolean)}
+ */
+public class ProcessWorker {
+
+    /**
+     * Sent by a worker when it is ready for requests (and to check it speaks the same protocol)
+     */
+    public static final int READY = 0x464c4e54 + CheckResultCodec.VERSION;
+
+    private ProcessWorker() {}
+
+    public static void main(String[] args) throws Exception {
+        // the results go to the parent over stdout, so nothing else may write to it;
+        // this has to happen before logging is set up
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        System.setOut(System.err);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(FileDescriptor.in)));
+        Logger logger = LoggerFactory.getLogger(ProcessWorker.class);
+
+        File policyPropertiesDir = null;
+        File resultStore = null;
+        File toolOutputs = null;
+        boolean repolicy = false;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals("-p")) {
+                policyPropertiesDir = new File(args[i + 1]);
+            } else if (args[i].equals("-s")) {
+                resultStore = new File(args[i + 1]);
+            } else if (args[i].equals("-t") || args[i].equals("-r")) {
+                toolOutputs = new File(args[i + 1]);
+                repolicy = args[i].equals("-r");
+            } else {
+                throw new IllegalArgumentException("unknown argument " + args[i]);
+            }
+        }
+        Flint flint = (policyPropertiesDir != null) ? new Flint(policyPropertiesDir) : new Flint();
+        if (resultStore != null) {
+            flint.setResultStore(new ResultStore(resultStore));
+        }
+        if (toolOutputs != null) {
+            flint.setToolOutputStore(new ToolOutputStore(toolOutputs));
+            flint.setRepolicy(repolicy);
+        }
+
+        out.writeInt(READY);
+        out.flush();
+        while (true) {
+            String path;
+            try {
+                path = in.readUTF();
+            } catch (EOFException e) {
+                // the parent is done with us
+                return;
+            }
+            String mimeType = in.readBoolean() ? in.readUTF() : null;
+            List<CheckResult> results;
+            try {
+                results = flint.check(new File(path), mimeType);
+            } catch (RuntimeException e) {
+                logger.error("Unable to check {}: {}", path, e);
+                results = Collections.emptyList();
+            }
+            out.writeInt(results.size());
+            for (CheckResult result : results) {
+                CheckResultCodec.write(out, result);
+            }
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint.batch;
+
+import au.gov.nla.flint.checks.CheckResult;
+import au.gov.nla.flint.results.CheckResultCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of child JVMs that check files on behalf of this one (see {@link ProcessWorker}).
+ *
+ * A file that makes a check run out of memory, overflow its stack or hang can only take
+ * down the worker it runs in: a worker that does not answer within the timeout is killed,
+ * one that dies (workers exit on an OutOfMemoryError) is noticed by the broken pipe, and
+ * either way a fresh worker is started in its place. The workers are started up front
+ * and re-used for many files, so the JVM start-up and format set-up are paid once per
+ * worker.
+ */
+public class ProcessWorkerPool implements Closeable {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(ProcessWorkerPool.class);
+
+    /**
+     * The system properties, besides all 'flint.*' ones, that {@link #forwardSystemProperties()}
+     * passes on to the workers
+     */
+    public static final List<String> FORWARDED_PROPERTIES = Collections.unmodifiableList(
+            Arrays.asList("enable-pdfbox", "enable-calibre"));
+
+    // how long a new worker may take to set up its formats
+    private static final long STARTUP_TIMEOUT = TimeUnit.MINUTES.toMillis(2);
+
+    private final int size;
+    private final List<String> workerArgs;
+    private final List<String> jvmOptions = new ArrayList<String>();
+    private long timeoutMillis = TimeUnit.MINUTES.toMillis(20);
+
+    private final BlockingQueue<Worker> idle = new LinkedBlockingQueue<Worker>();
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "flint-worker-watchdog");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    private final AtomicInteger live = new AtomicInteger();
+    private final AtomicInteger replaced = new AtomicInteger();
+    private volatile boolean closed = false;
+    private boolean started = false;
+
+    /**
+     * Create a new ProcessWorkerPool; no worker is started before {@link #start()} or the first check
+     * @param size the number of worker processes, at least 1
+     * @param workerArgs the arguments for each {@link ProcessWorker}
+     */
+    public ProcessWorkerPool(int size, List<String> workerArgs) {
+        if (size < 1) {
+            throw new IllegalArgumentException("number of worker processes must be at least 1, was " + size);
+        }
+        this.size = size;
+        this.workerArgs = new ArrayList<String>(workerArgs);
+    }
+
+    /**
+     * Set the maximum heap of each worker
+     * @param maxHeap the heap size as given to -Xmx, e.g. '2g'
+     */
+    public void setMaxHeap(String maxHeap) {
+        jvmOptions.add("-Xmx" + maxHeap);
+    }
+
+    /**
+     * Add an option to the command line of each worker JVM, e.g. '-Denable-pdfbox=false'
+     * @param option the option
+     */
+    public void addJvmOption(String option) {
+        jvmOptions.add(option);
+    }
+
+    /**
+     * Pass the system properties of this JVM that configure the checks (those in
+     * {@link #FORWARDED_PROPERTIES} and all 'flint.*' ones) on to each worker JVM, so that
+     * the workers check files the same way as this JVM would
+     */
+    public void forwardSystemProperties() {
+        for (String name : new TreeSet<String>(System.getProperties().stringPropertyNames())) {
+            if (name.startsWith("flint.") || FORWARDED_PROPERTIES.contains(name)) {
+                addJvmOption("-D" + name + "=" + System.getProperty(name));
+            }
+        }
+    }
+
+    /**
+     * Set how long a worker may take to check a single file before it is killed
+     * @param timeout the timeout
+     * @param unit the unit of the timeout
+     */
+    public void setTimeout(long timeout, TimeUnit unit) {
+        this.timeoutMillis = unit.toMillis(timeout);
+    }
+
+    /**
+     * @return how many workers have been killed or died and were replaced
+     */
+    public int getReplaced() {
+        return replaced.get();
+    }
+
+    /**
+     * Start all workers; they set up their formats in parallel while this returns straight away
+     * @throws IOException if a worker process can't be started
+     */
+    public synchronized void start() throws IOException {
+        if (started) {
+            return;
+        }
+        started = true;
+        for (int i = 0; i < size; i++) {
+            idle.add(new Worker());
+            live.incrementAndGet();
+        }
+    }
+
+    /**
+     * Check a file in one of the workers, waiting for a free worker if there is none
+     * @param file the file to check
+     * @param mimeType the mime type of the file, or null to detect it
+     * @return the check-results for the file
+     * @throws IOException if the worker timed out or died while checking the file
+     * @throws InterruptedException
+     */
+    public List<CheckResult> check(File file, String mimeType) throws IOException, InterruptedException {
+        start();
+        Worker worker = borrow();
+        boolean healthy = false;
+        try {
+            List<CheckResult> results = worker.check(file, mimeType);
+            healthy = true;
+            return results;
+        } finally {
+            if (closed) {
+                worker.stop();
+            } else if (healthy) {
+                idle.put(worker);
+            } else {
+                worker.kill();
+                replace();
+            }
+        }
+    }
+
+    /**
+     * Wait for an idle worker
+     * @return the worker
+     * @throws IOException if there are no workers left
+     * @throws InterruptedException
+     */
+    private Worker borrow() throws IOException, InterruptedException {
+        while (true) {
+            Worker worker = idle.poll(1, TimeUnit.SECONDS);
+            if (worker != null) {
+                return worker;
+            }
+            if (closed || live.get() == 0) {
+                throw new IOException("no worker processes left");
+            }
+        }
+    }
+
+    /**
+     * Start a new worker in place of one that was killed
+     */
+    private void replace() {
+        replaced.incrementAndGet();
+        try {
+            idle.add(new Worker());
+        } catch (IOException e) {
+            live.decrementAndGet();
+            LOGGER.error("Unable to start a replacement worker process, {} left: {}", live.get(), e.toString());
+        }
+    }
+
+    /**
+     * Stop all workers; checks that are still running are cut short
+     */
+    @Override
+    public void close() {
+        closed = true;
+        List<Worker> workers = new ArrayList<Worker>();
+        idle.drainTo(workers);
+        for (Worker worker : workers) {
+            worker.stop();
+        }
+        watchdog.shutdownNow();
+    }
+
+    /**
+     * A single child JVM
+     */
+    private class Worker {
+        private final Process process;
+        private final DataOutputStream out;
+        private final DataInputStream in;
+        private boolean ready = false;
+        private volatile boolean timedOut = false;
+
+        Worker() throws IOException {
+            List<String> command = new ArrayList<String>();
+            command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.addAll(jvmOptions);
+            // an OutOfMemoryError must not leave a half-working worker behind
+            command.add("-XX:+ExitOnOutOfMemoryError");
+            command.add(ProcessWorker.class.getName());
+            command.addAll(workerArgs);
+            ProcessBuilder pb = new ProcessBuilder(command);
+            pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+            process = pb.start();
+            out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+            in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+        }
+
+        List<CheckResult> check(File file, String mimeType) throws IOException {
+            if (!ready) {
+                int hello = withTimeout(STARTUP_TIMEOUT, new IORead<Integer>() {
+                    @Override
+                    public Integer read() throws IOException {
+                        return in.readInt();
+                    }
+                }, "starting up");
+                if (hello != ProcessWorker.READY) {
+                    throw new IOException("worker process doesn't speak the protocol of this version");
+                }
+                ready = true;
+            }
+            out.writeUTF(file.getPath());
+            out.writeBoolean(mimeType != null);
+            if (mimeType != null) {
+                out.writeUTF(mimeType);
+            }
+            out.flush();
+            return withTimeout(timeoutMillis, new IORead<List<CheckResult>>() {
+                @Override
+                public List<CheckResult> read() throws IOException {
+                    int count = in.readInt();
+                    List<CheckResult> results = new ArrayList<CheckResult>(count);
+                    for (int i = 0; i < count; i++) {
+                        results.add(CheckResultCodec.read(in));
+                    }
+                    return Collections.unmodifiableList(results);
+                }
+            }, "checking " + file);
+        }
+
+        /**
+         * Read from the worker, killing it if it doesn't answer in time
+         */
+        private <T> T withTimeout(long millis, IORead<T> read, String what) throws IOException {
+            ScheduledFuture<?> kill = watchdog.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    timedOut = true;
+                    kill();
+                }
+            }, millis, TimeUnit.MILLISECONDS);
+            try {
+                return read.read();
+            } catch (IOException e) {
+                if (timedOut) {
+                    throw new IOException("worker process timed out after " + millis + " ms " + what, e);
+                }
+                throw new IOException("worker process died " + what + exitStatus(), e);
+            } finally {
+                kill.cancel(false);
+            }
+        }
+
+        private String exitStatus() {
+            try {
+                if (process.waitFor(1, TimeUnit.SECONDS)) {
+                    return " (exit code " + process.exitValue() + ")";
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "";
+        }
+
+        void kill() {
+            process.destroyForcibly();
+        }
+
+        void stop() {
+            try {
+                // end of input tells the worker to exit
+                out.close();
+                if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                    kill();
+                }
+            } catch (IOException e) {
+                kill();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                kill();
+            }
+        }
+    }
+
+    private interface IORead<T> {
+        T read() throws IOException;
+    }
+}
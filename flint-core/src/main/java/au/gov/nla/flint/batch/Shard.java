@@ -0,0 +1,142 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint.batch;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+
+/**
+ * One of n disjoint slices of a collection, so that independent nodes can each check
+ * their own share of the same files without any coordination.
+ *
+ * A file belongs to a shard by a stable hash of its path relative to the root of the
+ * collection (or its path as listed in a manifest), with '/' as separator, so every
+ * node puts every file in the same shard whatever its JVM, operating system or mount
+ * point. The content digest would survive files being moved as well, but every node
+ * would have to read every file to compute it, which defeats the purpose.
+ */
+public final class Shard {
+
+    /**
+     * The order in which a sorted walk lists relative paths: segment by segment, so that
+     * everything below "a" comes before "a-b"
+     */
+    public static final Comparator<String> PATH_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String a, String b) {
+            String[] as = a.split("/", -1);
+            String[] bs = b.split("/", -1);
+            for (int i = 0; i < Math.min(as.length, bs.length); i++) {
+                int c = as[i].compareTo(bs[i]);
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return Integer.compare(as.length, bs.length);
+        }
+    };
+
+    private final int index;
+    private final int count;
+
+    /**
+     * Create a new Shard
+     * @param index the number of this shard, from 1 to count
+     * @param count the number of shards
+     */
+    public Shard(int index, int count) {
+        if (count < 1 || index < 1 || index > count) {
+            throw new IllegalArgumentException("invalid shard " + index + "/" + count +
+                    ", expected i/n with 1 <= i <= n");
+        }
+        this.index = index;
+        this.count = count;
+    }
+
+    /**
+     * Parse a shard given as "i/n", e.g. "2/4" for the second of four shards
+     * @param spec the shard
+     * @return the shard
+     * @throws IllegalArgumentException if spec is not a valid shard
+     */
+    public static Shard parse(String spec) {
+        String[] bits = spec.trim().split("/");
+        if (bits.length != 2) {
+            throw new IllegalArgumentException("invalid shard '" + spec + "', expected i/n");
+        }
+        try {
+            return new Shard(Integer.parseInt(bits[0].trim()), Integer.parseInt(bits[1].trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid shard '" + spec + "', expected i/n");
+        }
+    }
+
+    /**
+     * @param relativePath the path of a file relative to the root of the collection, '/'-separated
+     * @return true if the file belongs to this shard
+     */
+    public boolean accepts(String relativePath) {
+        return Long.remainderUnsigned(hash(relativePath), count) == index - 1;
+    }
+
+    /**
+     * Get the path of a file relative to the root of a collection, as used to shard it
+     * @param root the root directory (or the file itself)
+     * @param file a file below the root
+     * @return the '/'-separated relative path; the name of the file if it is the root
+     */
+    public static String relativePath(File root, File file) {
+        String path = root.toPath().relativize(file.toPath()).toString();
+        if (path.isEmpty()) {
+            return file.getName();
+        }
+        return (File.separatorChar == '/') ? path : path.replace(File.separatorChar, '/');
+    }
+
+    /**
+     * 64 bit FNV-1a over the utf-8 bytes, with a final mix so that paths that only
+     * differ at the end spread over all shards
+     * @param s a path
+     * @return the hash of the path
+     */
+    public static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+            h ^= (b & 0xff);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return index + "/" + count;
+    }
+}
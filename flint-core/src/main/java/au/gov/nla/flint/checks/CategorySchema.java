@@ -0,0 +1,146 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint.checks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The expected categories of a {@link CheckResult}, in order.
+ *
+ * A format expects the same categories in every result, so schemas are shared: equal
+ * lists of category names give the same schema, and each result only keeps an array
+ * with a slot per category instead of a map of its own. Category and check names are
+ * {@link #intern(String) interned} for the same reason.
+ */
+public final class CategorySchema {
+
+    /**
+     * The schema of results without expected categories
+     */
+    public static final CategorySchema EMPTY = new CategorySchema(new String[0]);
+
+    // both only grow with the number of distinct policies and checks, but are
+    // capped in case names are ever made up per file
+    private static final int MAX_SCHEMAS = 1024;
+    private static final int MAX_NAMES = 64 * 1024;
+
+    private static final Map<List<String>, CategorySchema> SCHEMAS = new ConcurrentHashMap<List<String>, CategorySchema>();
+    private static final Map<String, String> NAMES = new ConcurrentHashMap<String, String>();
+
+    private final String[] names;
+    private final Map<String, Integer> index;
+
+    private CategorySchema(String[] names) {
+        this.names = names;
+        this.index = new HashMap<String, Integer>(names.length * 2);
+        for (int i = 0; i < names.length; i++) {
+            if (!index.containsKey(names[i])) {
+                index.put(names[i], i);
+            }
+        }
+    }
+
+    /**
+     * Get the schema for a list of category names
+     * @param categoryNames the names of the expected categories, in order; duplicates are ignored
+     * @return the schema, shared with all other results expecting the same categories
+     */
+    public static CategorySchema of(Collection<String> categoryNames) {
+        if (categoryNames.isEmpty()) {
+            return EMPTY;
+        }
+        List<String> key = new ArrayList<String>(categoryNames.size());
+        for (String name : categoryNames) {
+            String interned = intern(name);
+            if (!key.contains(interned)) {
+                key.add(interned);
+            }
+        }
+        CategorySchema schema = SCHEMAS.get(key);
+        if (schema == null) {
+            schema = new CategorySchema(key.toArray(new String[key.size()]));
+            if (SCHEMAS.size() < MAX_SCHEMAS) {
+                CategorySchema existing = SCHEMAS.putIfAbsent(key, schema);
+                if (existing != null) {
+                    schema = existing;
+                }
+            }
+        }
+        return schema;
+    }
+
+    /**
+     * Get the canonical instance of a category or check name
+     * @param name a name, or null
+     * @return an equal string shared by everyone who interned it
+     */
+    public static String intern(String name) {
+        if (name == null) {
+            return null;
+        }
+        String interned = NAMES.get(name);
+        if (interned == null) {
+            if (NAMES.size() >= MAX_NAMES) {
+                return name;
+            }
+            interned = NAMES.putIfAbsent(name, name);
+            if (interned == null) {
+                interned = name;
+            }
+        }
+        return interned;
+    }
+
+    /**
+     * @return the number of categories
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * @param i the position of a category
+     * @return the name of the category
+     */
+    public String getName(int i) {
+        return names[i];
+    }
+
+    /**
+     * @param name the name of a category
+     * @return the position of the category, or -1 if it is not part of this schema
+     */
+    public int indexOf(String name) {
+        Integer i = index.get(name);
+        return (i == null) ? -1 : i;
+    }
+
+    /**
+     * @return the names of the categories, in order
+     */
+    public List<String> getNames() {
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+}
@@ -18,7 +18,9 @@
 package au.gov.nla.flint.checks;
 
 import java.io.PrintWriter;
-import java.util.LinkedHashMap;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
 
 import static org.apache.commons.lang3.StringEscapeUtils.ESCAPE_XML10;
 
@@ -34,27 +36,84 @@ import static org.apache.commons.lang3.StringEscapeUtils.ESCAPE_XML10;
  * The category's validation outcome is captured by the
  * method {@link #isHappy()}, which evaluates to true if *none* of the child-tests
  * is unhappy and at least one child-test ran successfully and is happy.
+ *
+ * The checks are kept as arrays of names and outcomes rather than as objects; the
+ * outcome of the category is worked out once and kept until another check is added.
  */
 public class CheckCategory {
 
-    private String name;
-    private LinkedHashMap<String, CheckCheck> checks;
+    private static final byte UNKNOWN = -1;
+    private static final String[] NO_NAMES = new String[0];
+    private static final byte[] NO_OUTCOMES = new byte[0];
+
+    private final String name;
+
+    // the checks, in the order they were added, as parallel arrays; error counts are
+    // only kept once a check has one
+    private String[] names = NO_NAMES;
+    private byte[] outcomes = NO_OUTCOMES;
+    private int[] errorCounts = null;
+    private int size = 0;
+
+    private byte outcome = UNKNOWN;
+    private boolean frozen = false;
 
     /**
      * Create a CheckCategory object, a container for a set of CheckCheck objects
      * @param name the name of this category
      */
     public CheckCategory(String name) {
-        this.name = name;
-        this.checks = new LinkedHashMap<String, CheckCheck>();
+        this.name = CategorySchema.intern(name);
     }
 
     /**
-     * Add a CheckCheck test to this CheckCategory 
+     * Add a CheckCheck test to this CheckCategory, replacing a check of the same name
      * @param check check to add
+     * @throws IllegalStateException if the category has been {@link #freeze() frozen}
      */
     public void add(CheckCheck check) {
-        this.checks.put(check.getName(), check);
+        if (frozen) {
+            throw new IllegalStateException("check-category " + name + " is frozen");
+        }
+        String checkName = check.getName();
+        int i = indexOf(checkName);
+        if (i < 0) {
+            if (size == names.length) {
+                int capacity = Math.max(4, size * 2);
+                names = Arrays.copyOf(names, capacity);
+                outcomes = Arrays.copyOf(outcomes, capacity);
+                if (errorCounts != null) {
+                    errorCounts = Arrays.copyOf(errorCounts, capacity);
+                }
+            }
+            i = size++;
+            names[i] = checkName;
+        }
+        outcomes[i] = check.getOutcome();
+        if (check.getRawErrorCount() != CheckCheck.NO_COUNT && errorCounts == null) {
+            errorCounts = new int[names.length];
+            Arrays.fill(errorCounts, CheckCheck.NO_COUNT);
+        }
+        if (errorCounts != null) {
+            errorCounts[i] = check.getRawErrorCount();
+        }
+        outcome = UNKNOWN;
+    }
+
+    /**
+     * Make this category immutable and drop its spare capacity; called once its results are complete
+     */
+    public void freeze() {
+        if (frozen) return;
+        if (size < names.length) {
+            names = Arrays.copyOf(names, size);
+            outcomes = Arrays.copyOf(outcomes, size);
+            if (errorCounts != null) {
+                errorCounts = Arrays.copyOf(errorCounts, size);
+            }
+        }
+        getOutcome();
+        frozen = true;
     }
 
     /**
@@ -64,14 +123,8 @@ public class CheckCategory {
      * otherwise --> true.
      */
     public Boolean isHappy() {
-        if (isErroneous()) return null;
-        if (this.checks.isEmpty()) return null;
-        for (CheckCheck check : this.checks.values()) {
-            // if we know of a child-check that ran successfully and FAILED,
-            // we are definitely not happy in total.
-        	if(check!=null && !check.isHappy()) return false;
-        }
-        return true;
+        byte o = getOutcome();
+        return o == CheckCheck.ERROR ? null : o == CheckCheck.PASSED ? Boolean.TRUE : Boolean.FALSE;
     }
 
     /**
@@ -80,10 +133,7 @@ public class CheckCategory {
      * 			or if there are no CheckChecks in this CheckCategory
      */
     public boolean isErroneous() {
-        for (CheckCheck check : this.checks.values()) {
-            if (check != null && check.isErroneous()) return true;
-        }
-        return this.checks.isEmpty();	// true if empty
+        return getOutcome() == CheckCheck.ERROR;
     }
 
     /**
@@ -91,7 +141,27 @@ public class CheckCategory {
      * @return "error", "passed" or "failed"
      */
     public String getResult() {
-        return this.isErroneous() ? "error" : this.isHappy() ? "passed" : "failed";
+        return CheckCheck.describe(getOutcome());
+    }
+
+    /**
+     * @return the outcome of the checks, worked out once until another check is added
+     */
+    byte getOutcome() {
+        byte o = outcome;
+        if (o == UNKNOWN) {
+            // erroneous if empty or if any check is, otherwise failed if any check failed
+            o = (size == 0) ? CheckCheck.ERROR : CheckCheck.PASSED;
+            for (int i = 0; i < size && o != CheckCheck.ERROR; i++) {
+                if (outcomes[i] == CheckCheck.ERROR) {
+                    o = CheckCheck.ERROR;
+                } else if (outcomes[i] == CheckCheck.FAILED) {
+                    o = CheckCheck.FAILED;
+                }
+            }
+            outcome = o;
+        }
+        return o;
     }
 
     /**
@@ -101,12 +171,18 @@ public class CheckCategory {
      * @param indent (whitespace) padding added to "shift" padding for any child CheckCheck output XML
      */
     public void toXML(PrintWriter pw, String shift, String indent) {
-        pw.println(String.format("%s<checkCategory name='%s' result='%s'>",
-                shift, ESCAPE_XML10.translate(name), getResult()));
-        for (CheckCheck check : checks.values()) {
-            check.toXML(pw, shift + indent);
+        pw.print(shift);
+        pw.print("<checkCategory name='");
+        pw.print(ESCAPE_XML10.translate(name));
+        pw.print("' result='");
+        pw.print(getResult());
+        pw.println("'>");
+        String childShift = shift + indent;
+        for (int i = 0; i < size; i++) {
+            CheckCheck.toXML(pw, childShift, names[i], outcomes[i], errorCount(i));
         }
-        pw.println(String.format("%s</checkCategory>", shift));
+        pw.print(shift);
+        pw.println("</checkCategory>");
 
     }
 
@@ -116,7 +192,29 @@ public class CheckCategory {
      * @return the CheckCheck object (or null)
      */
     public CheckCheck get(String checkCheckName) {
-        return this.checks.get(checkCheckName);
+        int i = indexOf(checkCheckName);
+        return (i < 0) ? null : check(i);
+    }
+
+    /**
+     * Get all CheckChecks of this CheckCategory, in the order they were added
+     * @return a read-only view of the CheckChecks
+     */
+    public List<CheckCheck> getChecks() {
+        return new AbstractList<CheckCheck>() {
+            @Override
+            public CheckCheck get(int i) {
+                if (i < 0 || i >= size) {
+                    throw new IndexOutOfBoundsException(Integer.toString(i));
+                }
+                return check(i);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
     }
 
     /**
@@ -130,4 +228,23 @@ public class CheckCategory {
     public String toString() {
         return this.name + ": " + getResult();
     }
+
+    private CheckCheck check(int i) {
+        return new CheckCheck(names[i], outcomes[i], errorCount(i));
+    }
+
+    private int errorCount(int i) {
+        return (errorCounts == null) ? CheckCheck.NO_COUNT : errorCounts[i];
+    }
+
+    private int indexOf(String checkName) {
+        // categories hold a handful of checks, and their names are mostly interned
+        for (int i = 0; i < size; i++) {
+            if (names[i] == checkName) return i;
+        }
+        for (int i = 0; i < size; i++) {
+            if (checkName != null && checkName.equals(names[i])) return i;
+        }
+        return -1;
+    }
 }
@@ -30,14 +30,24 @@ import static org.apache.commons.lang3.StringEscapeUtils.ESCAPE_XML10;
  * satisfactory or not ({@link CheckCheck#isHappy()}).
  *
  * In case a defined check has failed multiple times, an
- * {@link au.gov.nla.flint.checks.CheckCheck#errorCount} is meant to track
+ * {@link au.gov.nla.flint.checks.CheckCheck#getErrorCount() error count} is meant to track
  * this.
+ *
+ * CheckChecks are immutable and compare by value.
  */
-public class CheckCheck {
+public final class CheckCheck {
+
+    // outcomes, as kept by CheckCategory for its checks
+    static final byte ERROR = 0;
+    static final byte FAILED = 1;
+    static final byte PASSED = 2;
+
+    // error count of checks that don't have one
+    static final int NO_COUNT = Integer.MIN_VALUE;
 
-    private String name;
-    private Boolean result		= null; // Initially null; can be null
-    private Integer errorCount	= null; // Initially null; can be null
+    private final String name;
+    private final byte outcome;
+    private final int errorCount;
 
     /**
      * Construct a CheckCheck object
@@ -47,8 +57,12 @@ public class CheckCheck {
      * @param errorCount count of times this defined check has failed
      */
     public CheckCheck(String name, Boolean result, Integer errorCount) {
+        this(CategorySchema.intern(name), outcome(result), errorCount == null ? NO_COUNT : errorCount);
+    }
+
+    CheckCheck(String name, byte outcome, int errorCount) {
         this.name = name;
-        this.result = result;
+        this.outcome = outcome;
         this.errorCount = errorCount;
     }
 
@@ -58,9 +72,20 @@ public class CheckCheck {
      * @param shift (whitespace) padding output before XML
      */
     public void toXML(PrintWriter pw, String shift) {
-        pw.println(String.format("%s<check name='%s' result='%s'%s/>",
-                shift, ESCAPE_XML10.translate(name), getResult(),
-                (errorCount != null ? " errorCount='" + errorCount + "'" : "")));
+        toXML(pw, shift, name, outcome, errorCount);
+    }
+
+    static void toXML(PrintWriter pw, String shift, String name, byte outcome, int errorCount) {
+        pw.print(shift);
+        pw.print("<check name='");
+        pw.print(ESCAPE_XML10.translate(name));
+        pw.print("' result='");
+        pw.print(describe(outcome));
+        if (errorCount != NO_COUNT) {
+            pw.print("' errorCount='");
+            pw.print(errorCount);
+        }
+        pw.println("'/>");
     }
 
     /**
@@ -68,7 +93,7 @@ public class CheckCheck {
      * @return true/false, depending whether or not the test passes/fails
      */
     public Boolean isHappy() {
-        return this.result;
+        return outcome == ERROR ? null : outcome == PASSED ? Boolean.TRUE : Boolean.FALSE;
     }
 
     /**
@@ -76,7 +101,7 @@ public class CheckCheck {
      * @return true if no result has been stored, otherwise false
      */
     public boolean isErroneous() {
-        return isHappy() == null;
+        return outcome == ERROR;
     }
 
     /**
@@ -84,7 +109,23 @@ public class CheckCheck {
      * @return "error", "passed" or "failed"
      */
     public String getResult() {
-        return this.isErroneous() ? "error" : this.isHappy() ? "passed" : "failed";
+        return describe(outcome);
+    }
+
+    byte getOutcome() {
+        return outcome;
+    }
+
+    int getRawErrorCount() {
+        return errorCount;
+    }
+
+    static byte outcome(Boolean happy) {
+        return happy == null ? ERROR : happy ? PASSED : FAILED;
+    }
+
+    static String describe(byte outcome) {
+        return outcome == ERROR ? "error" : outcome == PASSED ? "passed" : "failed";
     }
 
     public String toString() {
@@ -104,7 +145,20 @@ public class CheckCheck {
      * @return the error count of this CheckCheck
      */
     public Integer getErrorCount() {
-        return this.errorCount;
+        return errorCount == NO_COUNT ? null : Integer.valueOf(errorCount);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CheckCheck)) return false;
+        CheckCheck other = (CheckCheck) o;
+        return outcome == other.outcome && errorCount == other.errorCount
+                && (name == null ? other.name == null : name.equals(other.name));
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * (name == null ? 0 : name.hashCode()) + outcome) + errorCount;
     }
-    
 }
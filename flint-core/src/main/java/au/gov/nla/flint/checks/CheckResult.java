@@ -19,12 +19,11 @@ package au.gov.nla.flint.checks;
 
 
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.text.WordUtils;
 
 import java.io.PrintWriter;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -42,12 +41,19 @@ import static org.apache.commons.lang3.StringEscapeUtils.ESCAPE_XML10;
  * evaluate to true.
  *
  * A CheckResult knows how to be written as an xml string ({@link CheckResult#toXML(java.io.PrintWriter, String, String)}).
+ *
+ * The expected categories are described by a {@link CategorySchema} that is shared by all
+ * results of a format. Once the checks are done a result is {@link #freeze() frozen}: from
+ * then on it can't be changed, and its outcome is only worked out once.
  */
 public class CheckResult {
 
-    private String filename;
-    private String format;
-    private String version;
+    private static final byte UNKNOWN = -1;
+    private static final CheckCategory[] NO_CATEGORIES = new CheckCategory[0];
+
+    private final String filename;
+    private final String format;
+    private final String version;
     private Long time; // can be null
 
     /**
@@ -58,7 +64,18 @@ public class CheckResult {
         "filename", "format", "version", "result", "timeTaken"
     };
 
-    private LinkedHashMap<String, CheckCategory> categories;
+    // a slot per expected category (null until filled in), followed by any
+    // categories that weren't expected, in the order they were added
+    private final CategorySchema schema;
+    private final CheckCategory[] slots;
+    private List<String> extraNames = null;
+    private List<CheckCategory> extraCategories = null;
+
+    // resources used by each timed task that contributed to this result
+    private List<TaskMetrics> taskMetrics = null;
+
+    private byte outcome = UNKNOWN;
+    private boolean frozen = false;
 
     /**
      * Construct a CheckResult object
@@ -68,10 +85,7 @@ public class CheckResult {
      * @param version version of the toolkit producing the check-result
      */
     public CheckResult(String filename, String format, String version) {
-        this.filename = filename;
-        this.format = format;
-        this.version = version;
-        this.categories = new LinkedHashMap<String, CheckCategory>();
+        this(filename, format, version, CategorySchema.EMPTY);
     }
 
     /**
@@ -84,26 +98,132 @@ public class CheckResult {
      * @param expectedCategories list of strings representing expected category names
      */
     public CheckResult(String filename, String format, String version, Collection<String> expectedCategories) {
-        this(filename, format, version);
-        for (String cat : expectedCategories) {
-            this.categories.put(cat, null);
-        }
+        this(filename, format, version, CategorySchema.of(expectedCategories));
+    }
+
+    /**
+     * Initialise a CheckResult with the expected categories of a schema
+     *
+     * @param filename name of the input file
+     * @param format string representation of the format (e.g. "PDF", "EPUB", ..)
+     * @param version version of the toolkit producing the check-result
+     * @param schema the expected categories
+     */
+    public CheckResult(String filename, String format, String version, CategorySchema schema) {
+        this.filename = filename;
+        this.format = CategorySchema.intern(format);
+        this.version = CategorySchema.intern(version);
+        this.schema = schema;
+        this.slots = (schema.size() == 0) ? NO_CATEGORIES : new CheckCategory[schema.size()];
     }
 
     /**
      * Add CheckCategory to this CheckResult
      * @param cc CheckCategory to add
+     * @throws IllegalStateException if the result has been {@link #freeze() frozen}
      */
     public void add(CheckCategory cc) {
-        this.categories.put(cc.getName(), cc);
+        put(cc.getName(), cc);
     }
     
     /**
      * Add all CheckCatergory objects in the map to this CheckResult
      * @param ccMap CheckCategorys to add
+     * @throws IllegalStateException if the result has been {@link #freeze() frozen}
      */
     public void addAll(LinkedHashMap<String, CheckCategory> ccMap) {
-        this.categories.putAll(ccMap);
+        for (Map.Entry<String, CheckCategory> entry : ccMap.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void put(String name, CheckCategory cc) {
+        checkNotFrozen();
+        int i = schema.indexOf(name);
+        if (i >= 0) {
+            slots[i] = cc;
+            return;
+        }
+        if (extraNames == null) {
+            extraNames = new ArrayList<String>(2);
+            extraCategories = new ArrayList<CheckCategory>(2);
+        }
+        i = extraNames.indexOf(name);
+        if (i >= 0) {
+            extraCategories.set(i, cc);
+        } else {
+            extraNames.add(CategorySchema.intern(name));
+            extraCategories.add(cc);
+        }
+    }
+
+    /**
+     * Record the resources a timed task used for this result
+     * @param metrics the task's metrics; ignored if null
+     * @throws IllegalStateException if the result has been {@link #freeze() frozen}
+     */
+    public void addTaskMetrics(TaskMetrics metrics) {
+        checkNotFrozen();
+        if (metrics != null) {
+            if (this.taskMetrics == null) {
+                this.taskMetrics = new ArrayList<TaskMetrics>(4);
+            }
+            this.taskMetrics.add(metrics);
+        }
+    }
+
+    /**
+     * Record the resources the given timed tasks used for this result; tasks that
+     * haven't finished (e.g. because they timed out) are left out
+     * @param tasks the tasks that contributed to this result
+     * @throws IllegalStateException if the result has been {@link #freeze() frozen}
+     */
+    public void addTaskMetrics(Collection<? extends TimedTask> tasks) {
+        for (TimedTask task : tasks) {
+            addTaskMetrics(task.getMetrics());
+        }
+    }
+
+    /**
+     * Get the resources used by the timed tasks that contributed to this result
+     * @return a read-only view of the task metrics, in the order they were added
+     */
+    public List<TaskMetrics> getTaskMetrics() {
+        if (this.taskMetrics == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(this.taskMetrics);
+    }
+
+    /**
+     * Make this result and its categories immutable, once the checks are done; the
+     * outcome is then worked out only once
+     */
+    public void freeze() {
+        if (frozen) return;
+        for (CheckCategory cc : slots) {
+            if (cc != null) cc.freeze();
+        }
+        if (extraCategories != null) {
+            for (CheckCategory cc : extraCategories) {
+                if (cc != null) cc.freeze();
+            }
+        }
+        outcome = computeOutcome();
+        frozen = true;
+    }
+
+    /**
+     * @return true if the result has been {@link #freeze() frozen}
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new IllegalStateException("check-result for " + filename + " is frozen");
+        }
     }
 
     /**
@@ -113,14 +233,8 @@ public class CheckResult {
      * otherwise --> true.
      */
     public Boolean isHappy() {
-        if (isErroneous()) return null;
-        if (this.categories.isEmpty()) return null;
-        for (CheckCategory cc : this.categories.values()) {
-            // if we know of a child-check that ran successfully and FAILED,
-            // we are definitely not happy in total.
-        	if (cc!=null && !cc.isHappy()) return false;
-        }
-        return true;
+        byte o = getOutcome();
+        return o == CheckCheck.ERROR ? null : o == CheckCheck.PASSED ? Boolean.TRUE : Boolean.FALSE;
     }
 
     /**
@@ -129,10 +243,7 @@ public class CheckResult {
      * 			or if there are no CheckCategory's in this CheckResult.
      */
     public boolean isErroneous() {
-    	for (CheckCategory cc : this.categories.values()) {
-            if (cc!=null && cc.isErroneous()) return true;
-        }
-    	return this.categories.isEmpty();	// true if empty, otherwise false
+        return getOutcome() == CheckCheck.ERROR;
     }
 
     /**
@@ -140,7 +251,39 @@ public class CheckResult {
      * @return "error", "passed" or "failed"
      */
     public String getResult() {
-        return this.isErroneous() ? "erroneous" : this.isHappy() ? "passed" : "failed";
+        byte o = getOutcome();
+        return o == CheckCheck.ERROR ? "erroneous" : o == CheckCheck.PASSED ? "passed" : "failed";
+    }
+
+    private byte getOutcome() {
+        // until frozen the categories can still change, but each remembers its own outcome
+        return frozen ? outcome : computeOutcome();
+    }
+
+    private byte computeOutcome() {
+        if (slots.length == 0 && extraNames == null) {
+            return CheckCheck.ERROR;
+        }
+        // erroneous if any category is, otherwise failed if any category failed;
+        // expected categories that haven't been filled in don't count
+        byte o = CheckCheck.PASSED;
+        for (CheckCategory cc : slots) {
+            if (cc != null) {
+                byte co = cc.getOutcome();
+                if (co == CheckCheck.ERROR) return co;
+                if (co == CheckCheck.FAILED) o = co;
+            }
+        }
+        if (extraCategories != null) {
+            for (CheckCategory cc : extraCategories) {
+                if (cc != null) {
+                    byte co = cc.getOutcome();
+                    if (co == CheckCheck.ERROR) return co;
+                    if (co == CheckCheck.FAILED) o = co;
+                }
+            }
+        }
+        return o;
     }
 
 
@@ -151,12 +294,49 @@ public class CheckResult {
      * @param indent (whitespace) padding added to "shift" padding for any child CheckCategory output XML
      */
     public void toXML(PrintWriter pw, String shift, String indent) {
-        pw.println(String.format("%s<checkedFile name='%s' result='%s' format='%s' version='%s' totalCheckTime='%s'>",
-                shift, ESCAPE_XML10.translate(getFilename()), getResult(), getFormat(), getVersion(), getTimeTaken()));
-        for (CheckCategory cc : this.categories.values()) {
-            if (cc != null) cc.toXML(pw, shift + indent, indent);
+        toXML(pw, shift, indent, null);
+    }
+
+    /**
+     * Output this CheckResult as a formatted XML String to a PrintWriter, with the path of
+     * the checked file as an extra attribute
+     * @param pw output
+     * @param shift (whitespace) padding output before CheckResult XML
+     * @param indent (whitespace) padding added to "shift" padding for any child CheckCategory output XML
+     * @param path the path of the checked file, or null to leave it out
+     */
+    public void toXML(PrintWriter pw, String shift, String indent, String path) {
+        // written piecewise rather than formatted, this runs for every result of a batch
+        pw.print(shift);
+        pw.print("<checkedFile name='");
+        pw.print(ESCAPE_XML10.translate(getFilename()));
+        if (path != null) {
+            pw.print("' path='");
+            pw.print(ESCAPE_XML10.translate(path));
+        }
+        pw.print("' result='");
+        pw.print(getResult());
+        pw.print("' format='");
+        pw.print(getFormat());
+        pw.print("' version='");
+        pw.print(getVersion());
+        pw.print("' totalCheckTime='");
+        pw.print(getTimeTaken());
+        pw.println("'>");
+        String childShift = shift + indent;
+        for (CheckCategory cc : slots) {
+            if (cc != null) cc.toXML(pw, childShift, indent);
+        }
+        if (extraCategories != null) {
+            for (CheckCategory cc : extraCategories) {
+                if (cc != null) cc.toXML(pw, childShift, indent);
+            }
+        }
+        for (TaskMetrics metrics : getTaskMetrics()) {
+            metrics.toXML(pw, childShift);
         }
-        pw.println(String.format("%s</checkedFile>", shift));
+        pw.print(shift);
+        pw.println("</checkedFile>");
     }
 
     /**
@@ -165,12 +345,17 @@ public class CheckResult {
      * @return the CheckCategory
      */
     public CheckCategory get(String catName) {
-        return categories.get(catName);
+        int i = schema.indexOf(catName);
+        if (i >= 0) {
+            return slots[i];
+        }
+        i = (extraNames == null) ? -1 : extraNames.indexOf(catName);
+        return (i >= 0) ? extraCategories.get(i) : null;
     }
 
 	public String toString() {
         List<String> cats = new ArrayList<String>();
-        for (CheckCategory cc : this.categories.values()) {
+        for (CheckCategory cc : getCategories().values()) {
             if (cc != null) {
                 cats.add(cc.toString());
             }
@@ -185,18 +370,21 @@ public class CheckResult {
      */
     public LinkedHashMap<String, String> toMap() {
         LinkedHashMap<String, String> map = new LinkedHashMap<String, String>();
-        for (String s : fixedResultBits) {
-            try {
-                Method func = this.getClass().getMethod("get" + WordUtils.capitalize(s));
-                map.put(s, (String) func.invoke(this));
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }
+        // the fixedResultBits
+        map.put("filename", getFilename());
+        map.put("format", getFormat());
+        map.put("version", getVersion());
+        map.put("result", getResult());
+        map.put("timeTaken", getTimeTaken());
 
-        for (Map.Entry<String, CheckCategory> entry: this.categories.entrySet()) {
-            CheckCategory cc = entry.getValue();
-            map.put(entry.getKey(), (cc == null ? "" : cc.getResult()));
+        for (int i = 0; i < slots.length; i++) {
+            map.put(schema.getName(i), (slots[i] == null ? "" : slots[i].getResult()));
+        }
+        if (extraNames != null) {
+            for (int i = 0; i < extraNames.size(); i++) {
+                CheckCategory cc = extraCategories.get(i);
+                map.put(extraNames.get(i), (cc == null ? "" : cc.getResult()));
+            }
         }
         return map;
     }
@@ -225,6 +413,40 @@ public class CheckResult {
 		return this.version;
 	}
 	
+	/**
+	 * Get all categories of this CheckResult by name, the expected ones first, then the others
+	 * in the order they were added. Expected categories that have not been filled in are mapped to null.
+	 * @return a read-only copy of the categories
+	 */
+	public Map<String, CheckCategory> getCategories() {
+		LinkedHashMap<String, CheckCategory> map = new LinkedHashMap<String, CheckCategory>();
+		for (int i = 0; i < slots.length; i++) {
+			map.put(schema.getName(i), slots[i]);
+		}
+		if (extraNames != null) {
+			for (int i = 0; i < extraNames.size(); i++) {
+				map.put(extraNames.get(i), extraCategories.get(i));
+			}
+		}
+		return Collections.unmodifiableMap(map);
+	}
+
+	/**
+	 * Get the expected categories of this CheckResult
+	 * @return the schema, shared with other results of the same format
+	 */
+	public CategorySchema getSchema() {
+		return this.schema;
+	}
+
+	/**
+	 * Get the time taken to execute tests (in ms)
+	 * @return time taken to execute tests (in ms), or null if it was not set
+	 */
+	public Long getTime() {
+		return this.time;
+	}
+
 	/**
 	 * Get the time taken to execute tests (in ms)
 	 * @return time taken to execute tests (in ms)
@@ -238,6 +460,7 @@ public class CheckResult {
      * @param time the time taken to execute tests (in ms)
      */
     public void setTime(Long time) {
+        checkNotFrozen();
         this.time = time;
     }
     
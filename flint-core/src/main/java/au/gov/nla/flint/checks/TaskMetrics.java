@@ -0,0 +1,186 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint.checks;
+
+import au.gov.nla.flint.wrappers.ToolRunner;
+
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.commons.lang3.StringEscapeUtils.ESCAPE_XML10;
+
+/**
+ * The resources a single {@link au.gov.nla.flint.checks.TimedTask} used on one file:
+ * wall-clock time, CPU time and bytes allocated by the thread it ran on, and the CPU time
+ * of external tools it ran (see {@link au.gov.nla.flint.wrappers.ToolRunner}).
+ *
+ * Times are in milliseconds; a value of -1 means it can't be measured (for the tools,
+ * that one of them finished before its CPU time could be sampled).
+ */
+public class TaskMetrics {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final String name;
+    private final long wallTime;
+    private final long cpuTime;
+    private final long allocatedBytes;
+    private final long toolCpuTime;
+
+    /**
+     * Create a new TaskMetrics object
+     * @param name the name of the task
+     * @param wallTime wall-clock time [ms]
+     * @param cpuTime CPU time of the task's thread [ms], or -1
+     * @param allocatedBytes bytes allocated by the task's thread, or -1
+     * @param toolCpuTime CPU time of the external tools run by the task [ms], or -1
+     */
+    public TaskMetrics(String name, long wallTime, long cpuTime, long allocatedBytes, long toolCpuTime) {
+        this.name = name;
+        this.wallTime = wallTime;
+        this.cpuTime = cpuTime;
+        this.allocatedBytes = allocatedBytes;
+        this.toolCpuTime = toolCpuTime;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return wall-clock time [ms]
+     */
+    public long getWallTime() {
+        return wallTime;
+    }
+
+    /**
+     * @return CPU time of the task's thread [ms], or -1 if not measured
+     */
+    public long getCpuTime() {
+        return cpuTime;
+    }
+
+    /**
+     * @return bytes allocated by the task's thread, or -1 if not measured
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * @return CPU time of the external tools run by the task [ms], or -1 if not measured
+     */
+    public long getToolCpuTime() {
+        return toolCpuTime;
+    }
+
+    /**
+     * Output these metrics as an XML element; values that weren't measured are left out
+     * @param pw output
+     * @param shift (whitespace) padding output before the element
+     */
+    public void toXML(PrintWriter pw, String shift) {
+        pw.print(shift);
+        pw.print("<checkTask name='");
+        pw.print(ESCAPE_XML10.translate(name));
+        pw.print("' wallTime='");
+        pw.print(wallTime);
+        if (cpuTime >= 0) {
+            pw.print("' cpuTime='");
+            pw.print(cpuTime);
+        }
+        if (allocatedBytes >= 0) {
+            pw.print("' allocatedBytes='");
+            pw.print(allocatedBytes);
+        }
+        if (toolCpuTime >= 0) {
+            pw.print("' toolCpuTime='");
+            pw.print(toolCpuTime);
+        }
+        pw.println("'/>");
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: wall %d ms, cpu %d ms, allocated %d bytes, tools %d ms",
+                name, wallTime, cpuTime, allocatedBytes, toolCpuTime);
+    }
+
+    /**
+     * Start measuring the resources used by the current thread
+     * @return the probe to stop once the work is done, on the same thread
+     */
+    static Probe start() {
+        return new Probe();
+    }
+
+    /**
+     * A measurement in progress on the current thread
+     */
+    static class Probe {
+        private final long wallStart = System.nanoTime();
+        private final long cpuStart = threadCpuTime();
+        private final long allocatedStart = threadAllocatedBytes();
+        private final long toolStart = ToolRunner.getToolCpuTime();
+        private final long toolUnknownStart = ToolRunner.getToolsWithUnknownCpuTime();
+
+        /**
+         * Stop measuring
+         * @param name the name of the task that was measured
+         * @return what the task used since the probe was started
+         */
+        TaskMetrics stop(String name) {
+            long cpuEnd = threadCpuTime();
+            long allocatedEnd = threadAllocatedBytes();
+            return new TaskMetrics(name,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - wallStart),
+                    (cpuStart < 0 || cpuEnd < 0) ? -1 : TimeUnit.NANOSECONDS.toMillis(cpuEnd - cpuStart),
+                    (allocatedStart < 0 || allocatedEnd < 0) ? -1 : allocatedEnd - allocatedStart,
+                    (ToolRunner.getToolsWithUnknownCpuTime() != toolUnknownStart) ? -1
+                            : TimeUnit.NANOSECONDS.toMillis(ToolRunner.getToolCpuTime() - toolStart));
+        }
+    }
+
+    /**
+     * @return the CPU time of the current thread [ns], or -1 if it can't be measured
+     */
+    private static long threadCpuTime() {
+        if (!THREADS.isCurrentThreadCpuTimeSupported() || !THREADS.isThreadCpuTimeEnabled()) {
+            return -1;
+        }
+        // -1 on virtual threads
+        return THREADS.getCurrentThreadCpuTime();
+    }
+
+    /**
+     * @return the bytes allocated by the current thread so far, or -1 if they can't be measured
+     */
+    private static long threadAllocatedBytes() {
+        if (!(THREADS instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        return threads.getCurrentThreadAllocatedBytes();
+    }
+}
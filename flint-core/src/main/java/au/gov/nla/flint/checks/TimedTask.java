@@ -32,6 +32,9 @@ public abstract class TimedTask implements Callable<LinkedHashMap<String, CheckC
     protected File contentFile;
     protected long timeout;
 
+    // set once the task has finished running
+    private volatile TaskMetrics metrics;
+
     /**
      * Create a new TimedTask object
      * @param name name of the task
@@ -50,5 +53,19 @@ public abstract class TimedTask implements Callable<LinkedHashMap<String, CheckC
     public void setContentFile(File contentFile) {
         this.contentFile = contentFile;
     }
-    
+
+    /**
+     * Get the resources the task used when it last ran on the
+     * {@link au.gov.nla.flint.checks.TimedTaskExecutor}
+     * @return the task's metrics, or null if it hasn't finished (e.g. because it timed out)
+     */
+    public TaskMetrics getMetrics() {
+        return metrics;
+    }
+
+    void setMetrics(TaskMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+
 }
\ No newline at end of file
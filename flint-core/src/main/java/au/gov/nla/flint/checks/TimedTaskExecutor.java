@@ -0,0 +1,303 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint.checks;
+
+import au.gov.nla.flint.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The long-lived executor that runs all {@link au.gov.nla.flint.checks.TimedTask}s.
+ *
+ * Tasks run on a pool of re-used platform threads, so there is no per-check thread
+ * creation cost and the CPU time and allocations of each task can be measured (the JVM
+ * can't do that for virtual threads), but the number of tasks that may be running at
+ * once is bounded. A task whose caller gave up on
+ * it (e.g. after a timeout) is interrupted and keeps its slot until it has really finished,
+ * so runaway third-party code can't pile up in the background: once all slots are taken,
+ * new tasks wait for a slot for at most their own timeout and are then rejected. The time
+ * spent waiting counts against the timeout, see {@link Handle#get()}.
+ *
+ * The bound defaults to four times the number of processors and can be set with the
+ * system property "flint.timed-tasks.max".
+ */
+public class TimedTaskExecutor {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(TimedTaskExecutor.class);
+
+    private static final TimedTaskExecutor INSTANCE = new TimedTaskExecutor(
+            Integer.getInteger("flint.timed-tasks.max", Runtime.getRuntime().availableProcessors() * 4));
+
+    static {
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        registry.registerGauge("timed_tasks_running", INSTANCE::getRunning);
+        registry.registerGauge("timed_tasks_abandoned_running", INSTANCE::getAbandonedRunning);
+        registry.registerGauge("timed_tasks_rejected_total", INSTANCE::getRejected);
+    }
+
+    // life cycle of a submitted task
+    private static final int RUNNING = 0;
+    private static final int ABANDONED = 1;
+    private static final int FINISHED = 2;
+
+    private final ExecutorService executor;
+    private final Semaphore slots;
+    private final int maxRunning;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger abandonedRunning = new AtomicInteger();
+
+    /**
+     * Create a new TimedTaskExecutor
+     * @param maxRunning the maximum number of tasks running at the same time, including abandoned ones
+     */
+    TimedTaskExecutor(int maxRunning) {
+        this.maxRunning = Math.max(1, maxRunning);
+        this.slots = new Semaphore(this.maxRunning, true);
+        // the slots bound the number of threads, idle ones go away after a minute
+        this.executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "flint-timed-task-" + count.getAndIncrement());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+    }
+
+    /**
+     * @return the executor shared by all timed validations
+     */
+    public static TimedTaskExecutor getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Start a task once a slot is free, waiting for at most the task's timeout; the task
+     * then has what is left of its timeout to finish.
+     * @param task the task to run
+     * @return a handle on the running task
+     * @throws RejectedExecutionException if no slot became free in time
+     * @throws InterruptedException if interrupted while waiting for a slot
+     */
+    public Handle<LinkedHashMap<String, CheckCategory>> submit(final TimedTask task) throws InterruptedException {
+        return submit(new Callable<LinkedHashMap<String, CheckCategory>>() {
+            @Override
+            public LinkedHashMap<String, CheckCategory> call() throws Exception {
+                TaskMetrics.Probe probe = TaskMetrics.start();
+                try {
+                    return task.call();
+                } finally {
+                    TaskMetrics metrics = probe.stop(task.name);
+                    task.setMetrics(metrics);
+                    MetricsRegistry.getInstance().recordTask(metrics);
+                }
+            }
+        }, task.name, task.timeout);
+    }
+
+    /**
+     * Start a piece of work once a slot is free, waiting for at most the given time.
+     * @param work the work to run
+     * @param name a name for the work, used for logging
+     * @param timeout how long to wait for a slot and run the work together [seconds]
+     * @return a handle on the running work
+     * @throws RejectedExecutionException if no slot became free in time
+     * @throws InterruptedException if interrupted while waiting for a slot
+     */
+    public <T> Handle<T> submit(final Callable<T> work, String name, long timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout);
+        if (!slots.tryAcquire(timeout, TimeUnit.SECONDS)) {
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException("no free slot for task " + name + " within " + timeout +
+                    " seconds (" + abandonedRunning.get() + " abandoned tasks still running)");
+        }
+        submitted.incrementAndGet();
+        running.incrementAndGet();
+        final AtomicInteger state = new AtomicInteger(RUNNING);
+        Future<T> future;
+        try {
+            future = executor.submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    boolean ok = false;
+                    try {
+                        T result = work.call();
+                        ok = true;
+                        return result;
+                    } finally {
+                        (ok ? completed : failed).incrementAndGet();
+                        running.decrementAndGet();
+                        if (state.getAndSet(FINISHED) == ABANDONED) {
+                            abandonedRunning.decrementAndGet();
+                        }
+                        slots.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            running.decrementAndGet();
+            slots.release();
+            throw e;
+        }
+        return new Handle<T>(name, future, state, deadline);
+    }
+
+    /**
+     * A task that has been handed to the executor.
+     * @param <T> the task's result type
+     */
+    public class Handle<T> {
+        private final String name;
+        private final Future<T> future;
+        private final AtomicInteger state;
+        private final long deadline;
+
+        Handle(String name, Future<T> future, AtomicInteger state, long deadline) {
+            this.name = name;
+            this.future = future;
+            this.state = state;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return the underlying future
+         */
+        public Future<T> getFuture() {
+            return future;
+        }
+
+        /**
+         * @return when the timeout given to submit runs out, as a {@link System#nanoTime()} value
+         */
+        public long getDeadline() {
+            return deadline;
+        }
+
+        /**
+         * Wait for the result until the timeout given to submit runs out, so that the time
+         * spent waiting for a slot is taken off the time the task has to run.
+         * @return the task's result
+         * @throws TimeoutException if the timeout ran out first
+         * @throws ExecutionException if the task failed
+         * @throws InterruptedException if interrupted while waiting
+         */
+        public T get() throws InterruptedException, ExecutionException, TimeoutException {
+            return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Give up on the task after it has timed out: it is interrupted, and tracked as
+         * abandoned until it really stops running.
+         */
+        public void timedOut() {
+            timedOut.incrementAndGet();
+            MetricsRegistry.getInstance().counter(MetricsRegistry.TASK_TIMEOUTS, "task", name).incrementAndGet();
+            abandon();
+        }
+
+        /**
+         * Give up on the task, interrupting it. It keeps its slot until it has really finished.
+         */
+        public void abandon() {
+            if (!state.compareAndSet(RUNNING, ABANDONED)) return;
+            abandonedRunning.incrementAndGet();
+            future.cancel(true);
+            LOGGER.warn("abandoned task {}, {} abandoned tasks may still be running", name, abandonedRunning.get());
+        }
+    }
+
+    /**
+     * @return the maximum number of tasks running at the same time
+     */
+    public int getMaxRunning() {
+        return maxRunning;
+    }
+
+    /**
+     * @return the number of tasks running right now, including abandoned ones
+     */
+    public int getRunning() {
+        return running.get();
+    }
+
+    /**
+     * @return the number of tasks that have been given up on but are still running
+     */
+    public int getAbandonedRunning() {
+        return abandonedRunning.get();
+    }
+
+    /**
+     * @return the number of tasks started so far
+     */
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    /**
+     * @return the number of tasks that finished normally
+     */
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    /**
+     * @return the number of tasks that finished with an exception or error (including interrupted ones)
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return the number of tasks that timed out
+     */
+    public long getTimedOut() {
+        return timedOut.get();
+    }
+
+    /**
+     * @return the number of tasks that never started because no slot became free in time
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+}
@@ -21,18 +21,20 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * A helper class to run timed validations using Callables inheriting from {@link au.gov.nla.flint.checks.TimedTask}.
  *
  * Every task comes with a timeout[seconds], if this is reached, or another Exception
- * has occurred, the task is killed and a  {@link au.gov.nla.flint.checks.CheckCategory}
- * is being created with the task's name as name.
+ * has occurred, the task is interrupted and a  {@link au.gov.nla.flint.checks.CheckCategory}
+ * is being created with the task's name as name. Tasks that ignore the interrupt are
+ * tracked by the {@link au.gov.nla.flint.checks.TimedTaskExecutor} until they finish.
  */
 public class TimedValidation {
 
@@ -41,34 +43,117 @@ public class TimedValidation {
     private TimedValidation(){}
 
     /**
-     * Run a timed validation of a TimedTask against a file
+     * Run a timed validation of a TimedTask against a file on the shared
+     * {@link au.gov.nla.flint.checks.TimedTaskExecutor}
      * @param task task to run
      * @param contentFile file to run against the TimedTask
      * @return output from the TimedTask
      */
     public static LinkedHashMap<String, CheckCategory> validate(TimedTask task, File contentFile) {
-        ExecutorService executor = Executors.newSingleThreadExecutor();
         task.setContentFile(contentFile);
         LinkedHashMap<String, CheckCategory> cMap = new LinkedHashMap<String, CheckCategory>();
-        Future<LinkedHashMap<String, CheckCategory>> future = executor.submit(task);
         LOGGER.info("calling time-limited validation task {}, timeout: {} seconds", task.name, task.timeout);
+        TimedTaskExecutor.Handle<LinkedHashMap<String, CheckCategory>> handle = null;
         try {
-            cMap.putAll(future.get(task.timeout, TimeUnit.SECONDS));
+            handle = TimedTaskExecutor.getInstance().submit(task);
+            cMap.putAll(handle.get());
+        } catch (TimeoutException e) {
+            LOGGER.error("Validation task {} timed out after {} seconds", task.name, task.timeout);
+            handle.timedOut();
+            addErrorCategory(task, cMap);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.error("Interrupted during validation: {}", e);
+            if (handle != null) handle.abandon();
+            addErrorCategory(task, cMap);
         } catch (Exception e) {
             LOGGER.error("Exception during validation: {}", e);
-            CheckCategory cc = new CheckCategory(task.name);
-            cc.add(new CheckCheck(task.name, false, null));
-            cMap.put(task.name, cc);
-            LOGGER.warn("Added validation error category '{}'", task.name);
+            addErrorCategory(task, cMap);
         } catch (StackOverflowError e) {
             LOGGER.error("StackOverflowError during validation: {}", e);
-            CheckCategory cc = new CheckCategory(task.name);
-            cc.add(new CheckCheck(task.name, false, null));
-            cMap.put(task.name, cc);
-            LOGGER.warn("Added validation error category '{}'", task.name);
+            addErrorCategory(task, cMap);
         }
-        executor.shutdownNow();
         return cMap;
     }
 
+    /**
+     * Run TimedTasks that don't depend on each other against a file at the same time on the
+     * shared {@link au.gov.nla.flint.checks.TimedTaskExecutor}, so that the time taken is
+     * that of the slowest task rather than the sum of all of them.
+     *
+     * Each task is still limited by its own timeout, and all of them together by the
+     * overall deadline; a task that runs out of time becomes an error category just as
+     * with {@link #validate(TimedTask, java.io.File)}. The results are merged in the order
+     * of the given tasks.
+     *
+     * @param contentFile file to run against the TimedTasks
+     * @param deadline overall time limit [seconds] for all tasks together
+     * @param tasks tasks that may run side by side
+     * @return the merged output from all TimedTasks
+     */
+    public static LinkedHashMap<String, CheckCategory> validateIndependent(File contentFile, long deadline, List<TimedTask> tasks) {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(deadline);
+        List<TimedTaskExecutor.Handle<LinkedHashMap<String, CheckCategory>>> handles =
+                new ArrayList<TimedTaskExecutor.Handle<LinkedHashMap<String, CheckCategory>>>();
+        List<Long> taskEnds = new ArrayList<Long>();
+        LinkedHashMap<String, CheckCategory> cMap = new LinkedHashMap<String, CheckCategory>();
+
+        for (TimedTask task : tasks) {
+            task.setContentFile(contentFile);
+            LOGGER.info("starting independent time-limited validation task {}, timeout: {} seconds", task.name, task.timeout);
+            TimedTaskExecutor.Handle<LinkedHashMap<String, CheckCategory>> handle = null;
+            try {
+                handle = TimedTaskExecutor.getInstance().submit(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOGGER.error("Interrupted while starting validation task {}", task.name);
+            } catch (RejectedExecutionException e) {
+                LOGGER.error("Could not start validation task {}: {}", task.name, e.getMessage());
+            }
+            handles.add(handle);
+            taskEnds.add(handle == null ? end : Math.min(end, handle.getDeadline()));
+        }
+
+        for (int i = 0; i < tasks.size(); i++) {
+            TimedTask task = tasks.get(i);
+            TimedTaskExecutor.Handle<LinkedHashMap<String, CheckCategory>> handle = handles.get(i);
+            if (handle == null) {
+                addErrorCategory(task, cMap);
+                continue;
+            }
+            try {
+                long remaining = Math.max(0, taskEnds.get(i) - System.nanoTime());
+                cMap.putAll(handle.getFuture().get(remaining, TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                LOGGER.error("Validation task {} ran out of time", task.name);
+                handle.timedOut();
+                addErrorCategory(task, cMap);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOGGER.error("Interrupted during validation: {}", e);
+                handle.abandon();
+                addErrorCategory(task, cMap);
+            } catch (Exception e) {
+                LOGGER.error("Exception during validation: {}", e);
+                addErrorCategory(task, cMap);
+            } catch (StackOverflowError e) {
+                LOGGER.error("StackOverflowError during validation: {}", e);
+                addErrorCategory(task, cMap);
+            }
+        }
+        return cMap;
+    }
+
+    /**
+     * Record a failed task as a category with the task's name
+     * @param task the task that failed
+     * @param cMap the map to add the category to
+     */
+    private static void addErrorCategory(TimedTask task, LinkedHashMap<String, CheckCategory> cMap) {
+        CheckCategory cc = new CheckCategory(task.name);
+        cc.add(new CheckCheck(task.name, false, null));
+        cMap.put(task.name, cc);
+        LOGGER.warn("Added validation error category '{}'", task.name);
+    }
+
 }
@@ -0,0 +1,350 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint.formats;
+
+import au.gov.nla.flint.checks.CheckCategory;
+import au.gov.nla.flint.checks.CheckCheck;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A schematron policy together with a pattern filter, compiled once and shared by all
+ * policy validations that use it.
+ *
+ * Policies are identified by the digest of their content and the pattern filter, so the
+ * same policy read from different streams is only compiled once. Compiling turns the
+ * patterns that pass the filter into an XSLT stylesheet (the way the ISO schematron
+ * skeleton does: per pattern, the first rule whose context matches a node fires) and that
+ * into {@link javax.xml.transform.Templates}, which are thread-safe, so a validation only
+ * has to create a transformer and run it. A transformer is never used twice, so the
+ * failures of one file can't show up in the result of another.
+ *
+ * Supported are patterns (named by their name or id attribute), rules, asserts, reports,
+ * lets and namespace declarations; anything else in a pattern (abstract rules, includes)
+ * is rejected rather than silently ignored.
+ */
+public final class CompiledPolicy {
+
+    private static final String SCHEMATRON_NS = "http://purl.oclc.org/dsdl/schematron";
+    private static final String XSL_NS = "http://www.w3.org/1999/XSL/Transform";
+
+    private static final Map<String, CompiledPolicy> CACHE = new ConcurrentHashMap<String, CompiledPolicy>();
+
+    private final Collection<String> patternNames;
+    private final Map<String, String> assertPatternMap;
+    // the pattern and message of every assert and report, indexed by the ids the stylesheet writes
+    private final List<String[]> tests = new ArrayList<String[]>();
+    private final Templates templates;
+
+    private CompiledPolicy(byte[] policy, Set<String> filter) throws IOException, TransformerException {
+        Document schema = parse(policy);
+        List<String> names = new ArrayList<String>();
+        Map<String, String> asserts = new LinkedHashMap<String, String>();
+        Document xsl = stylesheet(schema, filter, names, asserts);
+        this.patternNames = Collections.unmodifiableList(names);
+        this.assertPatternMap = Collections.unmodifiableMap(asserts);
+        TransformerFactory factory = TransformerFactory.newDefaultInstance();
+        this.templates = factory.newTemplates(new DOMSource(xsl));
+    }
+
+    /**
+     * Get the compiled version of a policy; a policy that hasn't been used before is compiled
+     * as it is needed
+     * @param policy the schematron policy; the stream is read to its end but not closed
+     * @param filter the pattern filter to apply (null or empty for all patterns)
+     * @return the compiled policy
+     * @throws IOException if the policy can't be read or isn't a schematron schema flint can compile
+     * @throws NoSuchAlgorithmException
+     */
+    public static CompiledPolicy get(InputStream policy, Set<String> filter) throws IOException, NoSuchAlgorithmException {
+        byte[] bytes = readAll(policy);
+        if (filter != null && filter.isEmpty()) {
+            filter = null;
+        }
+        String key = key(bytes, filter);
+        CompiledPolicy compiled = CACHE.get(key);
+        if (compiled == null) {
+            // compiling twice in a race is harmless, only one of them is kept
+            try {
+                compiled = new CompiledPolicy(bytes, filter == null ? null : new TreeSet<String>(filter));
+            } catch (TransformerException e) {
+                throw new IOException("can't compile policy: " + e.getMessageAndLocation(), e);
+            }
+            CompiledPolicy existing = CACHE.putIfAbsent(key, compiled);
+            if (existing != null) {
+                compiled = existing;
+            }
+        }
+        return compiled;
+    }
+
+    /**
+     * Validate a third-party validator's xml report against this policy
+     * @param resultToBeValidated the report to validate
+     * @return a check category for every pattern, with a check for every assert of the pattern
+     * @throws Exception if the validation fails
+     */
+    public LinkedHashMap<String, CheckCategory> validate(StreamSource resultToBeValidated) throws Exception {
+        StringWriter fired = new StringWriter();
+        templates.newTransformer().transform(resultToBeValidated, new StreamResult(fired));
+        // pattern -> message -> number of nodes for which it fired
+        Map<String, Map<String, Integer>> report = new LinkedHashMap<String, Map<String, Integer>>();
+        for (String id : fired.toString().split("\n")) {
+            if (id.isEmpty()) continue;
+            String[] test = tests.get(Integer.parseInt(id));
+            Map<String, Integer> counts = report.get(test[0]);
+            if (counts == null) {
+                counts = new LinkedHashMap<String, Integer>();
+                report.put(test[0], counts);
+            }
+            Integer count = counts.get(test[1]);
+            counts.put(test[1], count == null ? 1 : count + 1);
+        }
+
+        LinkedHashMap<String, CheckCategory> ccMap = new LinkedHashMap<String, CheckCategory>();
+        for (Map.Entry<String, String> test : assertPatternMap.entrySet()) {
+            CheckCategory cc;
+            if (ccMap.containsKey(test.getValue())) {
+                cc = ccMap.get(test.getValue());
+            } else {
+                cc = new CheckCategory(test.getValue());
+            }
+            boolean passed = true;
+            int errorCount = 0;
+            Map<String, Integer> counts = report.get(test.getValue());
+            if (counts != null && counts.containsKey(test.getKey())) {
+                passed = false;
+                errorCount = counts.get(test.getKey());
+            }
+            cc.add(new CheckCheck(test.getKey(), passed, errorCount));
+            ccMap.put(cc.getName(), cc);
+        }
+        return ccMap;
+    }
+
+    /**
+     * @return the names of the patterns of this policy that pass the filter
+     */
+    public Collection<String> getPatternNames() {
+        return patternNames;
+    }
+
+    /**
+     * @return the pattern of every assert (and report) in this policy that passes the filter,
+     * by the assert's message
+     */
+    public Map<String, String> getAssertPatternMap() {
+        return assertPatternMap;
+    }
+
+    /**
+     * Turn the patterns of a schema that pass the filter into a stylesheet that writes the
+     * id of every assert that fails and every report that fires, one per line and node
+     */
+    private Document stylesheet(Document schema, Set<String> filter, List<String> names, Map<String, String> asserts)
+            throws IOException {
+        Document xsl = newDocument();
+        Element root = xsl.createElementNS(XSL_NS, "xsl:stylesheet");
+        root.setAttribute("version", "1.0");
+        xsl.appendChild(root);
+        xslChild(root, "output").setAttribute("method", "text");
+        Element main = xslChild(root, "template");
+        main.setAttribute("match", "/");
+
+        int mode = 0;
+        for (Element child : children(schema.getDocumentElement())) {
+            switch (child.getLocalName()) {
+                case "ns":
+                    root.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, "xmlns:" + child.getAttribute("prefix"),
+                            child.getAttribute("uri"));
+                    break;
+                case "let":
+                    let(root, child);
+                    break;
+                case "pattern":
+                    String name = child.hasAttribute("name") ? child.getAttribute("name") : child.getAttribute("id");
+                    if (filter != null && !filter.contains(name)) {
+                        break;
+                    }
+                    names.add(name);
+                    pattern(root, main, child, name, "M" + mode++, asserts);
+                    break;
+                default:
+                    // title, p, phase and diagnostics don't change what is checked
+                    break;
+            }
+        }
+        return xsl;
+    }
+
+    private void pattern(Element root, Element main, Element pattern, String name, String mode,
+                         Map<String, String> asserts) throws IOException {
+        Element apply = xslChild(main, "apply-templates");
+        apply.setAttribute("select", "/");
+        apply.setAttribute("mode", mode);
+
+        int priority = 1000;
+        for (Element child : children(pattern)) {
+            if ("let".equals(child.getLocalName())) {
+                // pattern variables become global ones, like the skeleton does
+                let(root, child);
+                continue;
+            }
+            if (!"rule".equals(child.getLocalName()) || child.hasAttribute("abstract")) {
+                throw new IOException("unsupported schematron element " + child.getTagName() + " in pattern " + name);
+            }
+            Element template = xslChild(root, "template");
+            template.setAttribute("match", child.getAttribute("context"));
+            template.setAttribute("mode", mode);
+            // only the first matching rule of a pattern fires for a node
+            template.setAttribute("priority", Integer.toString(priority--));
+            for (Element test : children(child)) {
+                switch (test.getLocalName()) {
+                    case "let":
+                        let(template, test);
+                        break;
+                    case "assert":
+                    case "report":
+                        String message = test.getTextContent().trim().replaceAll("\\s+", " ");
+                        asserts.put(message, name);
+                        Element check = xslChild(template, "if");
+                        check.setAttribute("test", "assert".equals(test.getLocalName())
+                                ? "not(" + test.getAttribute("test") + ")" : test.getAttribute("test"));
+                        xslChild(check, "text").setTextContent(tests.size() + "\n");
+                        tests.add(new String[] {name, message});
+                        break;
+                    default:
+                        throw new IOException("unsupported schematron element " + test.getTagName() + " in pattern " + name);
+                }
+            }
+            descend(template, mode);
+        }
+        // nodes no rule matches are passed through
+        Element other = xslChild(root, "template");
+        other.setAttribute("match", "/|@*|node()");
+        other.setAttribute("mode", mode);
+        other.setAttribute("priority", "-2");
+        descend(other, mode);
+    }
+
+    private static void descend(Element template, String mode) {
+        Element apply = xslChild(template, "apply-templates");
+        apply.setAttribute("select", "@*|*|comment()|processing-instruction()");
+        apply.setAttribute("mode", mode);
+    }
+
+    private static void let(Element parent, Element let) {
+        Element variable = xslChild(parent, "variable");
+        variable.setAttribute("name", let.getAttribute("name"));
+        variable.setAttribute("select", let.getAttribute("value"));
+    }
+
+    private static Element xslChild(Element parent, String name) {
+        Element child = parent.getOwnerDocument().createElementNS(XSL_NS, "xsl:" + name);
+        parent.appendChild(child);
+        return child;
+    }
+
+    private static List<Element> children(Element parent) {
+        List<Element> children = new ArrayList<Element>();
+        for (Node n = parent.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if (n instanceof Element && SCHEMATRON_NS.equals(n.getNamespaceURI())) {
+                children.add((Element) n);
+            }
+        }
+        return children;
+    }
+
+    private static Document parse(byte[] policy) throws IOException {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newDefaultInstance();
+            factory.setNamespaceAware(true);
+            Document schema = factory.newDocumentBuilder().parse(new ByteArrayInputStream(policy));
+            Element root = schema.getDocumentElement();
+            if (!SCHEMATRON_NS.equals(root.getNamespaceURI()) || !"schema".equals(root.getLocalName())) {
+                throw new IOException("not a schematron schema: " + root.getTagName());
+            }
+            return schema;
+        } catch (ParserConfigurationException | org.xml.sax.SAXException e) {
+            throw new IOException("can't parse policy: " + e.getMessage(), e);
+        }
+    }
+
+    private static Document newDocument() throws IOException {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newDefaultInstance();
+            factory.setNamespaceAware(true);
+            return factory.newDocumentBuilder().newDocument();
+        } catch (ParserConfigurationException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static String key(byte[] policy, Set<String> filter) throws NoSuchAlgorithmException {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        md.update(policy);
+        StringBuilder sb = new StringBuilder();
+        for (byte b : md.digest()) {
+            sb.append(String.format("%02x", b));
+        }
+        if (filter == null) {
+            return sb.append("\u0000*").toString();
+        }
+        for (String pattern : new TreeSet<String>(filter)) {
+            sb.append('\u0000').append(pattern);
+        }
+        return sb.toString();
+    }
+}
@@ -52,6 +52,19 @@ public interface Format {
      */
     public Collection<String> acceptedMimeTypes();
 
+	/**
+	 * The file name extensions (lower case, without the dot) accepted by this format.
+	 *
+	 * A format that declares both its mime types and its extensions promises that
+	 * {@link #canCheck(java.io.File, String)} accepts exactly the files with one of these
+	 * mime types or extensions, so FLint can pick it from an index without asking it.
+	 * Formats that return null are asked about every file.
+	 * @return a collection of extensions, or null if the format decides case by case
+	 */
+	public default Collection<String> acceptedExtensions() {
+		return null;
+	}
+
     /**
      * Calculate and return the overall validation result for a given file in form of a
      * {@link au.gov.nla.flint.checks.CheckResult}.
@@ -88,5 +101,14 @@ public interface Format {
 	 * @return the version of this Format object
 	 */
 	public String getVersion();
-	
+
+	/**
+	 * Whether a single instance of this Format may be used by several threads at the same
+	 * time. Batch runs give every worker its own instance of formats that return false.
+	 * @return true if one instance can safely be shared between worker threads
+	 */
+	public default boolean isThreadSafe() {
+		return false;
+	}
+
 }
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint.formats;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An immutable index that picks the formats able to check a file by its mime type and
+ * extension, so that a file doesn't have to be offered to every single format.
+ *
+ * Formats that declare their mime types and extensions ({@link Format#acceptedMimeTypes()},
+ * {@link Format#acceptedExtensions()}) are found with two hash lookups; any other format
+ * is still asked via {@link Format#canCheck(java.io.File, String)}. Matching formats are
+ * returned in the order they were given to the index.
+ */
+public final class FormatDispatch {
+
+    private static final Format[] NONE = new Format[0];
+
+    // formats in the order given, and their position in it
+    private final Format[] formats;
+    private final Map<Format, Integer> position = new IdentityHashMap<Format, Integer>();
+
+    private final Map<String, List<Format>> byMimeType;
+    private final Map<String, List<Format>> byExtension;
+    // formats that have to be asked about every file
+    private final Format[] undeclared;
+
+    /**
+     * Build the index for a set of formats
+     * @param formats the formats, in the order matches should be returned
+     */
+    public FormatDispatch(Collection<Format> formats) {
+        this.formats = formats.toArray(NONE);
+        Map<String, List<Format>> byMimeType = new HashMap<String, List<Format>>();
+        Map<String, List<Format>> byExtension = new HashMap<String, List<Format>>();
+        List<Format> undeclared = new ArrayList<Format>();
+        for (int i = 0; i < this.formats.length; i++) {
+            Format f = this.formats[i];
+            position.put(f, i);
+            Collection<String> mimeTypes = f.acceptedMimeTypes();
+            Collection<String> extensions = f.acceptedExtensions();
+            if (mimeTypes == null || extensions == null) {
+                undeclared.add(f);
+                continue;
+            }
+            for (String mimeType : mimeTypes) {
+                add(byMimeType, mimeType, f);
+            }
+            for (String extension : extensions) {
+                add(byExtension, extension.toLowerCase(Locale.ROOT), f);
+            }
+        }
+        this.byMimeType = freeze(byMimeType);
+        this.byExtension = freeze(byExtension);
+        this.undeclared = undeclared.toArray(NONE);
+    }
+
+    private static void add(Map<String, List<Format>> index, String key, Format f) {
+        List<Format> fs = index.get(key);
+        if (fs == null) {
+            fs = new ArrayList<Format>();
+            index.put(key, fs);
+        }
+        if (!fs.contains(f)) {
+            fs.add(f);
+        }
+    }
+
+    private static Map<String, List<Format>> freeze(Map<String, List<Format>> index) {
+        Map<String, List<Format>> frozen = new HashMap<String, List<Format>>();
+        for (Map.Entry<String, List<Format>> entry : index.entrySet()) {
+            frozen.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<Format>(entry.getValue())));
+        }
+        return Collections.unmodifiableMap(frozen);
+    }
+
+    /**
+     * Get the extension of a file name the way the index stores it
+     * @param filename a file name
+     * @return the lower case text after the last dot, or an empty string
+     */
+    public static String extension(String filename) {
+        int dot = filename.lastIndexOf('.');
+        return dot < 0 ? "" : filename.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Find the formats that can check a file
+     * @param file the file
+     * @param mimeType the detected mime type of the file (may be null)
+     * @return the matching formats, in the order given to the index (read-only)
+     */
+    public List<Format> select(File file, String mimeType) {
+        List<Format> none = Collections.emptyList();
+        List<Format> byType = mimeType == null ? none : byMimeType.getOrDefault(mimeType, none);
+        List<Format> byExt = byExtension.getOrDefault(extension(file.getName()), none);
+        // the usual cases: the extension agrees with the mime type (e.g. a *.pdf detected as
+        // application/pdf), or only one of them matches; either list can be returned as it is
+        if (undeclared.length == 0) {
+            if (byType.containsAll(byExt)) {
+                return byType;
+            }
+            if (byExt.containsAll(byType)) {
+                return byExt;
+            }
+        }
+
+        // several sources: mark the matches and collect them in order
+        boolean[] matches = new boolean[formats.length];
+        for (Format f : byType) {
+            matches[position.get(f)] = true;
+        }
+        for (Format f : byExt) {
+            matches[position.get(f)] = true;
+        }
+        for (Format f : undeclared) {
+            if (f.canCheck(file, mimeType)) {
+                matches[position.get(f)] = true;
+            }
+        }
+        List<Format> selected = new ArrayList<Format>(2);
+        for (int i = 0; i < formats.length; i++) {
+            if (matches[i]) {
+                selected.add(formats[i]);
+            }
+        }
+        return selected;
+    }
+}
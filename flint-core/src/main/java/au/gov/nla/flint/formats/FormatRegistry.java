@@ -0,0 +1,179 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint.formats;
+
+import org.reflections.Reflections;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+
+/**
+ * Knows which {@link au.gov.nla.flint.formats.Format} implementations are available.
+ *
+ * Formats are registered as services: a module lists its implementations in
+ * META-INF/services/au.gov.nla.flint.formats.Format (flint-register pulls all format
+ * modules together). If no format is registered that way, the package
+ * au.gov.nla.flint.formats is scanned instead, as FLint used to do.
+ *
+ * Discovery happens once per class loader; the format classes, their names and an index
+ * from mime type to formats are kept, while every request still gets new Format instances
+ * so that callers can configure them independently.
+ */
+public final class FormatRegistry {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(FormatRegistry.class);
+
+    private static FormatRegistry instance;
+
+    // format classes by format name, in the order they were found
+    private final Map<String, Class<? extends Format>> classes;
+    // format names by accepted mime type
+    private final Map<String, List<String>> byMimeType;
+    // prototypes of formats that don't declare their mime types, to ask canCheck(mimeType)
+    private final Map<String, Format> undeclared;
+    private final Set<String> acceptedMimeTypes;
+
+    private FormatRegistry(Collection<Class<? extends Format>> found) throws InstantiationException, IllegalAccessException {
+        Map<String, Class<? extends Format>> classes = new LinkedHashMap<String, Class<? extends Format>>();
+        Map<String, List<String>> byMimeType = new HashMap<String, List<String>>();
+        Map<String, Format> undeclared = new LinkedHashMap<String, Format>();
+        Set<String> acceptedMimeTypes = new HashSet<String>();
+        for (Class<? extends Format> fClass : found) {
+            Format f = fClass.newInstance();
+            LOGGER.info("available format {}, as in {}", f.getFormatName(), fClass);
+            classes.put(f.getFormatName(), fClass);
+            Collection<String> mimeTypes = f.acceptedMimeTypes();
+            if (mimeTypes == null) {
+                undeclared.put(f.getFormatName(), f);
+                continue;
+            }
+            for (String mimeType : mimeTypes) {
+                List<String> names = byMimeType.get(mimeType);
+                if (names == null) {
+                    names = new ArrayList<String>();
+                    byMimeType.put(mimeType, names);
+                }
+                names.add(f.getFormatName());
+                acceptedMimeTypes.add(mimeType);
+            }
+        }
+        this.classes = Collections.unmodifiableMap(classes);
+        this.byMimeType = byMimeType;
+        this.undeclared = undeclared;
+        this.acceptedMimeTypes = Collections.unmodifiableSet(acceptedMimeTypes);
+    }
+
+    /**
+     * @return the registry, discovering the available formats on first use
+     * @throws InstantiationException
+     * @throws IllegalAccessException
+     */
+    public static synchronized FormatRegistry getInstance() throws InstantiationException, IllegalAccessException {
+        if (instance == null) {
+            instance = new FormatRegistry(discover());
+        }
+        return instance;
+    }
+
+    private static Collection<Class<? extends Format>> discover() {
+        List<Class<? extends Format>> found = new ArrayList<Class<? extends Format>>();
+        // only look at the provider types, the registry creates its own instances
+        ServiceLoader.load(Format.class).stream().forEach(provider -> found.add(provider.type()));
+        if (found.isEmpty()) {
+            LOGGER.info("no registered formats, scanning au.gov.nla.flint.formats instead");
+            for (Class<? extends Format> fClass : new Reflections("au.gov.nla.flint.formats").getSubTypesOf(Format.class)) {
+                if (!fClass.isInterface() && !Modifier.isAbstract(fClass.getModifiers())) {
+                    found.add(fClass);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return the names of all available formats
+     */
+    public Set<String> getFormatNames() {
+        return classes.keySet();
+    }
+
+    /**
+     * @return all mime types accepted by the available formats
+     */
+    public Set<String> getAcceptedMimeTypes() {
+        return acceptedMimeTypes;
+    }
+
+    /**
+     * Create a new instance of every available format
+     * @return the new instances by format name
+     * @throws InstantiationException
+     * @throws IllegalAccessException
+     */
+    public Map<String, Format> newInstances() throws InstantiationException, IllegalAccessException {
+        Map<String, Format> fs = new LinkedHashMap<String, Format>();
+        for (Map.Entry<String, Class<? extends Format>> entry : classes.entrySet()) {
+            fs.put(entry.getKey(), entry.getValue().newInstance());
+        }
+        return fs;
+    }
+
+    /**
+     * Create a new instance of every format that can check a mime type
+     * @param mimeType the mime type
+     * @return the new instances by format name
+     * @throws InstantiationException
+     * @throws IllegalAccessException
+     */
+    public Map<String, Format> newInstances(String mimeType) throws InstantiationException, IllegalAccessException {
+        Map<String, Format> fs = new LinkedHashMap<String, Format>();
+        List<String> names = byMimeType.get(mimeType);
+        for (Map.Entry<String, Class<? extends Format>> entry : classes.entrySet()) {
+            String name = entry.getKey();
+            Format prototype = undeclared.get(name);
+            boolean accepts = prototype != null ? prototype.canCheck(mimeType) : names != null && names.contains(name);
+            if (accepts) {
+                fs.put(name, entry.getValue().newInstance());
+            }
+        }
+        return fs;
+    }
+
+    /**
+     * Create a new instance of a format
+     * @param formatName the name of the format (e.g. "PDF")
+     * @return the new instance, or null if there is no such format
+     * @throws InstantiationException
+     * @throws IllegalAccessException
+     */
+    public Format newInstance(String formatName) throws InstantiationException, IllegalAccessException {
+        Class<? extends Format> fClass = classes.get(formatName);
+        return fClass == null ? null : fClass.newInstance();
+    }
+}
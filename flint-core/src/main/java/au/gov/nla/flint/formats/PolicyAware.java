@@ -21,16 +21,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xml.sax.SAXException;
 import au.gov.nla.flint.checks.CheckCategory;
-import au.gov.nla.flint.checks.CheckCheck;
-import uk.bl.dpt.utils.schematron.Validator;
-import uk.bl.dpt.utils.schematron.ValidatorFactory;
+import au.gov.nla.flint.results.ToolOutputStore;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.xpath.XPathExpressionException;
+import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URI;
 import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -46,14 +46,17 @@ public abstract class PolicyAware {
     protected Logger logger;
 
     protected Set<String> patternFilter = null;
-    private static ValidatorFactory valFac;
+
+    protected ToolOutputStore toolOutputs = null;
+
+    // the policy compiled with the current pattern filter, null until first used
+    private volatile CompiledPolicy compiledPolicy = null;
 
     /**
      * Create a new PolicyAware object
      */
     public PolicyAware() {
         logger = LoggerFactory.getLogger(getClass());
-        valFac = new ValidatorFactory();
     }
 
     /**
@@ -68,31 +71,97 @@ public abstract class PolicyAware {
      *
      * @param resultToBeValidated a stream source representing the output of a third-party
      *                             validation process
+     * The policy is read and digested on every call to find its compiled form; formats
+     * validate with {@link #getCompiledPolicy()} instead.
+     *
      * @return a report with resulting assertion errors and their frequency.
      * @throws Exception 
      */
     public static LinkedHashMap<String, CheckCategory> policyValidationResult(StreamSource resultToBeValidated, StreamSource schema, Set<String> pFilter) throws Exception {
-        LinkedHashMap<String, CheckCategory> ccMap = new LinkedHashMap<String, CheckCategory>();
-        Validator validator = valFac.newValidator(schema, pFilter);
-        validator.validate(resultToBeValidated);
-        LinkedHashMap<String, ? extends Map<String, Integer>> report = validator.getReport();
-        for (Map.Entry<String, String> test : valFac.getAssertPatternMap(schema, pFilter).entrySet()) {
-            CheckCategory cc;
-            if (ccMap.containsKey(test.getValue())) {
-                cc = ccMap.get(test.getValue());
-            } else {
-                cc = new CheckCategory(test.getValue());
-            }
-            boolean passed = true;
-            int errorCount = 0;
-            if (report.get(test.getValue()).containsKey(test.getKey())) {
-                passed = false;
-                errorCount = report.get(test.getValue()).get(test.getKey());
+        return compile(schema, pFilter).validate(resultToBeValidated);
+    }
+
+    /**
+     * Validates a (stored) xml-report of the format-specific third-party validator against
+     * this format's policy and the current pattern filter, without running the validator.
+     *
+     * @param toolOutput the report, as produced by the tool named by {@link #getPolicyTool()}
+     * @return a report with resulting assertion errors and their frequency.
+     * @throws Exception
+     */
+    public LinkedHashMap<String, CheckCategory> policyValidationResult(byte[] toolOutput) throws Exception {
+        return getCompiledPolicy().validate(new StreamSource(new ByteArrayInputStream(toolOutput)));
+    }
+
+    /**
+     * Get this format's policy compiled with the current pattern filter. It is compiled on
+     * first use and kept until the pattern filter changes, so validating a file doesn't
+     * read the policy again.
+     *
+     * @return the compiled policy
+     * @throws Exception if the policy can't be read
+     */
+    public CompiledPolicy getCompiledPolicy() throws Exception {
+        CompiledPolicy compiled = compiledPolicy;
+        if (compiled == null) {
+            synchronized (this) {
+                compiled = compiledPolicy;
+                if (compiled == null) {
+                    compiled = compile(new StreamSource(getPolicy()), patternFilter);
+                    compiledPolicy = compiled;
+                }
             }
-            cc.add(new CheckCheck(test.getKey(), passed, errorCount));
-            ccMap.put(cc.getName(), cc);
         }
-        return ccMap;
+        return compiled;
+    }
+
+    /**
+     * Get the name and version of the third-party validator whose xml-report the policy is
+     * checked against, under which its reports are kept in a {@link au.gov.nla.flint.results.ToolOutputStore}.
+     *
+     * @return e.g. "preflight 3.0.2", or null if the format doesn't keep the reports
+     */
+    public String getPolicyTool() {
+        return null;
+    }
+
+    /**
+     * Keep the xml-reports of the third-party validator, so that the policy can be checked
+     * again later without running it, see {@link #policyValidationResult(byte[])}.
+     *
+     * @param store the store to keep them in, or null not to keep them
+     */
+    public void setToolOutputStore(ToolOutputStore store) {
+        toolOutputs = store;
+    }
+
+    /**
+     * @return the store the xml-reports of the third-party validator are kept in, or null
+     */
+    public ToolOutputStore getToolOutputStore() {
+        return toolOutputs;
+    }
+
+    /**
+     * Get the compiled policy for a schema, see {@link au.gov.nla.flint.formats.CompiledPolicy}
+     * @param schema the schematron policy; its stream is read and closed
+     * @param pFilter the pattern filter
+     * @return the compiled policy
+     * @throws Exception
+     */
+    private static CompiledPolicy compile(StreamSource schema, Set<String> pFilter) throws Exception {
+        InputStream in = schema.getInputStream();
+        if (in == null && schema.getSystemId() != null) {
+            in = URI.create(schema.getSystemId()).toURL().openStream();
+        }
+        if (in == null) {
+            throw new IllegalArgumentException("policy schema has to be given as stream or system id");
+        }
+        try {
+            return CompiledPolicy.get(in, pFilter);
+        } finally {
+            in.close();
+        }
     }
 
     /**
@@ -116,6 +185,7 @@ public abstract class PolicyAware {
                     logger.debug("found a de-activated pattern: {}", prop.getKey());
                 }
             }
+            compiledPolicy = null;
         }
     }
 
@@ -127,6 +197,17 @@ public abstract class PolicyAware {
      */
     public void setPatternFilter(Set<String> pFilter) {
         patternFilter = pFilter;
+        compiledPolicy = null;
+    }
+
+    /**
+     * Get the patternFilter currently in use.
+     *
+     * @return a set of strings that represent the patterns to be included, or null if
+     *         no filter has been set.
+     */
+    public Set<String> getPatternFilter() {
+        return patternFilter;
     }
 
     /**
@@ -139,6 +220,12 @@ public abstract class PolicyAware {
      * @throws IOException
      */
     public Collection<String> requestPolicyPatternNames(StreamSource schema) throws ParserConfigurationException, SAXException, XPathExpressionException, IOException {
-        return valFac.getPatternNames(schema, patternFilter);
+        try {
+            return compile(schema, patternFilter).getPatternNames();
+        } catch (ParserConfigurationException | SAXException | XPathExpressionException | IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("could not compile policy", e);
+        }
     }
 }
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint.metrics;
+
+import au.gov.nla.flint.utils.Json;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the metrics of a {@link MetricsRegistry} to a Prometheus text file (e.g. for the
+ * node exporter's textfile collector) and/or a JSON file, periodically while a batch runs
+ * and once more when it is closed. The files are replaced atomically, so readers never
+ * see a half-written file.
+ *
+ * Latency histograms are written as summaries with the 0.5 and 0.99 quantiles and the
+ * maximum (quantile 1); all metric names get the prefix "flint_".
+ */
+public class MetricsExporter implements Closeable {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(MetricsExporter.class);
+
+    private static final String PREFIX = "flint_";
+
+    private final MetricsRegistry registry;
+    private final File prometheusFile;
+    private final File jsonFile;
+    private ScheduledExecutorService scheduler = null;
+
+    /**
+     * Create a new MetricsExporter
+     * @param registry the metrics to export
+     * @param prometheusFile where to write the Prometheus text format, or null
+     * @param jsonFile where to write JSON, or null
+     */
+    public MetricsExporter(MetricsRegistry registry, File prometheusFile, File jsonFile) {
+        this.registry = registry;
+        this.prometheusFile = prometheusFile;
+        this.jsonFile = jsonFile;
+    }
+
+    /**
+     * Start exporting periodically
+     * @param period time between exports
+     * @param unit unit of the period
+     */
+    public synchronized void start(long period, TimeUnit unit) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "flint-metrics-exporter");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    export();
+                } catch (IOException e) {
+                    LOGGER.warn("can't export metrics: {}", e.toString());
+                }
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Write the current metrics to the files
+     * @throws IOException if a file can't be written
+     */
+    public synchronized void export() throws IOException {
+        if (prometheusFile != null) {
+            write(prometheusFile, toPrometheus(registry));
+        }
+        if (jsonFile != null) {
+            write(jsonFile, toJson(registry));
+        }
+    }
+
+    /**
+     * Stop exporting periodically and write the final metrics
+     * @throws IOException if a file can't be written
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+                scheduler = null;
+            }
+        }
+        export();
+    }
+
+    /**
+     * Render metrics in the Prometheus text exposition format
+     * @param registry the metrics to render
+     * @return the metrics as text
+     */
+    public static String toPrometheus(MetricsRegistry registry) {
+        StringBuilder sb = new StringBuilder();
+        gauge(sb, "uptime_seconds", registry.getUptimeSeconds());
+        gauge(sb, "files_per_second", registry.getFilesPerSecond());
+        gauge(sb, "bytes_per_second", registry.getBytesPerSecond());
+        String family = null;
+        for (Map.Entry<MetricsRegistry.Key, Long> entry : registry.getValues().entrySet()) {
+            MetricsRegistry.Key key = entry.getKey();
+            if (!key.getName().equals(family)) {
+                family = key.getName();
+                sb.append("# TYPE ").append(PREFIX).append(family)
+                        .append(family.endsWith("_total") ? " counter\n" : " gauge\n");
+            }
+            sb.append(PREFIX).append(key.getName()).append(labels(key, null)).append(' ')
+                    .append(entry.getValue()).append('\n');
+        }
+        family = null;
+        for (Map.Entry<MetricsRegistry.Key, LatencyHistogram> entry : registry.getHistograms().entrySet()) {
+            MetricsRegistry.Key key = entry.getKey();
+            LatencyHistogram histogram = entry.getValue();
+            if (!key.getName().equals(family)) {
+                family = key.getName();
+                sb.append("# TYPE ").append(PREFIX).append(family).append(" summary\n");
+            }
+            String name = PREFIX + key.getName();
+            sb.append(name).append(labels(key, "0.5")).append(' ').append(histogram.getValueAtPercentile(50)).append('\n');
+            sb.append(name).append(labels(key, "0.99")).append(' ').append(histogram.getValueAtPercentile(99)).append('\n');
+            sb.append(name).append(labels(key, "1")).append(' ').append(histogram.getMax()).append('\n');
+            sb.append(name).append("_sum").append(labels(key, null)).append(' ').append(histogram.getSum()).append('\n');
+            sb.append(name).append("_count").append(labels(key, null)).append(' ').append(histogram.getCount()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Render metrics as a JSON object
+     * @param registry the metrics to render
+     * @return the metrics as JSON
+     */
+    public static String toJson(MetricsRegistry registry) {
+        StringBuilder sb = new StringBuilder("{\n");
+        sb.append(String.format(Locale.ROOT, "  \"uptimeSeconds\": %.3f,\n", registry.getUptimeSeconds()));
+        sb.append(String.format(Locale.ROOT, "  \"filesPerSecond\": %.3f,\n", registry.getFilesPerSecond()));
+        sb.append(String.format(Locale.ROOT, "  \"bytesPerSecond\": %.1f,\n", registry.getBytesPerSecond()));
+        sb.append("  \"values\": [");
+        String sep = "\n";
+        for (Map.Entry<MetricsRegistry.Key, Long> entry : registry.getValues().entrySet()) {
+            sb.append(sep).append("    {").append(jsonKey(entry.getKey()))
+                    .append(", \"value\": ").append(entry.getValue()).append('}');
+            sep = ",\n";
+        }
+        sb.append("\n  ],\n  \"histograms\": [");
+        sep = "\n";
+        for (Map.Entry<MetricsRegistry.Key, LatencyHistogram> entry : registry.getHistograms().entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            sb.append(sep).append("    {").append(jsonKey(entry.getKey()))
+                    .append(", \"count\": ").append(histogram.getCount())
+                    .append(", \"sum\": ").append(histogram.getSum())
+                    .append(", \"p50\": ").append(histogram.getValueAtPercentile(50))
+                    .append(", \"p99\": ").append(histogram.getValueAtPercentile(99))
+                    .append(", \"max\": ").append(histogram.getMax()).append('}');
+            sep = ",\n";
+        }
+        return sb.append("\n  ]\n}\n").toString();
+    }
+
+    private static void gauge(StringBuilder sb, String name, double value) {
+        sb.append("# TYPE ").append(PREFIX).append(name).append(" gauge\n");
+        sb.append(PREFIX).append(name).append(' ').append(String.format(Locale.ROOT, "%.3f", value)).append('\n');
+    }
+
+    private static String labels(MetricsRegistry.Key key, String quantile) {
+        StringBuilder sb = new StringBuilder();
+        if (key.getLabel() != null) {
+            sb.append(key.getLabel()).append("=\"").append(escapeLabel(key.getValue())).append('"');
+        }
+        if (quantile != null) {
+            sb.append(sb.length() > 0 ? "," : "").append("quantile=\"").append(quantile).append('"');
+        }
+        return (sb.length() > 0) ? "{" + sb + "}" : "";
+    }
+
+    private static String escapeLabel(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String jsonKey(MetricsRegistry.Key key) {
+        StringBuilder sb = Json.quote(new StringBuilder("\"name\": "), key.getName());
+        if (key.getLabel() != null) {
+            Json.quote(sb.append(", \"labels\": {"), key.getLabel()).append(": ");
+            Json.quote(sb, key.getValue()).append('}');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Replace a file atomically with new content
+     */
+    private static void write(File file, String content) throws IOException {
+        Path target = file.toPath().toAbsolutePath();
+        Path tmp = Files.createTempFile(target.getParent(), "." + file.getName(), ".tmp");
+        try {
+            Files.write(tmp, content.getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint.metrics;
+
+import au.gov.nla.flint.checks.CheckResult;
+import au.gov.nla.flint.checks.TaskMetrics;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters, gauges and latency histograms of a FLint run, for embedding code to query
+ * and for {@link MetricsExporter} to write out.
+ *
+ * Every metric has a name and at most one label (e.g. the format of a latency
+ * histogram). Flint records into the shared {@link #getInstance() instance}:
+ * <ul>
+ *   <li>{@value #FILES} and {@value #BYTES}: files checked and their size</li>
+ *   <li>{@value #FORMAT_LATENCY} by format: time taken to check a file with a format</li>
+ *   <li>{@value #TASK_LATENCY} by task: wall time of each timed task</li>
+ *   <li>{@value #TASK_TIMEOUTS} by task: timed tasks that ran out of time</li>
+ *   <li>{@value #ERRONEOUS} by format: erroneous check-results</li>
+ *   <li>{@value #STORED} by format: check-results taken from a result store</li>
+ *   <li>{@value #IN_FLIGHT}: files queued or being checked by a batch</li>
+ * </ul>
+ * plus whatever gauges components register, such as cache hit counts.
+ */
+public class MetricsRegistry {
+
+    public static final String FILES = "files_checked_total";
+    public static final String BYTES = "bytes_checked_total";
+    public static final String FORMAT_LATENCY = "format_latency_ms";
+    public static final String TASK_LATENCY = "task_latency_ms";
+    public static final String TASK_TIMEOUTS = "task_timeouts_total";
+    public static final String ERRONEOUS = "erroneous_results_total";
+    public static final String STORED = "stored_results_total";
+    public static final String IN_FLIGHT = "batch_in_flight";
+
+    private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+
+    private final long startNanos = System.nanoTime();
+    private final ConcurrentMap<Key, AtomicLong> counters = new ConcurrentHashMap<Key, AtomicLong>();
+    private final ConcurrentMap<Key, LatencyHistogram> histograms = new ConcurrentHashMap<Key, LatencyHistogram>();
+    private final ConcurrentMap<Key, LongSupplier> gauges = new ConcurrentHashMap<Key, LongSupplier>();
+
+    /**
+     * @return the registry all of FLint records into
+     */
+    public static MetricsRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Get a counter, creating it on first use
+     * @param name the name of the counter
+     * @return the counter
+     */
+    public AtomicLong counter(String name) {
+        return counter(name, null, null);
+    }
+
+    /**
+     * Get a labelled counter, creating it on first use
+     * @param name the name of the counter
+     * @param label the name of the label, e.g. 'format'
+     * @param value the value of the label, e.g. 'PDF'
+     * @return the counter
+     */
+    public AtomicLong counter(String name, String label, String value) {
+        return counters.computeIfAbsent(new Key(name, label, value), k -> new AtomicLong());
+    }
+
+    /**
+     * Get a labelled latency histogram, creating it on first use
+     * @param name the name of the histogram
+     * @param label the name of the label, e.g. 'format'
+     * @param value the value of the label, e.g. 'PDF'
+     * @return the histogram
+     */
+    public LatencyHistogram histogram(String name, String label, String value) {
+        return histograms.computeIfAbsent(new Key(name, label, value), k -> new LatencyHistogram());
+    }
+
+    /**
+     * Register a gauge whose value is read whenever the metrics are exported; a gauge
+     * registered under the same name replaces the earlier one
+     * @param name the name of the gauge
+     * @param gauge where to read the value from
+     */
+    public void registerGauge(String name, LongSupplier gauge) {
+        gauges.put(new Key(name, null, null), gauge);
+    }
+
+    /**
+     * Record a file that has been checked
+     * @param size the size of the file [bytes]
+     */
+    public void recordFile(long size) {
+        counter(FILES).incrementAndGet();
+        counter(BYTES).addAndGet(Math.max(0, size));
+    }
+
+    /**
+     * Record the check-result of a format for a file
+     * @param result the check-result
+     * @param stored whether the result was taken from a result store rather than validated
+     */
+    public void recordResult(CheckResult result, boolean stored) {
+        if (stored) {
+            // its time was taken on an earlier run
+            counter(STORED, "format", result.getFormat()).incrementAndGet();
+        } else if (result.getTime() != null) {
+            histogram(FORMAT_LATENCY, "format", result.getFormat()).record(result.getTime());
+        }
+        if (result.isErroneous()) {
+            counter(ERRONEOUS, "format", result.getFormat()).incrementAndGet();
+        }
+    }
+
+    /**
+     * Record the resources a timed task used
+     * @param metrics the task's metrics
+     */
+    public void recordTask(TaskMetrics metrics) {
+        histogram(TASK_LATENCY, "task", metrics.getName()).record(metrics.getWallTime());
+    }
+
+    /**
+     * @return seconds since the registry was created
+     */
+    public double getUptimeSeconds() {
+        return (System.nanoTime() - startNanos) / 1e9;
+    }
+
+    /**
+     * @return files checked per second since the registry was created
+     */
+    public double getFilesPerSecond() {
+        return counter(FILES).get() / Math.max(getUptimeSeconds(), 1e-3);
+    }
+
+    /**
+     * @return bytes checked per second since the registry was created
+     */
+    public double getBytesPerSecond() {
+        return counter(BYTES).get() / Math.max(getUptimeSeconds(), 1e-3);
+    }
+
+    /**
+     * @return a snapshot of all counters and current gauge values, sorted by name and label
+     */
+    public SortedMap<Key, Long> getValues() {
+        SortedMap<Key, Long> values = new TreeMap<Key, Long>();
+        for (Map.Entry<Key, AtomicLong> entry : counters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().get());
+        }
+        for (Map.Entry<Key, LongSupplier> entry : gauges.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().getAsLong());
+        }
+        return values;
+    }
+
+    /**
+     * @return all histograms, sorted by name and label
+     */
+    public SortedMap<Key, LatencyHistogram> getHistograms() {
+        return new TreeMap<Key, LatencyHistogram>(histograms);
+    }
+
+    /**
+     * The name and (optional) label of a metric
+     */
+    public static final class Key implements Comparable<Key> {
+        private final String name;
+        private final String label;
+        private final String value;
+
+        Key(String name, String label, String value) {
+            this.name = name;
+            this.label = label;
+            this.value = (label != null && value == null) ? "" : value;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the name of the label, or null if the metric has none
+         */
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * @return the value of the label, or null if the metric has none
+         */
+        public String getValue() {
+            return value;
+        }
+
+        @Override
+        public int compareTo(Key o) {
+            int c = name.compareTo(o.name);
+            if (c == 0) c = compare(label, o.label);
+            if (c == 0) c = compare(value, o.value);
+            return c;
+        }
+
+        private static int compare(String a, String b) {
+            if (a == null) return (b == null) ? 0 : -1;
+            return (b == null) ? 1 : a.compareTo(b);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return (o instanceof Key) && compareTo((Key) o) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = name.hashCode();
+            h = 31 * h + (label == null ? 0 : label.hashCode());
+            return 31 * h + (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return (label == null) ? name : name + "{" + label + "=" + value + "}";
+        }
+    }
+}
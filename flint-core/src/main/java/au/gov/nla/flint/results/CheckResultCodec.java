@@ -0,0 +1,199 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint.results;
+
+import au.gov.nla.flint.checks.CheckCategory;
+import au.gov.nla.flint.checks.CheckCheck;
+import au.gov.nla.flint.checks.CheckResult;
+import au.gov.nla.flint.checks.TaskMetrics;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary encoding of {@link au.gov.nla.flint.checks.CheckResult}s, used wherever
+ * results are stored or passed around outside of the xml report.
+ *
+ * A result is written as a format version followed by its fields, its categories and their
+ * checks in order, and the metrics of its timed tasks; expected categories that have not
+ * been filled in are kept as such. Decoded results are {@link CheckResult#freeze() frozen}.
+ */
+public final class CheckResultCodec {
+
+    /**
+     * Version of the encoding, written in front of every result
+     */
+    public static final int VERSION = 2;
+
+    private static final byte NULL = 0;
+    private static final byte FALSE = 1;
+    private static final byte TRUE = 2;
+
+    private CheckResultCodec() {}
+
+    /**
+     * Encode a CheckResult
+     * @param result the result to encode
+     * @return the encoded result
+     */
+    public static byte[] encode(CheckResult result) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try {
+            write(new DataOutputStream(bytes), result);
+        } catch (IOException e) {
+            // can't happen when writing to memory
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decode a CheckResult
+     * @param encoded a result encoded by {@link #encode(au.gov.nla.flint.checks.CheckResult)}
+     * @return the decoded result
+     * @throws IOException if the data is not a valid encoded result
+     */
+    public static CheckResult decode(byte[] encoded) throws IOException {
+        return read(new DataInputStream(new ByteArrayInputStream(encoded)));
+    }
+
+    /**
+     * Write a CheckResult
+     * @param out where to write the result to
+     * @param result the result to write
+     * @throws IOException
+     */
+    public static void write(DataOutput out, CheckResult result) throws IOException {
+        out.writeByte(VERSION);
+        writeString(out, result.getFilename());
+        writeString(out, result.getFormat());
+        writeString(out, result.getVersion());
+        Long time = result.getTime();
+        out.writeBoolean(time != null);
+        if (time != null) {
+            out.writeLong(time);
+        }
+        Map<String, CheckCategory> categories = result.getCategories();
+        out.writeInt(categories.size());
+        for (Map.Entry<String, CheckCategory> entry : categories.entrySet()) {
+            writeString(out, entry.getKey());
+            CheckCategory cc = entry.getValue();
+            out.writeBoolean(cc != null);
+            if (cc == null) {
+                continue;
+            }
+            writeString(out, cc.getName());
+            out.writeInt(cc.getChecks().size());
+            for (CheckCheck check : cc.getChecks()) {
+                writeString(out, check.getName());
+                Boolean happy = check.isHappy();
+                out.writeByte(happy == null ? NULL : happy ? TRUE : FALSE);
+                Integer errorCount = check.getErrorCount();
+                out.writeBoolean(errorCount != null);
+                if (errorCount != null) {
+                    out.writeInt(errorCount);
+                }
+            }
+        }
+        List<TaskMetrics> taskMetrics = result.getTaskMetrics();
+        out.writeInt(taskMetrics.size());
+        for (TaskMetrics metrics : taskMetrics) {
+            writeString(out, metrics.getName());
+            out.writeLong(metrics.getWallTime());
+            out.writeLong(metrics.getCpuTime());
+            out.writeLong(metrics.getAllocatedBytes());
+            out.writeLong(metrics.getToolCpuTime());
+        }
+    }
+
+    /**
+     * Read a CheckResult
+     * @param in where to read the result from
+     * @return the result
+     * @throws IOException if the data is not a valid encoded result
+     */
+    public static CheckResult read(DataInput in) throws IOException {
+        int version = in.readUnsignedByte();
+        // version 1 is version 2 without task metrics
+        if (version != VERSION && version != 1) {
+            throw new IOException("unsupported check-result encoding version " + version);
+        }
+        String filename = readString(in);
+        String format = readString(in);
+        String formatVersion = readString(in);
+        Long time = in.readBoolean() ? in.readLong() : null;
+        int count = in.readInt();
+        LinkedHashMap<String, CheckCategory> categories = new LinkedHashMap<String, CheckCategory>();
+        for (int i = 0; i < count; i++) {
+            String key = readString(in);
+            if (!in.readBoolean()) {
+                // an expected category that was never filled in
+                categories.put(key, null);
+                continue;
+            }
+            CheckCategory cc = new CheckCategory(readString(in));
+            int checks = in.readInt();
+            for (int j = 0; j < checks; j++) {
+                String name = readString(in);
+                byte happy = in.readByte();
+                Integer errorCount = in.readBoolean() ? in.readInt() : null;
+                cc.add(new CheckCheck(name, happy == NULL ? null : happy == TRUE, errorCount));
+            }
+            categories.put(key, cc);
+        }
+        // results of a format share their schema, whether checked or decoded
+        CheckResult result = new CheckResult(filename, format, formatVersion, categories.keySet());
+        result.addAll(categories);
+        result.setTime(time);
+        int tasks = (version >= 2) ? in.readInt() : 0;
+        for (int i = 0; i < tasks; i++) {
+            result.addTaskMetrics(new TaskMetrics(readString(in), in.readLong(), in.readLong(), in.readLong(), in.readLong()));
+        }
+        result.freeze();
+        return result;
+    }
+
+    private static void writeString(DataOutput out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
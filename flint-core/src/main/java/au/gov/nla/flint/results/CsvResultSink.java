@@ -0,0 +1,137 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint.results;
+
+import au.gov.nla.flint.checks.CheckCategory;
+import au.gov.nla.flint.checks.CheckCheck;
+import au.gov.nla.flint.checks.CheckResult;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Writes check-results as CSV (RFC 4180), one row per check-result (i.e. per checked file
+ * and format), for spreadsheets and databases:
+ * <pre>
+ * path,name,format,version,result,time,failed,erroneous
+ * a/b.pdf,b.pdf,PDF,0.1.0,failed,1234,NO_DRM/checkDRMNaiive,
+ * </pre>
+ * 'failed' and 'erroneous' list the checks with that result as category/check,
+ * separated by '|'. Every part starts with the header row.
+ */
+public class CsvResultSink extends TextResultSink {
+
+    private static final String HEADER = "path,name,format,version,result,time,failed,erroneous";
+
+    /**
+     * Create a CsvResultSink writing to a file, replacing any existing content
+     * @param output the file to write to; with rolling, the part number is added to its name
+     * @param compression how to compress the output
+     * @param filesPerPart how many checked files go into each part, 0 for a single file
+     * @throws IOException if the file can't be opened
+     */
+    public CsvResultSink(File output, Compression compression, long filesPerPart) throws IOException {
+        super(output, compression, filesPerPart);
+        begin();
+    }
+
+    /**
+     * Create a CsvResultSink writing to a Writer
+     * @param output the writer to write to, will be closed with this sink
+     * @throws IOException if the writer fails
+     */
+    public CsvResultSink(Writer output) throws IOException {
+        super(output);
+        begin();
+    }
+
+    @Override
+    protected void startDocument(PrintWriter out) {
+        out.append(HEADER).append("\r\n");
+    }
+
+    @Override
+    protected void writeResults(PrintWriter out, File file, List<CheckResult> results) {
+        if (results.isEmpty()) {
+            return;
+        }
+        String path = getPath(file);
+        StringBuilder sb = new StringBuilder(256);
+        StringBuilder failed = new StringBuilder();
+        StringBuilder erroneous = new StringBuilder();
+        for (CheckResult result : results) {
+            failed.setLength(0);
+            erroneous.setLength(0);
+            for (CheckCategory category : result.getCategories().values()) {
+                if (category == null) continue;
+                for (CheckCheck check : category.getChecks()) {
+                    if (check == null) continue;
+                    StringBuilder list = check.isErroneous() ? erroneous : !check.isHappy() ? failed : null;
+                    if (list != null) {
+                        if (list.length() > 0) list.append('|');
+                        list.append(category.getName()).append('/').append(check.getName());
+                    }
+                }
+            }
+            sb.setLength(0);
+            field(sb, path).append(',');
+            field(sb, result.getFilename()).append(',');
+            field(sb, result.getFormat()).append(',');
+            field(sb, result.getVersion()).append(',');
+            sb.append(result.getResult()).append(',');
+            if (result.getTime() != null) {
+                sb.append(result.getTime().longValue());
+            }
+            sb.append(',');
+            field(sb, failed).append(',');
+            field(sb, erroneous).append("\r\n");
+            out.append(sb);
+        }
+    }
+
+    @Override
+    protected void endDocument(PrintWriter out) {
+    }
+
+    /**
+     * Append a field, quoted if it has to be
+     */
+    private static StringBuilder field(StringBuilder sb, CharSequence value) {
+        if (value == null) {
+            return sb;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = (c == ',' || c == '"' || c == '\n' || c == '\r');
+        }
+        if (!quote) {
+            return sb.append(value);
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') sb.append('"');
+            sb.append(c);
+        }
+        return sb.append('"');
+    }
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint.results;
+
+import au.gov.nla.flint.batch.Shard;
+import au.gov.nla.flint.checks.CheckCategory;
+import au.gov.nla.flint.checks.CheckCheck;
+import au.gov.nla.flint.checks.CheckResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes check-results into a relational database through JDBC, e.g. an embedded H2 or
+ * SQLite database, so that they can be queried with SQL while the run is still going.
+ *
+ * The results are normalised into three tables (created if they don't exist; the ids
+ * continue after those of earlier runs):
+ * <pre>
+ * files      (id, path, name, format, format_version, result, time_ms)  -- a row per check-result,
+ *                                                                       -- or per file no format checked
+ * categories (id, file_id, name, result)
+ * checks     (category_id, name, result, error_count)
+ * </pre>
+ * e.g. <code>select f.path from files f join categories c on c.file_id = f.id
+ * where c.name = 'NO_DRM' and c.result = 'failed'</code>.
+ *
+ * The rows of a file replace those written for the same path before, so checking files
+ * again (or resuming a run, which writes the journaled results once more) into the same
+ * database leaves one set of results per file.
+ *
+ * {@link #write(File, List)} only queues the results; a writer thread of its own inserts
+ * them with batched prepared statements and commits at least every second, or every
+ * {@value #FILES_PER_COMMIT} files. When the database can't keep up, the queue fills up and
+ * writing blocks, rather than results piling up in memory. A database error stops the
+ * writer, and is reported by the next write or by {@link #close()}.
+ */
+public class JdbcResultSink implements ResultSink {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(JdbcResultSink.class);
+
+    private static final int QUEUE_SIZE = 4096;
+    private static final int FILES_PER_COMMIT = 1000;
+    private static final long COMMIT_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private static final String[] SCHEMA = {
+        "create table if not exists files (id bigint primary key, path varchar(4096) not null, " +
+                "name varchar(1024), format varchar(64), format_version varchar(64), result varchar(16), time_ms bigint)",
+        "create table if not exists categories (id bigint primary key, file_id bigint not null, " +
+                "name varchar(1024) not null, result varchar(16) not null)",
+        "create table if not exists checks (category_id bigint not null, name varchar(1024) not null, " +
+                "result varchar(16) not null, error_count integer)",
+        "create index if not exists files_path on files (path)",
+        "create index if not exists categories_file on categories (file_id)",
+        "create index if not exists categories_name on categories (name, result)",
+        "create index if not exists checks_category on checks (category_id)",
+        "create index if not exists checks_name on checks (name, result)"
+    };
+
+    // marks the end of the queue
+    private static final Item END = new Item(null, null);
+
+    private final Connection connection;
+    private final File root;
+    private final PreparedStatement deleteChecks;
+    private final PreparedStatement deleteCategories;
+    private final PreparedStatement deleteFiles;
+    private final PreparedStatement insertFile;
+    private final PreparedStatement insertCategory;
+    private final PreparedStatement insertCheck;
+    private final BlockingQueue<Item> queue = new ArrayBlockingQueue<Item>(QUEUE_SIZE);
+    private final Thread writer;
+    private final AtomicLong committed = new AtomicLong();
+    // the paths written since the last commit
+    private final Set<String> pendingPaths = new HashSet<String>();
+
+    private long nextFileId;
+    private long nextCategoryId;
+    private volatile Exception failure = null;
+    private boolean closed = false;
+
+    /**
+     * Connect to a database and start writing
+     * @param url the JDBC url of the database, e.g. jdbc:h2:file:/data/results
+     * @param root the directory the paths of the checked files are relative to in the database,
+     *             or null to keep them as given
+     * @throws IOException if the database can't be connected to or the tables can't be created
+     */
+    public JdbcResultSink(String url, File root) throws IOException {
+        this.root = root;
+        try {
+            connection = DriverManager.getConnection(url);
+        } catch (SQLException e) {
+            throw new IOException("can't connect to " + url, e);
+        }
+        try {
+            try (Statement statement = connection.createStatement()) {
+                for (String ddl : SCHEMA) {
+                    statement.execute(ddl);
+                }
+                nextFileId = maxId(statement, "files") + 1;
+                nextCategoryId = maxId(statement, "categories") + 1;
+            }
+            connection.setAutoCommit(false);
+            deleteChecks = connection.prepareStatement("delete from checks where category_id in " +
+                    "(select c.id from categories c join files f on c.file_id = f.id where f.path = ?)");
+            deleteCategories = connection.prepareStatement(
+                    "delete from categories where file_id in (select id from files where path = ?)");
+            deleteFiles = connection.prepareStatement("delete from files where path = ?");
+            insertFile = connection.prepareStatement(
+                    "insert into files (id, path, name, format, format_version, result, time_ms) values (?, ?, ?, ?, ?, ?, ?)");
+            insertCategory = connection.prepareStatement(
+                    "insert into categories (id, file_id, name, result) values (?, ?, ?, ?)");
+            insertCheck = connection.prepareStatement(
+                    "insert into checks (category_id, name, result, error_count) values (?, ?, ?, ?)");
+        } catch (SQLException e) {
+            closeQuietly();
+            throw new IOException("can't set up the result tables in " + url, e);
+        }
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeQueued();
+            }
+        }, "flint-jdbc-sink");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void write(File file, List<CheckResult> results) throws IOException {
+        if (closed) {
+            throw new IOException("sink is closed");
+        }
+        checkFailure();
+        String path = (root != null) ? Shard.relativePath(root, file) : file.getPath();
+        try {
+            queue.put(new Item(path, results));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while queueing results of " + file);
+        }
+    }
+
+    /**
+     * @return the number of files whose results have been committed so far
+     */
+    public long getCommitted() {
+        return committed.get();
+    }
+
+    /**
+     * Write and commit everything queued, then disconnect
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            queue.put(END);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while writing the remaining results");
+        } finally {
+            closeQuietly();
+        }
+        checkFailure();
+    }
+
+    private void writeQueued() {
+        int pending = 0;
+        long deadline = 0;
+        while (true) {
+            Item item;
+            try {
+                item = (pending == 0) ? queue.take() : queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                item = END;
+            }
+            if (failure != null) {
+                // keep draining, so that nobody blocks on a full queue
+                if (item == END) return;
+                continue;
+            }
+            try {
+                if (item != null && item != END) {
+                    if (pendingPaths.contains(item.path)) {
+                        // the delete has to see the rows of the earlier write
+                        commit(pending);
+                        pending = 0;
+                    }
+                    if (pending == 0) {
+                        deadline = System.nanoTime() + COMMIT_INTERVAL;
+                    }
+                    add(item);
+                    pending++;
+                }
+                if (pending > 0 && (item == null || item == END || pending >= FILES_PER_COMMIT
+                        || System.nanoTime() >= deadline)) {
+                    commit(pending);
+                    pending = 0;
+                }
+            } catch (SQLException | RuntimeException e) {
+                LOGGER.error("can't write results to the database, no more will be written: {}", e.getMessage());
+                failure = e;
+            }
+            if (item == END) return;
+        }
+    }
+
+    private void commit(int pending) throws SQLException {
+        deleteChecks.executeBatch();
+        deleteCategories.executeBatch();
+        deleteFiles.executeBatch();
+        insertFile.executeBatch();
+        insertCategory.executeBatch();
+        insertCheck.executeBatch();
+        connection.commit();
+        committed.addAndGet(pending);
+        pendingPaths.clear();
+    }
+
+    private void add(Item item) throws SQLException {
+        pendingPaths.add(item.path);
+        for (PreparedStatement delete : new PreparedStatement[] {deleteChecks, deleteCategories, deleteFiles}) {
+            delete.setString(1, item.path);
+            delete.addBatch();
+        }
+        if (item.results.isEmpty()) {
+            insertFile.setLong(1, nextFileId++);
+            insertFile.setString(2, item.path);
+            insertFile.setString(3, new File(item.path).getName());
+            insertFile.setNull(4, Types.VARCHAR);
+            insertFile.setNull(5, Types.VARCHAR);
+            insertFile.setNull(6, Types.VARCHAR);
+            insertFile.setNull(7, Types.BIGINT);
+            insertFile.addBatch();
+            return;
+        }
+        for (CheckResult result : item.results) {
+            long fileId = nextFileId++;
+            insertFile.setLong(1, fileId);
+            insertFile.setString(2, item.path);
+            insertFile.setString(3, result.getFilename());
+            insertFile.setString(4, result.getFormat());
+            insertFile.setString(5, result.getVersion());
+            insertFile.setString(6, result.getResult());
+            if (result.getTime() != null) {
+                insertFile.setLong(7, result.getTime());
+            } else {
+                insertFile.setNull(7, Types.BIGINT);
+            }
+            insertFile.addBatch();
+            for (CheckCategory category : result.getCategories().values()) {
+                if (category == null) continue;
+                long categoryId = nextCategoryId++;
+                insertCategory.setLong(1, categoryId);
+                insertCategory.setLong(2, fileId);
+                insertCategory.setString(3, category.getName());
+                insertCategory.setString(4, category.getResult());
+                insertCategory.addBatch();
+                for (CheckCheck check : category.getChecks()) {
+                    insertCheck.setLong(1, categoryId);
+                    insertCheck.setString(2, check.getName());
+                    insertCheck.setString(3, check.getResult());
+                    if (check.getErrorCount() != null) {
+                        insertCheck.setInt(4, check.getErrorCount());
+                    } else {
+                        insertCheck.setNull(4, Types.INTEGER);
+                    }
+                    insertCheck.addBatch();
+                }
+            }
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        Exception e = failure;
+        if (e != null) {
+            throw new IOException("can't write results to the database", e);
+        }
+    }
+
+    private static long maxId(Statement statement, String table) throws SQLException {
+        try (ResultSet rs = statement.executeQuery("select max(id) from " + table)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            LOGGER.warn("can't close the database connection: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * The results of a file, waiting to be written
+     */
+    private static class Item {
+        final String path;
+        final List<CheckResult> results;
+
+        Item(String path, List<CheckResult> results) {
+            this.path = path;
+            this.results = results;
+        }
+    }
+}
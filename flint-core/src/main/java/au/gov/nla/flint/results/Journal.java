@@ -0,0 +1,222 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint.results;
+
+import au.gov.nla.flint.checks.CheckResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only record of the files a batch has checked, with their check-results, so
+ * that a run that died can be {@link #resume(File, ResultSink) resumed} instead of
+ * started again.
+ *
+ * Each file's record is handed to the operating system as soon as it is written, so it
+ * survives the JVM dying; the journal is also synced to disk every few seconds, so at most
+ * those seconds are lost when the machine goes down. A record that was cut short by a
+ * crash is detected by its checksum and dropped on resume.
+ *
+ * The file starts with a magic number and the {@link CheckResultCodec#VERSION codec version},
+ * followed by records of: int length, int crc32 and a payload of the file's absolute path
+ * (UTF), the number of results and the results themselves, see
+ * {@link CheckResultCodec#write(java.io.DataOutput, CheckResult)}.
+ */
+public class Journal implements ResultSink {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(Journal.class);
+
+    private static final int MAGIC = 0x464c4a4e;
+    private static final int HEADER_LENGTH = 8;
+    private static final long SYNC_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+
+    private final FileOutputStream file;
+    private final DataOutputStream out;
+    private final Set<String> completed;
+    private long lastSync = System.nanoTime();
+    private boolean closed = false;
+
+    private Journal(File journal, boolean append, Set<String> completed) throws IOException {
+        this.file = new FileOutputStream(journal, append);
+        this.out = new DataOutputStream(new BufferedOutputStream(file));
+        this.completed = completed;
+        if (!append) {
+            out.writeInt(MAGIC);
+            out.writeInt(CheckResultCodec.VERSION);
+            out.flush();
+        }
+    }
+
+    /**
+     * Start a new journal, replacing any existing one
+     * @param journal the journal file
+     * @return the empty journal
+     * @throws IOException if the journal can't be written
+     */
+    public static Journal create(File journal) throws IOException {
+        return new Journal(journal, false, new HashSet<String>());
+    }
+
+    /**
+     * Continue an existing journal (or start a new one if there is none): the results of all
+     * files in it are written to the given sink, in the order they were journaled, and the
+     * files are marked as {@link #isCompleted(File) completed}. New records are appended.
+     * @param journal the journal file
+     * @param replay where to write the journaled results to, or null
+     * @return the journal, ready to record more files
+     * @throws IOException if the journal isn't one or can't be read or written
+     */
+    public static Journal resume(File journal, ResultSink replay) throws IOException {
+        if (!journal.isFile() || journal.length() == 0) {
+            return create(journal);
+        }
+        Set<String> completed = new HashSet<String>();
+        long valid = HEADER_LENGTH;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journal)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(journal + " is not a flint journal");
+            }
+            int version = in.readInt();
+            if (version > CheckResultCodec.VERSION) {
+                throw new IOException(journal + " was written by a newer version of flint (" + version + ")");
+            }
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                byte[] payload = readPayload(in, length);
+                if (payload == null) {
+                    LOGGER.warn("dropping incomplete record at offset {} of {} and anything after it", valid, journal);
+                    break;
+                }
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+                String path = record.readUTF();
+                int count = record.readInt();
+                List<CheckResult> results = new ArrayList<CheckResult>(count);
+                for (int i = 0; i < count; i++) {
+                    results.add(CheckResultCodec.read(record));
+                }
+                if (replay != null) {
+                    replay.write(new File(path), results);
+                }
+                completed.add(path);
+                valid += 8 + length;
+            }
+        }
+        if (valid < journal.length()) {
+            // so that new records follow the last good one
+            try (RandomAccessFile raf = new RandomAccessFile(journal, "rw")) {
+                raf.setLength(valid);
+            }
+        }
+        LOGGER.info("resuming {}: {} files already checked", journal, completed.size());
+        return new Journal(journal, true, completed);
+    }
+
+    /**
+     * Read the checksum and payload of a record
+     * @return the payload, or null if the record is incomplete or corrupt
+     */
+    private static byte[] readPayload(DataInputStream in, int length) throws IOException {
+        if (length < 0) {
+            return null;
+        }
+        try {
+            int crc = in.readInt();
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            return (crc == crc32(payload)) ? payload : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static int crc32(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * @param file a file to check
+     * @return true if the file was journaled before this journal was resumed
+     */
+    public boolean isCompleted(File file) {
+        return completed.contains(file.getAbsolutePath());
+    }
+
+    /**
+     * @return the number of files journaled before this journal was resumed
+     */
+    public int getCompletedCount() {
+        return completed.size();
+    }
+
+    @Override
+    public void write(File file, List<CheckResult> results) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream record = new DataOutputStream(buffer);
+        record.writeUTF(file.getAbsolutePath());
+        record.writeInt(results.size());
+        for (CheckResult result : results) {
+            CheckResultCodec.write(record, result);
+        }
+        byte[] payload = buffer.toByteArray();
+        out.writeInt(payload.length);
+        out.writeInt(crc32(payload));
+        out.write(payload);
+        out.flush();
+        if (System.nanoTime() - lastSync > SYNC_INTERVAL) {
+            this.file.getFD().sync();
+            lastSync = System.nanoTime();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            out.flush();
+            file.getFD().sync();
+        } finally {
+            out.close();
+        }
+    }
+}
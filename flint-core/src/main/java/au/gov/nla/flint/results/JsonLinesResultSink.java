@@ -0,0 +1,147 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint.results;
+
+import au.gov.nla.flint.checks.CheckCategory;
+import au.gov.nla.flint.checks.CheckCheck;
+import au.gov.nla.flint.checks.CheckResult;
+import au.gov.nla.flint.checks.TaskMetrics;
+import au.gov.nla.flint.utils.Json;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Writes check-results as JSON Lines, one object per check-result (i.e. per checked file
+ * and format), so that the output can be streamed, split and grepped line by line:
+ * <pre>
+ * {"path":"a/b.pdf","name":"b.pdf","format":"PDF","version":"0.1.0","result":"failed","time":1234,
+ *  "categories":[{"name":"NO_DRM","result":"failed","checks":[{"name":"checkDRMNaiive","result":"failed"}, ...]}, ...],
+ *  "tasks":[{"name":"wellFormedness","wallTime":800,"cpuTime":790}, ...]}
+ * </pre>
+ * Values that aren't known (an unset time, unmeasured task metrics) are left out.
+ */
+public class JsonLinesResultSink extends TextResultSink {
+
+    /**
+     * Create a JsonLinesResultSink writing to a file, replacing any existing content
+     * @param output the file to write to; with rolling, the part number is added to its name
+     * @param compression how to compress the output
+     * @param filesPerPart how many checked files go into each part, 0 for a single file
+     * @throws IOException if the file can't be opened
+     */
+    public JsonLinesResultSink(File output, Compression compression, long filesPerPart) throws IOException {
+        super(output, compression, filesPerPart);
+        begin();
+    }
+
+    /**
+     * Create a JsonLinesResultSink writing to a Writer
+     * @param output the writer to write to, will be closed with this sink
+     * @throws IOException if the writer fails
+     */
+    public JsonLinesResultSink(Writer output) throws IOException {
+        super(output);
+        begin();
+    }
+
+    @Override
+    protected void startDocument(PrintWriter out) {
+    }
+
+    @Override
+    protected void writeResults(PrintWriter out, File file, List<CheckResult> results) {
+        if (results.isEmpty()) {
+            return;
+        }
+        String path = getPath(file);
+        StringBuilder sb = new StringBuilder(1024);
+        for (CheckResult result : results) {
+            sb.setLength(0);
+            sb.append("{\"path\":");
+            Json.quote(sb, path);
+            sb.append(",\"name\":");
+            Json.quote(sb, result.getFilename());
+            sb.append(",\"format\":");
+            Json.quote(sb, result.getFormat());
+            sb.append(",\"version\":");
+            Json.quote(sb, result.getVersion());
+            sb.append(",\"result\":");
+            Json.quote(sb, result.getResult());
+            if (result.getTime() != null) {
+                sb.append(",\"time\":").append(result.getTime().longValue());
+            }
+            sb.append(",\"categories\":[");
+            boolean first = true;
+            for (CheckCategory category : result.getCategories().values()) {
+                if (category == null) continue;
+                sb.append(first ? "{\"name\":" : ",{\"name\":");
+                first = false;
+                Json.quote(sb, category.getName());
+                sb.append(",\"result\":");
+                Json.quote(sb, category.getResult());
+                sb.append(",\"checks\":[");
+                boolean firstCheck = true;
+                for (CheckCheck check : category.getChecks()) {
+                    if (check == null) continue;
+                    sb.append(firstCheck ? "{\"name\":" : ",{\"name\":");
+                    firstCheck = false;
+                    Json.quote(sb, check.getName());
+                    sb.append(",\"result\":");
+                    Json.quote(sb, check.getResult());
+                    if (check.getErrorCount() != null) {
+                        sb.append(",\"errorCount\":").append(check.getErrorCount().intValue());
+                    }
+                    sb.append('}');
+                }
+                sb.append("]}");
+            }
+            sb.append(']');
+            if (!result.getTaskMetrics().isEmpty()) {
+                sb.append(",\"tasks\":[");
+                first = true;
+                for (TaskMetrics metrics : result.getTaskMetrics()) {
+                    sb.append(first ? "{\"name\":" : ",{\"name\":");
+                    first = false;
+                    Json.quote(sb, metrics.getName());
+                    sb.append(",\"wallTime\":").append(metrics.getWallTime());
+                    if (metrics.getCpuTime() >= 0) {
+                        sb.append(",\"cpuTime\":").append(metrics.getCpuTime());
+                    }
+                    if (metrics.getAllocatedBytes() >= 0) {
+                        sb.append(",\"allocatedBytes\":").append(metrics.getAllocatedBytes());
+                    }
+                    if (metrics.getToolCpuTime() >= 0) {
+                        sb.append(",\"toolCpuTime\":").append(metrics.getToolCpuTime());
+                    }
+                    sb.append('}');
+                }
+                sb.append(']');
+            }
+            sb.append('}');
+            out.append(sb).append('\n');
+        }
+    }
+
+    @Override
+    protected void endDocument(PrintWriter out) {
+    }
+}
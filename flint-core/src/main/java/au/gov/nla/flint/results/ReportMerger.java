@@ -0,0 +1,257 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint.results;
+
+import au.gov.nla.flint.batch.Shard;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import static org.apache.commons.lang3.StringEscapeUtils.ESCAPE_XML10;
+
+/**
+ * Merges the XML reports of several shards of a run (see {@link Shard}) into a single
+ * report, as if the whole collection had been checked in one run.
+ *
+ * Each report is read as a stream and the checked files are merged k-way by their path
+ * (the 'path' attribute written by {@link XmlResultSink#writePaths(File)}, or else their
+ * name) in {@link Shard#PATH_ORDER}, so memory use does not depend on the size of the
+ * reports. Reports of directory walks are in that order already; reports that aren't
+ * (e.g. of unsorted manifests) are merged all the same, just not into sorted order.
+ * The results of one file stay together.
+ *
+ * The merged report is written the way {@link XmlResultSink} writes a report (single-quoted
+ * attributes, the same header and indentation), so it reads the same as the report of a
+ * single run.
+ */
+public final class ReportMerger {
+
+    private static final String INDENT = "    ";
+
+    private ReportMerger() {}
+
+    /**
+     * Merge reports into a new file
+     * @param reports the reports of the shards
+     * @param output the file to write the merged report to
+     * @throws IOException if a report can't be read or isn't a FLint report, or the output can't be written
+     */
+    public static void merge(List<File> reports, File output) throws IOException {
+        List<InputStream> inputs = new ArrayList<InputStream>();
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(output))) {
+            for (File report : reports) {
+                inputs.add(new BufferedInputStream(new FileInputStream(report)));
+            }
+            merge(inputs, out);
+        } finally {
+            for (InputStream in : inputs) {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Merge reports into a stream
+     * @param reports the reports of the shards; not closed
+     * @param output where to write the merged report to, as utf-8; not closed
+     * @throws IOException if a report can't be read or isn't a FLint report, or the output can't be written
+     */
+    public static void merge(List<InputStream> reports, OutputStream output) throws IOException {
+        XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        List<Report> readers = new ArrayList<Report>();
+        try {
+            PriorityQueue<Report> heads = new PriorityQueue<Report>(Math.max(1, reports.size()), Report.ORDER);
+            for (InputStream in : reports) {
+                Report report = new Report(readers.size(), inputFactory.createXMLStreamReader(in));
+                readers.add(report);
+                report.start();
+                if (report.next()) {
+                    heads.add(report);
+                }
+            }
+
+            Writer out = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+            out.write("<?xml version='1.0' encoding='utf-8'?>\n<flint>\n");
+            while (!heads.isEmpty()) {
+                Report report = heads.poll();
+                out.write(INDENT);
+                report.copyElement(out);
+                out.write("\n");
+                if (report.next()) {
+                    heads.add(report);
+                }
+            }
+            out.write("</flint>\n");
+            out.flush();
+        } catch (XMLStreamException e) {
+            throw new IOException("can't merge reports: " + e.getMessage(), e);
+        } finally {
+            for (Report report : readers) {
+                try {
+                    report.reader.close();
+                } catch (XMLStreamException e) {
+                    // nothing left to read anyway
+                }
+            }
+        }
+    }
+
+    /**
+     * A report being read, positioned at the start of its next top-level element
+     */
+    private static class Report {
+        private static final Comparator<Report> ORDER = new Comparator<Report>() {
+            @Override
+            public int compare(Report a, Report b) {
+                int c = Shard.PATH_ORDER.compare(a.key, b.key);
+                return (c != 0) ? c : Integer.compare(a.index, b.index);
+            }
+        };
+
+        private final int index;
+        private final XMLStreamReader reader;
+        private String key = null;
+
+        Report(int index, XMLStreamReader reader) {
+            this.index = index;
+            this.reader = reader;
+        }
+
+        /**
+         * Move to the root element
+         */
+        void start() throws XMLStreamException {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                    if (!reader.getLocalName().equals("flint")) {
+                        throw new XMLStreamException("not a FLint report, root element is " + reader.getLocalName());
+                    }
+                    return;
+                }
+            }
+            throw new XMLStreamException("empty report");
+        }
+
+        /**
+         * Move to the next top-level element
+         * @return false if there is none
+         */
+        boolean next() throws XMLStreamException {
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    key = reader.getAttributeValue(null, "path");
+                    if (key == null) {
+                        key = reader.getAttributeValue(null, "name");
+                    }
+                    if (key == null) {
+                        key = "";
+                    }
+                    return true;
+                }
+                if (event == XMLStreamConstants.END_ELEMENT) {
+                    // end of the root element
+                    return false;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Copy the current element with everything inside it, leaving the reader at its end;
+         * elements without content are written as empty-element tags
+         */
+        void copyElement(Writer out) throws XMLStreamException, IOException {
+            int depth = 0;
+            // whether the last start tag still has to be closed
+            boolean open = false;
+            int event = reader.getEventType();
+            while (true) {
+                if (open && event != XMLStreamConstants.END_ELEMENT) {
+                    out.write('>');
+                    open = false;
+                }
+                switch (event) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        depth++;
+                        out.write('<');
+                        out.write(reader.getLocalName());
+                        for (int i = 0; i < reader.getAttributeCount(); i++) {
+                            out.write(' ');
+                            out.write(reader.getAttributeLocalName(i));
+                            out.write("='");
+                            out.write(ESCAPE_XML10.translate(reader.getAttributeValue(i)));
+                            out.write('\'');
+                        }
+                        open = true;
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        if (open) {
+                            out.write("/>");
+                            open = false;
+                        } else {
+                            out.write("</");
+                            out.write(reader.getLocalName());
+                            out.write('>');
+                        }
+                        if (--depth == 0) {
+                            return;
+                        }
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.SPACE:
+                        out.write(ESCAPE_XML10.translate(reader.getText()));
+                        break;
+                    case XMLStreamConstants.CDATA:
+                        out.write("<![CDATA[");
+                        out.write(reader.getText());
+                        out.write("]]>");
+                        break;
+                    case XMLStreamConstants.COMMENT:
+                        out.write("<!--");
+                        out.write(reader.getText());
+                        out.write("-->");
+                        break;
+                    default:
+                        break;
+                }
+                event = reader.next();
+            }
+        }
+    }
+}
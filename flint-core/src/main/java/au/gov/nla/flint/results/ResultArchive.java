@@ -0,0 +1,259 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint.results;
+
+import au.gov.nla.flint.batch.Shard;
+import au.gov.nla.flint.checks.CheckCategory;
+import au.gov.nla.flint.checks.CheckResult;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A binary file of the check-results of a run with an index by path, so that the results
+ * of a single file can be looked up without reading the rest, however large the run.
+ *
+ * An archive is written by a {@link ResultArchiveWriter}. It starts with a magic number
+ * and the {@link CheckResultCodec#VERSION codec version}, followed by a record per checked
+ * file: int length and a payload of the file's path (UTF), the number of results and the
+ * results themselves, see {@link CheckResultCodec#write(java.io.DataOutput, CheckResult)}.
+ * The records are followed by the index, a (long hash of the path, long offset of the
+ * record) pair per file sorted by hash, and a trailer of the offset of the index, the
+ * number of files and the magic number again.
+ *
+ * The archive is memory-mapped, so lookups only touch the pages of the index they search
+ * and the record they find. Instances are safe to use from several threads.
+ */
+public class ResultArchive implements Closeable {
+
+    static final int MAGIC = 0x464c4152;
+    static final int HEADER_LENGTH = 8;
+    private static final int TRAILER_LENGTH = 20;
+    private static final int INDEX_ENTRY = 16;
+    // records can be larger than a segment, they are read across segment boundaries
+    private static final long SEGMENT = 1L << 30;
+
+    private final File file;
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final MappedByteBuffer index;
+    private final long indexOffset;
+    private final int count;
+
+    private ResultArchive(File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < HEADER_LENGTH + TRAILER_LENGTH) {
+                throw new IOException(file + " is not a complete result archive");
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_LENGTH);
+            MappedByteBuffer trailer = channel.map(FileChannel.MapMode.READ_ONLY, size - TRAILER_LENGTH, TRAILER_LENGTH);
+            if (header.getInt(0) != MAGIC || trailer.getInt(16) != MAGIC) {
+                throw new IOException(file + " is not a complete result archive");
+            }
+            if (header.getInt(4) > CheckResultCodec.VERSION) {
+                throw new IOException(file + " was written by a newer version of flint (" + header.getInt(4) + ")");
+            }
+            indexOffset = trailer.getLong(0);
+            long entries = trailer.getLong(8);
+            if (indexOffset < HEADER_LENGTH || entries < 0 || entries > Integer.MAX_VALUE / INDEX_ENTRY
+                    || indexOffset + entries * INDEX_ENTRY != size - TRAILER_LENGTH) {
+                throw new IOException(file + " has a broken index");
+            }
+            count = (int) entries;
+            index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, entries * INDEX_ENTRY);
+            segments = new MappedByteBuffer[(int) ((indexOffset + SEGMENT - 1) / SEGMENT)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = i * SEGMENT;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT, indexOffset - start));
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open an archive
+     * @param archive the archive file
+     * @return the archive, ready for lookups
+     * @throws IOException if the file isn't a complete archive or can't be read
+     */
+    public static ResultArchive open(File archive) throws IOException {
+        return new ResultArchive(archive);
+    }
+
+    /**
+     * @return the number of files in the archive
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Look up the results of a file
+     * @param path the path of the file, as written (i.e. relative to the root the archive
+     *             was written with, '/'-separated)
+     * @return the results of the file, or null if the archive doesn't have it
+     * @throws IOException if the record can't be read
+     */
+    public List<CheckResult> get(String path) throws IOException {
+        long hash = Shard.hash(path);
+        // the first entry with the hash
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (index.getLong(mid * INDEX_ENTRY) < hash) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        List<CheckResult> found = null;
+        // there is more than one entry for a hash if paths collide or a file was written twice,
+        // in which case the last record wins
+        for (int i = lo; i < count && index.getLong(i * INDEX_ENTRY) == hash; i++) {
+            DataInputStream record = record(index.getLong(i * INDEX_ENTRY + 8));
+            if (path.equals(record.readUTF())) {
+                found = readResults(record);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Write all files of the archive to a sink, in the order they were written to the archive
+     * @param sink where to write to; it is not closed
+     * @throws IOException if the archive can't be read or the sink fails
+     */
+    public void scan(ResultSink sink) throws IOException {
+        long position = HEADER_LENGTH;
+        while (position < indexOffset) {
+            int length = readInt(position);
+            DataInputStream record = record(position);
+            String path = record.readUTF();
+            sink.write(new File(path), readResults(record));
+            position += 4 + length;
+        }
+    }
+
+    /**
+     * Find the files whose results match a filter; this reads the whole archive (but
+     * nothing else, and without keeping any results)
+     * @param format the name of the format whose results to look at, or null for any format
+     * @param category the name of a category, or null to filter by the overall result
+     * @param result the result to look for: 'passed', 'failed' or 'error' for a category
+     *               ('erroneous' for the overall result)
+     * @return the paths of the matching files, in the order they were written
+     * @throws IOException if the archive can't be read
+     */
+    public List<String> find(final String format, final String category, final String result) throws IOException {
+        final List<String> paths = new ArrayList<String>();
+        scan(new ResultSink() {
+            @Override
+            public void write(File file, List<CheckResult> results) {
+                for (CheckResult checkResult : results) {
+                    if (format != null && !format.equals(checkResult.getFormat())) {
+                        continue;
+                    }
+                    String actual;
+                    if (category == null) {
+                        actual = checkResult.getResult();
+                    } else {
+                        CheckCategory cc = checkResult.get(category);
+                        actual = (cc == null) ? null : cc.getResult();
+                    }
+                    if (result.equals(actual)) {
+                        paths.add(file.getPath().replace(File.separatorChar, '/'));
+                        return;
+                    }
+                }
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        return paths;
+    }
+
+    /**
+     * Release the file; the mapped memory is released once the archive has been garbage collected
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return file + " (" + count + " files)";
+    }
+
+    private static List<CheckResult> readResults(DataInputStream record) throws IOException {
+        int n = record.readInt();
+        List<CheckResult> results = new ArrayList<CheckResult>(n);
+        for (int i = 0; i < n; i++) {
+            results.add(CheckResultCodec.read(record));
+        }
+        return results;
+    }
+
+    /**
+     * @return a stream over the payload of the record at the given offset
+     */
+    private DataInputStream record(long offset) throws IOException {
+        int length = readInt(offset);
+        if (length < 0 || offset + 4 + length > indexOffset) {
+            throw new IOException(file + " has a broken record at offset " + offset);
+        }
+        byte[] payload = new byte[length];
+        read(offset + 4, payload);
+        return new DataInputStream(new ByteArrayInputStream(payload));
+    }
+
+    private int readInt(long offset) {
+        byte[] bytes = new byte[4];
+        read(offset, bytes);
+        return ((bytes[0] & 0xff) << 24) | ((bytes[1] & 0xff) << 16) | ((bytes[2] & 0xff) << 8) | (bytes[3] & 0xff);
+    }
+
+    private void read(long offset, byte[] dst) {
+        int done = 0;
+        while (done < dst.length) {
+            long position = offset + done;
+            MappedByteBuffer segment = segments[(int) (position / SEGMENT)];
+            int start = (int) (position % SEGMENT);
+            int n = Math.min(dst.length - done, segment.capacity() - start);
+            // absolute bulk get, so that concurrent readers don't share a position
+            segment.get(start, dst, done, n);
+            done += n;
+        }
+    }
+}
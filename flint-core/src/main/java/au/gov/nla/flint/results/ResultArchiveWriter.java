@@ -0,0 +1,173 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint.results;
+
+import au.gov.nla.flint.batch.Shard;
+import au.gov.nla.flint.checks.CheckResult;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes check-results into a {@link ResultArchive}, file by file as they are checked.
+ *
+ * The records are written straight away; only the index (16 bytes per file) is kept in
+ * memory, and it is sorted and appended when the writer is closed. An archive that
+ * wasn't closed has no index and can't be opened.
+ */
+public class ResultArchiveWriter implements ResultSink {
+
+    private final File archive;
+    private final File root;
+    private final DataOutputStream out;
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream(1024);
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+    private long position;
+
+    // the hash of the path and the offset of each record, in the order they were written
+    private long[] hashes = new long[1024];
+    private long[] offsets = new long[1024];
+    private int count = 0;
+    private boolean closed = false;
+
+    /**
+     * Create a new archive, replacing any existing file
+     * @param archive the archive file
+     * @param root the directory the paths of the checked files are relative to in the archive,
+     *             or null to keep them as given
+     * @throws IOException if the archive can't be written
+     */
+    public ResultArchiveWriter(File archive, File root) throws IOException {
+        this.archive = archive;
+        this.root = root;
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(archive), 64 * 1024));
+        out.writeInt(ResultArchive.MAGIC);
+        out.writeInt(CheckResultCodec.VERSION);
+        position = ResultArchive.HEADER_LENGTH;
+    }
+
+    @Override
+    public void write(File file, List<CheckResult> results) throws IOException {
+        if (closed) {
+            throw new IOException("archive " + archive + " is closed");
+        }
+        String path = (root != null) ? Shard.relativePath(root, file) : file.getPath();
+        record.reset();
+        recordOut.writeUTF(path);
+        recordOut.writeInt(results.size());
+        for (CheckResult result : results) {
+            CheckResultCodec.write(recordOut, result);
+        }
+        recordOut.flush();
+
+        if (count == hashes.length) {
+            hashes = Arrays.copyOf(hashes, count * 2);
+            offsets = Arrays.copyOf(offsets, count * 2);
+        }
+        hashes[count] = Shard.hash(path);
+        offsets[count] = position;
+        count++;
+
+        out.writeInt(record.size());
+        record.writeTo(out);
+        position += 4 + record.size();
+    }
+
+    /**
+     * @return the number of files written so far
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Append the index and close the archive
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            sort(0, count - 1);
+            long indexOffset = position;
+            for (int i = 0; i < count; i++) {
+                out.writeLong(hashes[i]);
+                out.writeLong(offsets[i]);
+            }
+            out.writeLong(indexOffset);
+            out.writeLong(count);
+            out.writeInt(ResultArchive.MAGIC);
+            out.flush();
+        } finally {
+            out.close();
+            hashes = null;
+            offsets = null;
+        }
+    }
+
+    /**
+     * Sort the index by hash and offset (quicksort, the two arrays side by side)
+     */
+    private void sort(int lo, int hi) {
+        while (lo < hi) {
+            if (hi - lo < 16) {
+                for (int i = lo + 1; i <= hi; i++) {
+                    for (int j = i; j > lo && less(j, j - 1); j--) {
+                        swap(j, j - 1);
+                    }
+                }
+                return;
+            }
+            swap((lo + hi) >>> 1, hi);
+            int p = lo;
+            for (int i = lo; i < hi; i++) {
+                if (less(i, hi)) {
+                    swap(i, p++);
+                }
+            }
+            swap(p, hi);
+            // recurse into the smaller half, loop over the larger one
+            if (p - lo < hi - p) {
+                sort(lo, p - 1);
+                lo = p + 1;
+            } else {
+                sort(p + 1, hi);
+                hi = p - 1;
+            }
+        }
+    }
+
+    private boolean less(int i, int j) {
+        return hashes[i] < hashes[j] || (hashes[i] == hashes[j] && offsets[i] < offsets[j]);
+    }
+
+    private void swap(int i, int j) {
+        long h = hashes[i];
+        hashes[i] = hashes[j];
+        hashes[j] = h;
+        long o = offsets[i];
+        offsets[i] = offsets[j];
+        offsets[j] = o;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint.results;
+
+import au.gov.nla.flint.checks.CheckResult;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A destination for check-results that receives them one file at a time, as soon
+ * as they are available, so that nothing needs to be kept in memory for the whole run.
+ *
+ * Results are written in the order the files were checked; {@link #close()} finishes
+ * the output (e.g. closes the XML document) and releases all resources.
+ */
+public interface ResultSink extends Closeable {
+
+    /**
+     * Write the check-results of a single file
+     * @param file the file that has been checked
+     * @param results its check-results, one per format that checked it (can be empty)
+     * @throws IOException if the results can't be written
+     */
+    public void write(File file, List<CheckResult> results) throws IOException;
+
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint.results;
+
+import au.gov.nla.flint.checks.CheckCategory;
+import au.gov.nla.flint.checks.CheckResult;
+import au.gov.nla.flint.checks.TaskMetrics;
+import au.gov.nla.flint.formats.Format;
+import au.gov.nla.flint.formats.PolicyAware;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An on-disk store of check-results, so that files which have not changed since an
+ * earlier run don't need to be validated again.
+ *
+ * Results are addressed by the SHA-256 digest of the file content together with the
+ * name and version of the format that checked it and, for {@link au.gov.nla.flint.formats.PolicyAware}
+ * formats, a digest of the policy and the active pattern filter. A new format version or
+ * a different policy therefore never sees an old result. Every result is kept in its own
+ * file below the store directory, written atomically, so one store can be shared by
+ * concurrent workers and survives interrupted runs.
+ *
+ * Results that contain errors (e.g. a check that timed out) are not stored, so they are
+ * retried on the next run.
+ */
+public class ResultStore {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(ResultStore.class);
+
+    private static final String SUFFIX = ".result";
+
+    private final Path directory;
+
+    // format fingerprints by format class and pattern filter
+    private final Map<String, String> fingerprints = new ConcurrentHashMap<String, String>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+
+    /**
+     * Open a result store, creating the directory if needed
+     * @param directory where the results are kept
+     * @throws IOException if the directory can't be created
+     */
+    public ResultStore(File directory) throws IOException {
+        this.directory = directory.toPath();
+        Files.createDirectories(this.directory);
+    }
+
+    /**
+     * Calculate the SHA-256 digest of a file's content
+     * @param file the file
+     * @return the digest as lower case hex string
+     * @throws IOException if the file can't be read
+     */
+    public static String digest(File file) throws IOException {
+        MessageDigest md = sha256();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file.toPath()), md)) {
+            byte[] buffer = new byte[64 * 1024];
+            while (in.read(buffer) != -1) {
+                // just digesting
+            }
+        }
+        return hex(md.digest());
+    }
+
+    /**
+     * Get the key under which the result of a format for some content is stored
+     * @param contentDigest the digest of the file content, see {@link #digest(java.io.File)}
+     * @param format the format that checks the file
+     * @return the key
+     */
+    public String key(String contentDigest, Format format) {
+        MessageDigest md = sha256();
+        md.update(contentDigest.getBytes(StandardCharsets.UTF_8));
+        md.update((byte) 0);
+        md.update(fingerprint(format).getBytes(StandardCharsets.UTF_8));
+        return hex(md.digest());
+    }
+
+    /**
+     * Get the key under which the latest result of a policy aware format for some content is
+     * kept, whatever the policy and pattern filter it was checked with; its categories
+     * other than the policy ones are still valid when only the policy changes
+     * @param contentDigest the digest of the file content, see {@link #digest(java.io.File)}
+     * @param format the format that checks the file
+     * @return the key
+     */
+    public String latestKey(String contentDigest, Format format) {
+        MessageDigest md = sha256();
+        md.update(contentDigest.getBytes(StandardCharsets.UTF_8));
+        md.update((byte) 0);
+        md.update(("latest\u0000" + format.getFormatName() + '\u0000' + format.getClass().getName() + '\u0000'
+                + format.getVersion()).getBytes(StandardCharsets.UTF_8));
+        return hex(md.digest());
+    }
+
+    /**
+     * Look up a stored result
+     * @param key the key of the result, see {@link #key(String, au.gov.nla.flint.formats.Format)}
+     * @param filename the name of the file being checked now (the same content may have been
+     *                 stored under a different name)
+     * @return the stored result, or null if there is none
+     */
+    public CheckResult get(String key, String filename) {
+        Path entry = entry(key);
+        byte[] encoded;
+        try {
+            encoded = Files.readAllBytes(entry);
+        } catch (NoSuchFileException e) {
+            misses.incrementAndGet();
+            return null;
+        } catch (IOException e) {
+            LOGGER.warn("can't read stored result {}: {}", entry, e);
+            misses.incrementAndGet();
+            return null;
+        }
+        CheckResult result;
+        try {
+            result = CheckResultCodec.decode(encoded);
+        } catch (IOException e) {
+            // e.g. written by an incompatible version; it will be overwritten
+            LOGGER.warn("ignoring unreadable stored result {}: {}", entry, e.getMessage());
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        if (filename.equals(result.getFilename())) {
+            return result;
+        }
+        // the categories are frozen, so they can be shared
+        CheckResult renamed = new CheckResult(filename, result.getFormat(), result.getVersion(), result.getSchema());
+        renamed.addAll(new LinkedHashMap<String, CheckCategory>(result.getCategories()));
+        renamed.setTime(result.getTime());
+        for (TaskMetrics metrics : result.getTaskMetrics()) {
+            renamed.addTaskMetrics(metrics);
+        }
+        renamed.freeze();
+        return renamed;
+    }
+
+    /**
+     * Store a result, unless it contains errors
+     * @param key the key of the result, see {@link #key(String, au.gov.nla.flint.formats.Format)}
+     * @param result the result to store
+     * @throws IOException if the result can't be written
+     */
+    public void put(String key, CheckResult result) throws IOException {
+        if (result.isErroneous()) {
+            LOGGER.debug("not storing erroneous result for {}", result.getFilename());
+            return;
+        }
+        Path entry = entry(key);
+        Files.createDirectories(entry.getParent());
+        Path tmp = Files.createTempFile(entry.getParent(), key, ".tmp");
+        try {
+            Files.write(tmp, CheckResultCodec.encode(result));
+            try {
+                Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING);
+            }
+            writes.incrementAndGet();
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * @return the number of lookups that found a stored result
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups that found nothing usable
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of results written
+     */
+    public long getWrites() {
+        return writes.get();
+    }
+
+    private Path entry(String key) {
+        // spread the entries over subdirectories to keep directories small
+        return directory.resolve(key.substring(0, 2)).resolve(key + SUFFIX);
+    }
+
+    /**
+     * Everything about a format that influences its results: name, version, and for
+     * policy aware formats the policy and the pattern filter
+     */
+    private String fingerprint(Format format) {
+        Set<String> filter = null;
+        if (format instanceof PolicyAware) {
+            filter = ((PolicyAware) format).getPatternFilter();
+        }
+        String filterString = filter == null ? "*" : String.join("\u0000", new TreeSet<String>(filter));
+        String id = format.getClass().getName() + '\u0000' + format.getVersion() + '\u0000' + filterString;
+        String fingerprint = fingerprints.get(id);
+        if (fingerprint == null) {
+            MessageDigest md = sha256();
+            md.update((format.getFormatName() + '\u0000' + id).getBytes(StandardCharsets.UTF_8));
+            if (format instanceof PolicyAware) {
+                md.update((byte) 0);
+                try (InputStream policy = ((PolicyAware) format).getPolicy()) {
+                    if (policy != null) {
+                        byte[] buffer = new byte[8192];
+                        int read;
+                        while ((read = policy.read(buffer)) != -1) {
+                            md.update(buffer, 0, read);
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException("can't read the policy of " + format.getFormatName(), e);
+                }
+            }
+            fingerprint = hex(md.digest());
+            fingerprints.put(id, fingerprint);
+        }
+        return fingerprint;
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM has to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
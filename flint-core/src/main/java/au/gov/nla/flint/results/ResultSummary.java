@@ -0,0 +1,297 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint.results;
+
+import au.gov.nla.flint.checks.CheckCategory;
+import au.gov.nla.flint.checks.CheckCheck;
+import au.gov.nla.flint.checks.CheckResult;
+import au.gov.nla.flint.metrics.LatencyHistogram;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.apache.commons.lang3.StringEscapeUtils.ESCAPE_XML10;
+
+/**
+ * Counts check-results as they are produced: per format, category and check how many
+ * passed, failed or were erroneous, and per format the percentiles of the time taken.
+ *
+ * Only counters and histograms are kept, never the results themselves, so a summary
+ * takes the same memory however many files are checked. Results can be recorded from
+ * any thread; the counters are atomic, so only the first result of a new format, category
+ * or check ever waits for another thread. At the end of a run the summary is written as xml:
+ * <pre>
+ * &lt;flintSummary files='120' unchecked='3'&gt;
+ *   &lt;format name='PDF' results='117' passed='100' failed='15' erroneous='2'&gt;
+ *     &lt;time mean='812' p50='640' p90='1500' p99='4100' max='9800'/&gt;
+ *     &lt;checkCategory name='NO_DRM' passed='110' failed='5' error='2'&gt;
+ *       &lt;check name='checkDRMNaiive' passed='112' failed='3' error='2'/&gt;
+ *     ...
+ * </pre>
+ */
+public class ResultSummary implements ResultSink {
+
+    private static final int PASSED = 0;
+    private static final int FAILED = 1;
+    private static final int ERROR = 2;
+
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong unchecked = new AtomicLong();
+    private final ConcurrentMap<String, FormatSummary> formats = new ConcurrentHashMap<String, FormatSummary>();
+
+    /**
+     * Count the results of a file
+     * @param file the file that has been checked
+     * @param results its check-results (can be empty)
+     */
+    @Override
+    public void write(File file, List<CheckResult> results) {
+        files.incrementAndGet();
+        if (results.isEmpty()) {
+            unchecked.incrementAndGet();
+        }
+        for (CheckResult result : results) {
+            record(result);
+        }
+    }
+
+    /**
+     * Count a single check-result
+     * @param result the result
+     */
+    public void record(CheckResult result) {
+        FormatSummary summary = formats.computeIfAbsent(String.valueOf(result.getFormat()), k -> new FormatSummary());
+        summary.outcomes.incrementAndGet(outcome(result.isErroneous(), result.isHappy()));
+        if (result.getTime() != null) {
+            summary.time.record(result.getTime());
+        }
+        for (CheckCategory category : result.getCategories().values()) {
+            if (category == null) continue;
+            CategoryTally categoryTally = summary.categories.computeIfAbsent(String.valueOf(category.getName()), k -> new CategoryTally());
+            categoryTally.outcomes.incrementAndGet(outcome(category.isErroneous(), category.isHappy()));
+            for (CheckCheck check : category.getChecks()) {
+                categoryTally.checks.computeIfAbsent(String.valueOf(check.getName()), k -> new Tally()).outcomes
+                        .incrementAndGet(outcome(check.isErroneous(), check.isHappy()));
+            }
+        }
+    }
+
+    /**
+     * Wrap a sink so that the results written to it are counted first
+     * @param sink the sink to write to
+     * @return a sink counting and writing the results; closing it closes the given sink
+     */
+    public ResultSink counting(final ResultSink sink) {
+        return new ResultSink() {
+            @Override
+            public void write(File file, List<CheckResult> results) throws IOException {
+                ResultSummary.this.write(file, results);
+                sink.write(file, results);
+            }
+
+            @Override
+            public void close() throws IOException {
+                sink.close();
+            }
+        };
+    }
+
+    /**
+     * @return the number of files seen
+     */
+    public long getFiles() {
+        return files.get();
+    }
+
+    /**
+     * @return the number of files no format could check
+     */
+    public long getUnchecked() {
+        return unchecked.get();
+    }
+
+    /**
+     * Get the counts of the results of a format
+     * @param format the name of the format
+     * @return the number of passed, failed and erroneous results, in that order
+     */
+    public long[] getCounts(String format) {
+        FormatSummary summary = formats.get(format);
+        return (summary == null) ? new long[3] : counts(summary.outcomes);
+    }
+
+    /**
+     * Get the counts of a category of a format
+     * @param format the name of the format
+     * @param category the name of the category
+     * @return how often the category passed, failed and was erroneous, in that order
+     */
+    public long[] getCounts(String format, String category) {
+        FormatSummary summary = formats.get(format);
+        CategoryTally tally = (summary == null) ? null : summary.categories.get(category);
+        return (tally == null) ? new long[3] : counts(tally.outcomes);
+    }
+
+    /**
+     * Get the time taken by the checks of a format
+     * @param format the name of the format
+     * @return the histogram of the check times [ms], or null if the format hasn't checked anything
+     */
+    public LatencyHistogram getTimes(String format) {
+        FormatSummary summary = formats.get(format);
+        return (summary == null) ? null : summary.time;
+    }
+
+    /**
+     * Write the summary as xml, formats, categories and checks in alphabetical order
+     * @param pw where to write to
+     */
+    public void toXML(PrintWriter pw) {
+        pw.println("<?xml version='1.0' encoding='utf-8'?>");
+        pw.print("<flintSummary files='");
+        pw.print(files.get());
+        pw.print("' unchecked='");
+        pw.print(unchecked.get());
+        pw.println("'>");
+        for (Map.Entry<String, FormatSummary> format : new TreeMap<String, FormatSummary>(formats).entrySet()) {
+            FormatSummary summary = format.getValue();
+            long[] counts = counts(summary.outcomes);
+            pw.print("  <format name='");
+            pw.print(ESCAPE_XML10.translate(format.getKey()));
+            pw.print("' results='");
+            pw.print(counts[PASSED] + counts[FAILED] + counts[ERROR]);
+            pw.print("' passed='");
+            pw.print(counts[PASSED]);
+            pw.print("' failed='");
+            pw.print(counts[FAILED]);
+            pw.print("' erroneous='");
+            pw.print(counts[ERROR]);
+            pw.println("'>");
+            LatencyHistogram time = summary.time;
+            pw.print("    <time mean='");
+            pw.print(time.getCount() == 0 ? 0 : time.getSum() / time.getCount());
+            pw.print("' p50='");
+            pw.print(time.getValueAtPercentile(50));
+            pw.print("' p90='");
+            pw.print(time.getValueAtPercentile(90));
+            pw.print("' p99='");
+            pw.print(time.getValueAtPercentile(99));
+            pw.print("' max='");
+            pw.print(time.getMax());
+            pw.println("'/>");
+            for (Map.Entry<String, CategoryTally> category : new TreeMap<String, CategoryTally>(summary.categories).entrySet()) {
+                pw.print("    <checkCategory name='");
+                pw.print(ESCAPE_XML10.translate(category.getKey()));
+                printCounts(pw, category.getValue());
+                pw.println("'>");
+                for (Map.Entry<String, Tally> check : new TreeMap<String, Tally>(category.getValue().checks).entrySet()) {
+                    pw.print("      <check name='");
+                    pw.print(ESCAPE_XML10.translate(check.getKey()));
+                    printCounts(pw, check.getValue());
+                    pw.println("'/>");
+                }
+                pw.println("    </checkCategory>");
+            }
+            pw.println("  </format>");
+        }
+        pw.println("</flintSummary>");
+    }
+
+    /**
+     * Write the summary as xml to a file, replacing any existing content
+     * @param file the file to write to
+     * @throws IOException if the file can't be written
+     */
+    public void toXML(File file) throws IOException {
+        try (PrintWriter pw = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            toXML(pw);
+            if (pw.checkError()) {
+                throw new IOException("can't write summary to " + file);
+            }
+        }
+    }
+
+    /**
+     * Nothing to release; the summary can still be read and written after closing
+     */
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, FormatSummary> format : new TreeMap<String, FormatSummary>(formats).entrySet()) {
+            long[] counts = counts(format.getValue().outcomes);
+            sb.append(sb.length() > 0 ? ", " : "").append(format.getKey()).append(": ")
+                    .append(counts[PASSED]).append(" passed, ")
+                    .append(counts[FAILED]).append(" failed, ")
+                    .append(counts[ERROR]).append(" erroneous");
+        }
+        return files.get() + " files (" + unchecked.get() + " unchecked)" + (sb.length() > 0 ? "; " + sb : "");
+    }
+
+    private static void printCounts(PrintWriter pw, Tally tally) {
+        long[] counts = counts(tally.outcomes);
+        pw.print("' passed='");
+        pw.print(counts[PASSED]);
+        pw.print("' failed='");
+        pw.print(counts[FAILED]);
+        pw.print("' error='");
+        pw.print(counts[ERROR]);
+    }
+
+    private static int outcome(boolean erroneous, Boolean happy) {
+        return erroneous || happy == null ? ERROR : happy ? PASSED : FAILED;
+    }
+
+    private static long[] counts(AtomicLongArray outcomes) {
+        return new long[]{outcomes.get(PASSED), outcomes.get(FAILED), outcomes.get(ERROR)};
+    }
+
+    /**
+     * Passed, failed and erroneous counts of a check
+     */
+    private static class Tally {
+        final AtomicLongArray outcomes = new AtomicLongArray(3);
+    }
+
+    /**
+     * Passed, failed and erroneous counts of a category, and of each of its checks
+     */
+    private static class CategoryTally extends Tally {
+        final ConcurrentMap<String, Tally> checks = new ConcurrentHashMap<String, Tally>();
+    }
+
+    private static class FormatSummary {
+        final AtomicLongArray outcomes = new AtomicLongArray(3);
+        final LatencyHistogram time = new LatencyHistogram();
+        final ConcurrentMap<String, CategoryTally> categories = new ConcurrentHashMap<String, CategoryTally>();
+    }
+}
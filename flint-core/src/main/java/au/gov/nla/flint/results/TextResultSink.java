@@ -0,0 +1,230 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint.results;
+
+import au.gov.nla.flint.batch.Shard;
+import au.gov.nla.flint.checks.CheckResult;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Base of the sinks that write results as text (XML, JSON Lines, CSV), one document at
+ * a time. Results are written as soon as they arrive and then forgotten.
+ *
+ * Written to a file, the output can be {@link Compression compressed}, and it can be rolled
+ * over into numbered parts of a given number of files each (e.g. results-00000.jsonl.gz,
+ * results-00001.jsonl.gz, ...), each part a complete document of its own, so that huge
+ * runs produce files that can be read (or shipped) one at a time.
+ */
+public abstract class TextResultSink implements ResultSink {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File output;
+    private final Compression compression;
+    private final long filesPerPart;
+
+    private Writer writer;
+    private PrintWriter out = null;
+    private long filesInPart = 0;
+    private final List<File> parts = new ArrayList<File>();
+    private boolean closed = false;
+
+    private boolean writePaths = false;
+    private File pathRoot = null;
+
+    /**
+     * Create a sink writing a single document to a Writer
+     * @param output the writer to write to, will be closed with this sink
+     */
+    protected TextResultSink(Writer output) {
+        this.output = null;
+        this.compression = Compression.NONE;
+        this.filesPerPart = 0;
+        this.writer = output;
+    }
+
+    /**
+     * Create a sink writing utf-8 to a file, replacing any existing content
+     * @param output the file to write to; with rolling, the part number is added to its name
+     * @param compression how to compress the output
+     * @param filesPerPart how many checked files go into each part, 0 to write a single file
+     */
+    protected TextResultSink(File output, Compression compression, long filesPerPart) {
+        this.output = output;
+        this.compression = compression;
+        this.filesPerPart = Math.max(0, filesPerPart);
+        this.writer = null;
+    }
+
+    /**
+     * Open the output and start the first document, so that a sink that can't write fails
+     * right away; to be called at the end of the constructors of subclasses
+     * @throws IOException if the output can't be opened
+     */
+    protected final void begin() throws IOException {
+        if (out == null) {
+            open();
+        }
+    }
+
+    /**
+     * Start a document
+     * @param out where to write to
+     */
+    protected abstract void startDocument(PrintWriter out);
+
+    /**
+     * Write the check-results of a single file
+     * @param out where to write to
+     * @param file the file that has been checked
+     * @param results its check-results (can be empty)
+     */
+    protected abstract void writeResults(PrintWriter out, File file, List<CheckResult> results);
+
+    /**
+     * Finish a document
+     * @param out where to write to
+     */
+    protected abstract void endDocument(PrintWriter out);
+
+    /**
+     * Include the path of each checked file in its results (formats that always include
+     * it write it relative to the root from now on).
+     * @param root the directory the paths are relative to, or null to write them as given
+     */
+    public void writePaths(File root) {
+        this.writePaths = true;
+        this.pathRoot = root;
+    }
+
+    /**
+     * @return true if {@link #writePaths(File)} was called
+     */
+    protected boolean isWritingPaths() {
+        return writePaths;
+    }
+
+    /**
+     * @param file a checked file
+     * @return the '/'-separated path of the file, relative to the root given to
+     * {@link #writePaths(File)} if there is one
+     */
+    protected String getPath(File file) {
+        String path = (pathRoot != null) ? Shard.relativePath(pathRoot, file) : file.getPath();
+        return (File.separatorChar == '/') ? path : path.replace(File.separatorChar, '/');
+    }
+
+    @Override
+    public void write(File file, List<CheckResult> results) throws IOException {
+        if (closed) {
+            throw new IOException("sink is closed");
+        }
+        if (out == null) {
+            open();
+        } else if (filesPerPart > 0 && filesInPart >= filesPerPart) {
+            finishPart();
+            open();
+        }
+        writeResults(out, file, results);
+        filesInPart++;
+        checkError();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        if (out == null) {
+            // an empty document
+            open();
+        }
+        closed = true;
+        finishPart();
+    }
+
+    /**
+     * @return the files written so far (only the output file unless rolling), empty when
+     * writing to a stream
+     */
+    public List<File> getFiles() {
+        return Collections.unmodifiableList(parts);
+    }
+
+    /**
+     * Get the name of a part of the output: the part number goes before the first dot of the name
+     * @param part the number of the part
+     * @return the file of the part
+     */
+    File partFile(int part) {
+        if (filesPerPart == 0) {
+            return output;
+        }
+        String name = output.getName();
+        int dot = name.indexOf('.', 1);
+        String numbered = (dot < 0) ? String.format("%s-%05d", name, part)
+                : String.format("%s-%05d%s", name.substring(0, dot), part, name.substring(dot));
+        return new File(output.getParentFile(), numbered);
+    }
+
+    private void open() throws IOException {
+        Writer w = writer;
+        if (output != null) {
+            File file = partFile(parts.size());
+            FileOutputStream stream = new FileOutputStream(file);
+            try {
+                w = new OutputStreamWriter(compression.compress(new BufferedOutputStream(stream, BUFFER_SIZE)),
+                        StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                stream.close();
+                throw e;
+            }
+            parts.add(file);
+        }
+        out = new PrintWriter(new BufferedWriter(w, BUFFER_SIZE));
+        filesInPart = 0;
+        startDocument(out);
+        checkError();
+    }
+
+    private void finishPart() throws IOException {
+        endDocument(out);
+        out.close();
+        checkError();
+    }
+
+    /**
+     * PrintWriter swallows IOExceptions, make them visible again
+     * @throws IOException if writing has failed at some point
+     */
+    private void checkError() throws IOException {
+        if (out.checkError()) {
+            throw new IOException("failed to write results");
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint.results;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An on-disk store of the raw output of third-party validators (e.g. the preflight or
+ * EpubCheck xml report), so that a changed policy can be evaluated again without running
+ * the validators, see {@link au.gov.nla.flint.Flint#setRepolicy(boolean)}.
+ *
+ * Outputs are addressed by the SHA-256 digest of the file content together with the name
+ * and version of the tool, so a new tool version never sees an old output. Unlike the
+ * {@link ResultStore}, the policy is not part of the key. Every output is kept gzipped
+ * in its own file below the store directory, written atomically, so one store can be
+ * shared by concurrent workers.
+ */
+public class ToolOutputStore {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(ToolOutputStore.class);
+
+    private static final String SUFFIX = ".out.gz";
+
+    private final Path directory;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+
+    /**
+     * Open a tool output store, creating the directory if needed
+     * @param directory where the outputs are kept
+     * @throws IOException if the directory can't be created
+     */
+    public ToolOutputStore(File directory) throws IOException {
+        this.directory = directory.toPath();
+        Files.createDirectories(this.directory);
+    }
+
+    /**
+     * Look up a stored output
+     * @param contentDigest the digest of the file content, see {@link ResultStore#digest(java.io.File)}
+     * @param tool name and version of the tool, e.g. "preflight 3.0.2"
+     * @return the stored output, or null if there is none
+     */
+    public byte[] get(String contentDigest, String tool) {
+        Path entry = entry(contentDigest, tool);
+        try (InputStream in = Compression.GZIP.decompress(Files.newInputStream(entry))) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+            hits.incrementAndGet();
+            return output.toByteArray();
+        } catch (NoSuchFileException e) {
+            misses.incrementAndGet();
+            return null;
+        } catch (IOException e) {
+            // e.g. truncated; it will be overwritten when the tool runs again
+            LOGGER.warn("ignoring unreadable tool output {}: {}", entry, e.getMessage());
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Store an output
+     * @param contentDigest the digest of the file content, see {@link ResultStore#digest(java.io.File)}
+     * @param tool name and version of the tool, e.g. "preflight 3.0.2"
+     * @param output what the tool produced
+     * @throws IOException if the output can't be written
+     */
+    public void put(String contentDigest, String tool, byte[] output) throws IOException {
+        Path entry = entry(contentDigest, tool);
+        Files.createDirectories(entry.getParent());
+        Path tmp = Files.createTempFile(entry.getParent(), entry.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream out = Compression.GZIP.compress(Files.newOutputStream(tmp))) {
+                out.write(output);
+            }
+            try {
+                Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING);
+            }
+            writes.incrementAndGet();
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Store an output of a file, see {@link #put(String, String, byte[])}
+     * @param file the file the tool checked
+     * @param tool name and version of the tool
+     * @param output what the tool produced
+     * @throws IOException if the file can't be digested or the output can't be written
+     */
+    public void put(File file, String tool, byte[] output) throws IOException {
+        put(ResultStore.digest(file), tool, output);
+    }
+
+    /**
+     * @return the number of lookups that found a stored output
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups that found nothing usable
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of outputs written
+     */
+    public long getWrites() {
+        return writes.get();
+    }
+
+    private Path entry(String contentDigest, String tool) {
+        MessageDigest md = ResultStore.sha256();
+        md.update(contentDigest.getBytes(StandardCharsets.UTF_8));
+        md.update((byte) 0);
+        md.update(tool.getBytes(StandardCharsets.UTF_8));
+        String key = ResultStore.hex(md.digest());
+        // spread the entries over subdirectories to keep directories small
+        return directory.resolve(key.substring(0, 2)).resolve(key + SUFFIX);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint.results;
+
+import au.gov.nla.flint.checks.CheckResult;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Writes all check-results of a run into a single well-formed XML document:
+ * <pre>
+ * &lt;?xml version='1.0' encoding='utf-8'?&gt;
+ * &lt;flint&gt;
+ *     &lt;checkedFile ...&gt;...&lt;/checkedFile&gt;
+ *     ...
+ * &lt;/flint&gt;
+ * </pre>
+ * Each result is written (and then forgotten) as soon as it arrives. The path of the
+ * checked files is only written (as the 'path' attribute) after {@link #writePaths(File)},
+ * as needed to {@link ReportMerger merge} the reports of several shards.
+ */
+public class XmlResultSink extends TextResultSink {
+
+    private static final String INDENT = "    ";
+
+    /**
+     * Create a XmlResultSink writing to a file, replacing any existing content; the output
+     * is compressed if the name of the file ends in .gz or .xz
+     * @param output the file to write to
+     * @throws IOException if the file can't be opened
+     */
+    public XmlResultSink(File output) throws IOException {
+        this(output, Compression.forFile(output), 0);
+    }
+
+    /**
+     * Create a XmlResultSink writing to a file, replacing any existing content
+     * @param output the file to write to; with rolling, the part number is added to its name
+     * @param compression how to compress the output
+     * @param filesPerPart how many checked files go into each document, 0 for a single document
+     * @throws IOException if the file can't be opened
+     */
+    public XmlResultSink(File output, Compression compression, long filesPerPart) throws IOException {
+        super(output, compression, filesPerPart);
+        begin();
+    }
+
+    /**
+     * Create a XmlResultSink writing utf-8 to a stream
+     * @param output the stream to write to, will be closed with this sink
+     * @throws IOException if the document header can't be written
+     */
+    public XmlResultSink(OutputStream output) throws IOException {
+        this(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Create a XmlResultSink writing to a Writer
+     * @param output the writer to write to, will be closed with this sink
+     * @throws IOException if the document header can't be written
+     */
+    public XmlResultSink(Writer output) throws IOException {
+        super(output);
+        begin();
+    }
+
+    @Override
+    protected void startDocument(PrintWriter out) {
+        out.println("<?xml version='1.0' encoding='utf-8'?>");
+        out.println("<flint>");
+    }
+
+    @Override
+    protected void writeResults(PrintWriter out, File file, List<CheckResult> results) {
+        String path = isWritingPaths() ? getPath(file) : null;
+        for (CheckResult result : results) {
+            result.toXML(out, INDENT, INDENT, path);
+        }
+    }
+
+    @Override
+    protected void endDocument(PrintWriter out) {
+        out.println("</flint>");
+    }
+}
@@ -25,6 +25,7 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 import au.gov.nla.flint.formats.Format;
+import au.gov.nla.flint.formats.FormatRegistry;
 import au.gov.nla.flint.formats.PolicyAware;
 
 import javax.xml.parsers.DocumentBuilder;
@@ -39,8 +40,6 @@ import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
-import static au.gov.nla.flint.Flint.getAvailableFormats;
-
 /**
  * This class can be used to create a properties file from a schematron policy schema-file.
  * It scans for all asserts and writes them to a {@link java.util.Properties} readable file.
@@ -78,7 +77,7 @@ public class PolicyPropertiesCreator {
      * @throws IllegalAccessException 
      */
     public static Map<String, Map<String, Set<String>>> getPolicyMap(final String formatName) throws IOException, InstantiationException, IllegalAccessException {
-        final Format format = getAvailableFormats().get(formatName);
+        final Format format = FormatRegistry.getInstance().newInstance(formatName);
         Map<String, Map<String, Set<String>>> policyMap = format.getFixedCategories();
          // where to get the policy hierarchy from
         InputStream policy = ((PolicyAware) format).getPolicy();
@@ -167,8 +166,9 @@ public class PolicyPropertiesCreator {
         writer.println("");
         logger.info("still alive :-)");
 
-        logger.info("writing policy map with {} patterns", getPolicyMap(formatName).size());
-        for (Map.Entry<String, Map<String, Set<String>>> pattern : getPolicyMap(formatName).entrySet()) {
+        Map<String, Map<String, Set<String>>> policyMap = getPolicyMap(formatName);
+        logger.info("writing policy map with {} patterns", policyMap.size());
+        for (Map.Entry<String, Map<String, Set<String>>> pattern : policyMap.entrySet()) {
             // write the pattern as comment
             writer.println("# Pattern: " + pattern.getKey());
 
@@ -0,0 +1,97 @@
+package au.gov.nla.flint.formats;
+
+import au.gov.nla.flint.checks.CheckCategory;
+import au.gov.nla.flint.checks.CheckCheck;
+import au.gov.nla.flint.checks.CheckResult;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A policy aware format for *.report files, whose "validator" just reads the file as its
+ * xml-report and counts how often it runs.
+ */
+public class ReportFormat extends PolicyAware implements Format {
+
+    public static final AtomicInteger toolRuns = new AtomicInteger();
+
+    public static final String TOOL = "reader 1.0";
+
+    @Override
+    public boolean canCheck(File pFile, String pMimetype) {
+        return pFile.getName().endsWith(".report");
+    }
+
+    @Override
+    public boolean canCheck(String pMimetype) {
+        return false;
+    }
+
+    @Override
+    public Collection<String> acceptedMimeTypes() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public CheckResult validationResult(File contentFile) {
+        toolRuns.incrementAndGet();
+        CheckResult result;
+        try {
+            result = new CheckResult(contentFile.getName(), getFormatName(), getVersion(), getAllCategoryNames());
+            byte[] report = Files.readAllBytes(contentFile.toPath());
+            if (toolOutputs != null) {
+                toolOutputs.put(contentFile, TOOL, report);
+            }
+            result.addAll(policyValidationResult(report));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        CheckCategory cc = new CheckCategory("read");
+        cc.add(new CheckCheck("readable", true, null));
+        result.add(cc);
+        result.setTime(0L);
+        return result;
+    }
+
+    @Override
+    public String getPolicyTool() {
+        return TOOL;
+    }
+
+    @Override
+    public InputStream getPolicy() {
+        return ReportFormat.class.getResourceAsStream("/policies/simple.sch");
+    }
+
+    @Override
+    public Map<String, Map<String, Set<String>>> getFixedCategories() {
+        Map<String, Map<String, Set<String>>> fixed = new HashMap<String, Map<String, Set<String>>>();
+        fixed.put("read", Collections.<String, Set<String>>singletonMap("read", Collections.singleton("readable")));
+        return fixed;
+    }
+
+    @Override
+    public Collection<String> getAllCategoryNames() throws Exception {
+        Collection<String> cats = new ArrayList<String>(getFixedCategories().keySet());
+        cats.addAll(getCompiledPolicy().getPatternNames());
+        return cats;
+    }
+
+    @Override
+    public String getFormatName() {
+        return "REPORT";
+    }
+
+    @Override
+    public String getVersion() {
+        return "0.1";
+    }
+}
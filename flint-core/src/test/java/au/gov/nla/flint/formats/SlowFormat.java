@@ -0,0 +1,90 @@
+package au.gov.nla.flint.formats;
+
+import au.gov.nla.flint.checks.CheckCategory;
+import au.gov.nla.flint.checks.CheckCheck;
+import au.gov.nla.flint.checks.CheckResult;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A format for *.slow files that sleeps for the number of milliseconds written in the file,
+ * keeping track of its instances and of how many files it checks at the same time. With the
+ * system property 'flint.test.slow-fails' set to true, its check fails.
+ */
+public class SlowFormat implements Format {
+
+    public static final Set<SlowFormat> instancesUsed = ConcurrentHashMap.newKeySet();
+    public static final AtomicInteger running = new AtomicInteger();
+    public static final AtomicInteger maxRunning = new AtomicInteger();
+    public static final AtomicInteger validations = new AtomicInteger();
+    public static final Queue<String> started = new ConcurrentLinkedQueue<String>();
+
+    public static final String MIME_TYPE = "application/x-flint-slow";
+
+    @Override
+    public boolean canCheck(File pFile, String pMimetype) {
+        return pFile.getName().endsWith(".slow") || canCheck(pMimetype);
+    }
+
+    @Override
+    public boolean canCheck(String pMimetype) {
+        return MIME_TYPE.equals(pMimetype);
+    }
+
+    @Override
+    public Collection<String> acceptedMimeTypes() {
+        return Collections.singleton(MIME_TYPE);
+    }
+
+    @Override
+    public CheckResult validationResult(File contentFile) {
+        instancesUsed.add(this);
+        validations.incrementAndGet();
+        started.add(contentFile.getName());
+        int now = running.incrementAndGet();
+        maxRunning.accumulateAndGet(now, Math::max);
+        try {
+            Thread.sleep(Long.parseLong(new String(Files.readAllBytes(contentFile.toPath())).trim()));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            running.decrementAndGet();
+        }
+        CheckCategory cc = new CheckCategory("slow");
+        cc.add(new CheckCheck("slept", !Boolean.getBoolean("flint.test.slow-fails"), null));
+        CheckResult result = new CheckResult(contentFile.getName(), getFormatName(), getVersion());
+        result.add(cc);
+        result.setTime(0L);
+        return result;
+    }
+
+    @Override
+    public Map<String, Map<String, Set<String>>> getFixedCategories() {
+        return new HashMap<String, Map<String, Set<String>>>();
+    }
+
+    @Override
+    public Collection<String> getAllCategoryNames() throws Exception {
+        return Collections.singleton("slow");
+    }
+
+    @Override
+    public String getFormatName() {
+        return "SLOW";
+    }
+
+    @Override
+    public String getVersion() {
+        return "0.1";
+    }
+}
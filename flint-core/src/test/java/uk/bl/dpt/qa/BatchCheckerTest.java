@@ -0,0 +1,149 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla;
+
+import au.gov.nla.flint.Flint;
+import au.gov.nla.flint.batch.BatchChecker;
+import au.gov.nla.flint.batch.CostEstimator;
+import au.gov.nla.flint.checks.CheckResult;
+import au.gov.nla.flint.formats.SlowFormat;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class BatchCheckerTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private List<File> files;
+
+    @Before
+    public void setUp() throws Exception {
+        SlowFormat.instancesUsed.clear();
+        SlowFormat.maxRunning.set(0);
+        SlowFormat.started.clear();
+        files = new ArrayList<File>();
+        // earlier files take longer, so they finish last when run in parallel
+        for (int i = 0; i < 12; i++) {
+            File f = tmp.newFile(String.format("file%02d.slow", i));
+            Files.write(f.toPath(), Integer.toString((12 - i) * 10).getBytes());
+            files.add(f);
+        }
+    }
+
+    @Test
+    public void testResultsKeepInputOrder() throws Exception {
+        BatchChecker batch = new BatchChecker(new Flint());
+        batch.setThreads(4);
+        List<List<CheckResult>> results = batch.check(files);
+
+        assertThat(results).hasSize(files.size());
+        for (int i = 0; i < files.size(); i++) {
+            assertThat(results.get(i)).hasSize(1);
+            assertThat(results.get(i).get(0).getFilename()).isEqualTo(files.get(i).getName());
+        }
+        // SlowFormat isn't thread-safe, so every worker needs its own instance
+        assertThat(SlowFormat.instancesUsed.size()).isGreaterThan(1);
+        assertThat(SlowFormat.maxRunning.get()).isGreaterThan(1);
+    }
+
+    @Test
+    public void testFormatConcurrencyCap() throws Exception {
+        Flint flint = new Flint();
+        flint.setFormatConcurrency("SLOW", 1);
+        BatchChecker batch = new BatchChecker(flint);
+        batch.setThreads(4);
+        List<List<CheckResult>> results = batch.check(files);
+
+        assertThat(results).hasSize(files.size());
+        assertThat(SlowFormat.maxRunning.get()).isEqualTo(1);
+    }
+
+    /**
+     * Create files that take the same time to check but grow in size; checking one takes long
+     * enough for all of them to be submitted before the first threads are free again
+     * @return the files, smallest first
+     */
+    private List<File> growingFiles() throws Exception {
+        List<File> growing = new ArrayList<File>();
+        for (int i = 0; i < 10; i++) {
+            File f = tmp.newFile(String.format("grow%02d.slow", i));
+            StringBuilder content = new StringBuilder("200");
+            for (int j = 0; j < i * 100; j++) {
+                content.append(' ');
+            }
+            Files.write(f.toPath(), content.toString().getBytes());
+            growing.add(f);
+        }
+        return growing;
+    }
+
+    @Test
+    public void testLargestFilesFirst() throws Exception {
+        List<File> growing = growingFiles();
+        Flint flint = new Flint();
+        BatchChecker batch = new BatchChecker(flint);
+        batch.setThreads(2);
+        batch.setMaxInFlight(growing.size());
+        batch.setCostEstimator(new CostEstimator(flint));
+        List<List<CheckResult>> results = batch.check(growing);
+
+        // results stay in input order
+        for (int i = 0; i < growing.size(); i++) {
+            assertThat(results.get(i).get(0).getFilename()).isEqualTo(growing.get(i).getName());
+        }
+        // at most the first two files start before the queue is ordered, then the largest go first
+        List<String> started = new ArrayList<String>(SlowFormat.started);
+        assertThat(started.indexOf("grow09.slow")).isLessThan(3);
+        assertThat(started.indexOf("grow08.slow")).isLessThan(4);
+        assertThat(started.indexOf("grow09.slow")).isLessThan(started.indexOf("grow02.slow"));
+    }
+
+    @Test
+    public void testLargeFileLane() throws Exception {
+        List<File> growing = growingFiles();
+        Flint flint = new Flint();
+        BatchChecker batch = new BatchChecker(flint);
+        batch.setThreads(3);
+        batch.setMaxInFlight(growing.size());
+        batch.setCostEstimator(new CostEstimator(flint));
+        batch.setLargeFileLane(growing.get(8).length(), 1);
+        List<List<CheckResult>> results = batch.check(growing);
+
+        assertThat(results).hasSize(growing.size());
+        List<String> started = new ArrayList<String>(SlowFormat.started);
+        // the large lane is idle until the first large file arrives
+        assertThat(Math.min(started.indexOf("grow08.slow"), started.indexOf("grow09.slow"))).isLessThan(3);
+        // while the small files are checked smallest first
+        assertThat(started.indexOf("grow02.slow")).isLessThan(started.indexOf("grow07.slow"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMaxInFlight() throws Exception {
+        new BatchChecker(new Flint()).setMaxInFlight(0);
+    }
+}
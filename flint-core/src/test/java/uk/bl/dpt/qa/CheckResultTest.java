@@ -18,14 +18,18 @@
 package au.gov.nla;
 
 import org.junit.Test;
+import au.gov.nla.flint.checks.CategorySchema;
 import au.gov.nla.flint.checks.CheckCategory;
 import au.gov.nla.flint.checks.CheckCheck;
 import au.gov.nla.flint.checks.CheckResult;
 
 import java.io.ByteArrayOutputStream;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
 
 import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
 
 
 public class CheckResultTest {
@@ -108,4 +112,70 @@ public class CheckResultTest {
                 .contains("<checkCategory name='Other funny characters: $%&amp;' result='failed'")
                 .endsWith(String.format("</checkedFile>%n"));
     }
+
+    @Test
+    public void testResultsOfAFormatShareTheirSchema() {
+        CheckResult a = new CheckResult("a", "aFormat", "aVersion", Arrays.asList("cat1", "cat2"));
+        CheckResult b = new CheckResult("b", "aFormat", "aVersion", Arrays.asList(new String("cat1"), "cat2"));
+        assertThat(a.getSchema()).isSameAs(b.getSchema());
+
+        CheckCategory extra = new CheckCategory("extra");
+        extra.add(new CheckCheck("check", true, null));
+        CheckCategory cat2 = new CheckCategory("cat2");
+        cat2.add(new CheckCheck("check", false, 3));
+        a.add(extra);
+        a.add(cat2);
+        a.setTime(1L);
+        // expected categories first, filled in or not, then the others as added
+        assertThat(new ArrayList<String>(a.getCategories().keySet())).isEqualTo(Arrays.asList("cat1", "cat2", "extra"));
+        assertThat(a.get("cat1")).isNull();
+        assertThat(a.get("cat2")).isSameAs(cat2);
+        assertThat(a.toMap().get("cat1")).isEqualTo("");
+        assertThat(a.toMap().get("cat2")).isEqualTo("failed");
+        assertThat(a.getResult()).isEqualTo("failed");
+    }
+
+    @Test
+    public void testOutcomeFollowsChangesUntilFrozen() {
+        CheckCategory cc = new CheckCategory("testCc");
+        cc.add(new CheckCheck("testCheck1", true, null));
+        CheckResult result = new CheckResult("someFilename", "aFormat", "aVersion");
+        result.add(cc);
+        assertThat(result.getResult()).isEqualTo("passed");
+
+        // a check of the same name is replaced
+        cc.add(new CheckCheck("testCheck1", false, 2));
+        assertThat(cc.getChecks()).isEqualTo(Arrays.asList(new CheckCheck("testCheck1", false, 2)));
+        assertThat(result.getResult()).isEqualTo("failed");
+        cc.add(new CheckCheck("testCheck2", null, null));
+        assertThat(result.getResult()).isEqualTo("erroneous");
+
+        result.setTime(1L);
+        result.freeze();
+        assertThat(result.isFrozen()).isTrue();
+        assertThat(result.getResult()).isEqualTo("erroneous");
+        try {
+            cc.add(new CheckCheck("testCheck3", true, null));
+            fail("a frozen category can't be changed");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            result.add(new CheckCategory("other"));
+            fail("a frozen result can't be changed");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertThat(cc.get("testCheck1").getErrorCount()).isEqualTo(2);
+        assertThat(cc.get("testCheck2").isHappy()).isNull();
+        assertThat(cc.get("testCheck3")).isNull();
+    }
+
+    @Test
+    public void testNamesAreInterned() {
+        CheckCategory cc = new CheckCategory(new String("testCc"));
+        cc.add(new CheckCheck(new String("testCheck"), true, null));
+        assertThat(cc.getName()).isSameAs(CategorySchema.intern("testCc"));
+        assertThat(cc.getChecks().get(0).getName()).isSameAs(CategorySchema.intern("testCheck"));
+    }
 }
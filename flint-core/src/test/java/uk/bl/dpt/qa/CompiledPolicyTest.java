@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla;
+
+import au.gov.nla.flint.checks.CheckCategory;
+import au.gov.nla.flint.checks.CheckCheck;
+import au.gov.nla.flint.formats.CompiledPolicy;
+import au.gov.nla.flint.formats.ReportFormat;
+import org.junit.Test;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class CompiledPolicyTest {
+
+    private static InputStream policy() {
+        return CompiledPolicyTest.class.getResourceAsStream("/policies/simple.sch");
+    }
+
+    private static StreamSource doc(String xml) {
+        return new StreamSource(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testSamePolicyIsCompiledOnce() throws Exception {
+        CompiledPolicy first = CompiledPolicy.get(policy(), null);
+        assertThat(CompiledPolicy.get(policy(), null)).isSameAs(first);
+        assertThat(CompiledPolicy.get(policy(), Collections.singleton("HasTitle"))).isNotSameAs(first);
+    }
+
+    @Test
+    public void testValidationsDontLeakIntoEachOther() throws Exception {
+        CompiledPolicy compiled = CompiledPolicy.get(policy(), null);
+        CheckCheck check = compiled.validate(doc("<doc/>")).get("HasTitle").get("no title");
+        assertThat(check.isHappy()).isFalse();
+        assertThat(check.getErrorCount()).isEqualTo(1);
+
+        check = compiled.validate(doc("<doc><title>x</title></doc>")).get("HasTitle").get("no title");
+        assertThat(check.isHappy()).isTrue();
+        assertThat(check.getErrorCount()).isEqualTo(0);
+
+        check = compiled.validate(doc("<doc/>")).get("HasTitle").get("no title");
+        assertThat(check.getErrorCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testFirstMatchingRuleFiresForEachNode() throws Exception {
+        String policy = "<s:schema xmlns:s='http://purl.oclc.org/dsdl/schematron'>" +
+                "<s:ns prefix='x' uri='urn:x'/>" +
+                "<s:pattern name='Items'>" +
+                "<s:rule context=\"x:item[@kind = 'special']\"><s:assert test='@ok'>special not ok</s:assert></s:rule>" +
+                "<s:rule context='x:item'>" +
+                "<s:let name='ok' value=\"@ok = 'yes'\"/>" +
+                "<s:assert test='$ok'>item not ok</s:assert>" +
+                "<s:report test='@kind'>item with kind</s:report>" +
+                "</s:rule>" +
+                "</s:pattern>" +
+                "</s:schema>";
+        CompiledPolicy compiled = CompiledPolicy.get(new ByteArrayInputStream(policy.getBytes(StandardCharsets.UTF_8)), null);
+        assertThat(new ArrayList<String>(compiled.getPatternNames())).containsExactly("Items");
+
+        LinkedHashMap<String, CheckCategory> result = compiled.validate(doc("<list xmlns='urn:x'>" +
+                "<item/><item ok='no'/><item ok='yes'/><item kind='special'/><item kind='other' ok='yes'/></list>"));
+        CheckCategory items = result.get("Items");
+        assertThat(items.get("special not ok").getErrorCount()).isEqualTo(1);
+        // the special item is only checked by the first rule
+        assertThat(items.get("item not ok").getErrorCount()).isEqualTo(2);
+        assertThat(items.get("item with kind").getErrorCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testFilteredPatternsAreLeftOut() throws Exception {
+        CompiledPolicy compiled = CompiledPolicy.get(policy(), Collections.singleton("NoSuchPattern"));
+        assertThat(compiled.getPatternNames()).isEmpty();
+        assertThat(compiled.validate(doc("<doc/>"))).isEmpty();
+    }
+
+    @Test
+    public void testFormatKeepsItsCompiledPolicy() throws Exception {
+        ReportFormat format = new ReportFormat();
+        CompiledPolicy compiled = format.getCompiledPolicy();
+        assertThat(format.getCompiledPolicy()).isSameAs(compiled);
+        format.setPatternFilter(Collections.singleton("HasTitle"));
+        assertThat(format.getCompiledPolicy()).isNotSameAs(compiled);
+        assertThat(format.getCompiledPolicy()).isSameAs(CompiledPolicy.get(policy(), Collections.singleton("HasTitle")));
+    }
+}
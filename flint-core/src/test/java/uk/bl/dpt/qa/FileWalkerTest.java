@@ -0,0 +1,115 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla;
+
+import au.gov.nla.flint.batch.FileWalker;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class FileWalkerTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testListsAllFilesRecursively() throws Exception {
+        List<File> expected = new ArrayList<File>();
+        for (int d = 0; d < 5; d++) {
+            File dir = tmp.newFolder("dir" + d, "sub");
+            for (int i = 0; i < 20; i++) {
+                File f = new File(dir, "file" + i);
+                f.createNewFile();
+                expected.add(f);
+            }
+        }
+        List<File> found = new ArrayList<File>();
+        // a queue much smaller than the tree, so the walker has to wait for us
+        FileWalker walker = new FileWalker(tmp.getRoot(), 3);
+        try {
+            for (File f : walker) {
+                found.add(f);
+            }
+        } finally {
+            walker.close();
+        }
+        assertThat(found).hasSize(expected.size());
+        assertThat(found).containsOnly(expected.toArray());
+    }
+
+    @Test
+    public void testSingleFile() throws Exception {
+        File f = tmp.newFile("single");
+        List<File> found = new ArrayList<File>();
+        for (File file : new FileWalker(f)) {
+            found.add(file);
+        }
+        assertThat(found).containsExactly(f);
+    }
+
+    @Test
+    public void testSkipsLinksToDirectories() throws Exception {
+        File dir = tmp.newFolder("dir");
+        File f = new File(dir, "file");
+        f.createNewFile();
+        File fileLink = new File(tmp.getRoot(), "fileLink");
+        try {
+            Files.createSymbolicLink(fileLink.toPath(), f.toPath());
+        } catch (UnsupportedOperationException | IOException e) {
+            Assume.assumeNoException(e);
+        }
+        // a link back up the tree would be a cycle if it were followed
+        Files.createSymbolicLink(new File(dir, "parentLink").toPath(), tmp.getRoot().toPath());
+        Files.createSymbolicLink(new File(dir, "dangling").toPath(), new File(dir, "missing").toPath());
+
+        List<File> found = new ArrayList<File>();
+        for (File file : new FileWalker(tmp.getRoot())) {
+            found.add(file);
+        }
+        assertThat(found).containsOnly(f, fileLink);
+    }
+
+    @Test
+    public void testCloseStopsTheWalk() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            tmp.newFile("file" + i);
+        }
+        FileWalker walker = new FileWalker(tmp.getRoot(), 2);
+        Iterator<File> it = walker.iterator();
+        assertThat(it.hasNext()).isTrue();
+        it.next();
+        walker.close();
+        int rest = 0;
+        while (it.hasNext()) {
+            it.next();
+            rest++;
+        }
+        // only what was already queued is handed out after closing
+        assertThat(rest).isLessThanOrEqualTo(2);
+    }
+}
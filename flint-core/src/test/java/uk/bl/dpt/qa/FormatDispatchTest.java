@@ -0,0 +1,86 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla;
+
+import au.gov.nla.flint.formats.Format;
+import au.gov.nla.flint.formats.FormatDispatch;
+import au.gov.nla.flint.formats.SlowFormat;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class FormatDispatchTest {
+
+    /**
+     * A format that declares its mime type and extension
+     */
+    private static class DeclaredFormat extends SlowFormat {
+        private final String mimeType;
+        private final String extension;
+
+        DeclaredFormat(String mimeType, String extension) {
+            this.mimeType = mimeType;
+            this.extension = extension;
+        }
+
+        @Override
+        public Collection<String> acceptedMimeTypes() {
+            return Collections.singleton(mimeType);
+        }
+
+        @Override
+        public Collection<String> acceptedExtensions() {
+            return Collections.singleton(extension);
+        }
+    }
+
+    private final Format text = new DeclaredFormat("text/plain", "txt");
+    private final Format slow = new SlowFormat();
+    private final Format alsoText = new DeclaredFormat("text/plain", "text");
+    private final FormatDispatch dispatch = new FormatDispatch(Arrays.asList(text, slow, alsoText));
+
+    @Test
+    public void testSelectByMimeTypeAndExtension() {
+        assertThat(dispatch.select(new File("a.bin"), "text/plain")).containsExactly(text, alsoText);
+        assertThat(dispatch.select(new File("README.TXT"), null)).containsExactly(text);
+        assertThat(dispatch.select(new File("nothing.bin"), "application/octet-stream")).isEmpty();
+    }
+
+    @Test
+    public void testUndeclaredFormatsAreAskedInOrder() {
+        // SlowFormat doesn't declare extensions, so its canCheck decides
+        List<Format> selected = dispatch.select(new File("a.slow"), "text/plain");
+        assertThat(selected).containsExactly(text, slow, alsoText);
+    }
+
+    @Test
+    public void testAgreeingMimeTypeAndExtensionNeedNoNewList() {
+        Format pdf = new DeclaredFormat("application/pdf", "pdf");
+        FormatDispatch declared = new FormatDispatch(Arrays.asList(text, pdf));
+        List<Format> selected = declared.select(new File("a.pdf"), "application/pdf");
+        assertThat(selected).containsExactly(pdf);
+        assertThat(declared.select(new File("b.pdf"), "application/pdf")).isSameAs(selected);
+        assertThat(declared.select(new File("c.pdf"), null)).containsExactly(pdf);
+    }
+}
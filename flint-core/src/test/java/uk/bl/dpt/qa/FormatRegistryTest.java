@@ -0,0 +1,46 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla;
+
+import au.gov.nla.flint.formats.Format;
+import au.gov.nla.flint.formats.FormatRegistry;
+import au.gov.nla.flint.formats.SlowFormat;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class FormatRegistryTest {
+
+    @Test
+    public void testRegisteredFormatsAreFound() throws Exception {
+        FormatRegistry registry = FormatRegistry.getInstance();
+        assertThat(registry.getFormatNames()).contains("SLOW");
+        assertThat(registry.newInstance("SLOW")).isInstanceOf(SlowFormat.class);
+        assertThat(registry.newInstance("NO_SUCH_FORMAT")).isNull();
+    }
+
+    @Test
+    public void testDiscoveryIsCachedButInstancesAreNew() throws Exception {
+        assertThat(FormatRegistry.getInstance()).isSameAs(FormatRegistry.getInstance());
+        Map<String, Format> first = FormatRegistry.getInstance().newInstances();
+        Map<String, Format> second = FormatRegistry.getInstance().newInstances();
+        assertThat(first.get("SLOW")).isNotSameAs(second.get("SLOW"));
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla;
+
+import au.gov.nla.flint.checks.CheckResult;
+import au.gov.nla.flint.results.JdbcResultSink;
+import au.gov.nla.flint.results.Journal;
+import au.gov.nla.flint.results.ResultSink;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class JdbcResultSinkTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private String url() {
+        return "jdbc:h2:file:" + new File(tmp.getRoot(), "results").getAbsolutePath();
+    }
+
+    private void write(ResultSink sink, File root, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            File file = new File(root, "dir" + (i % 10) + "/file" + i + ".pdf");
+            sink.write(file, (i % 100 == 99) ? Collections.<CheckResult>emptyList()
+                    : Arrays.asList(TestResults.result(file.getName(), (i % 3 == 0) ? null : i % 3 == 1)));
+        }
+    }
+
+    private static long count(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement(); ResultSet rs = statement.executeQuery(sql)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    @Test
+    public void testTables() throws Exception {
+        File root = tmp.newFolder("input");
+        JdbcResultSink sink = new JdbcResultSink(url(), root);
+        write(sink, root, 0, 3000);
+        sink.close();
+        assertThat(sink.getCommitted()).isEqualTo(3000);
+
+        try (Connection connection = DriverManager.getConnection(url())) {
+            assertThat(count(connection, "select count(*) from files")).isEqualTo(3000);
+            assertThat(count(connection, "select count(*) from files where format is null")).isEqualTo(30);
+            assertThat(count(connection, "select count(*) from categories")).isEqualTo(2 * 2970);
+            assertThat(count(connection, "select count(*) from checks")).isEqualTo(2 * 2970);
+            assertThat(count(connection, "select count(*) from files f join categories c on c.file_id = f.id " +
+                    "where c.name = 'NO_DRM' and c.result = 'failed'")).isEqualTo(990);
+            assertThat(count(connection, "select count(*) from checks where name = 'checkDRM' " +
+                    "and result = 'error'")).isEqualTo(990);
+            assertThat(count(connection, "select count(*) from files where result = 'erroneous'")).isEqualTo(990);
+            assertThat(count(connection, "select sum(error_count) from checks")).isEqualTo(2 * 990);
+            try (Statement statement = connection.createStatement();
+                 ResultSet rs = statement.executeQuery("select name, format, format_version, time_ms " +
+                         "from files where path = 'dir4/file4.pdf'")) {
+                assertThat(rs.next()).isTrue();
+                assertThat(rs.getString(1)).isEqualTo("file4.pdf");
+                assertThat(rs.getString(2)).isEqualTo("PDF");
+                assertThat(rs.getString(3)).isEqualTo("0.1.0");
+                assertThat(rs.getLong(4)).isEqualTo(5L);
+                assertThat(rs.next()).isFalse();
+            }
+        }
+
+        // a later run adds to the same tables
+        sink = new JdbcResultSink(url(), root);
+        write(sink, root, 3000, 3010);
+        sink.close();
+        try (Connection connection = DriverManager.getConnection(url())) {
+            assertThat(count(connection, "select count(*) from files")).isEqualTo(3010);
+            assertThat(count(connection, "select count(distinct id) from files")).isEqualTo(3010);
+        }
+    }
+
+    @Test
+    public void testRewrittenFilesReplaceTheirRows() throws Exception {
+        File root = tmp.newFolder("input");
+        JdbcResultSink sink = new JdbcResultSink(url(), root);
+        write(sink, root, 0, 100);
+        sink.close();
+
+        // a run that crashed after journaling (and storing) files 100-119
+        File journalFile = new File(tmp.getRoot(), "journal");
+        Journal journal = Journal.create(journalFile);
+        sink = new JdbcResultSink(url(), root);
+        write(journal, root, 100, 120);
+        write(sink, root, 100, 120);
+        journal.close();
+        sink.close();
+
+        // resuming it replays the journal, and checks some of the files once more
+        sink = new JdbcResultSink(url(), root);
+        Journal.resume(journalFile, sink).close();
+        write(sink, root, 50, 150);
+        File first = new File(root, "dir0/file0.pdf");
+        sink.write(first, Arrays.asList(TestResults.result(first.getName(), true)));
+        sink.write(first, Arrays.asList(TestResults.result(first.getName(), false)));
+        sink.close();
+
+        try (Connection connection = DriverManager.getConnection(url())) {
+            assertThat(count(connection, "select count(*) from files")).isEqualTo(150);
+            assertThat(count(connection, "select count(distinct path) from files")).isEqualTo(150);
+            assertThat(count(connection, "select count(*) from categories")).isEqualTo(2 * 149);
+            assertThat(count(connection, "select count(*) from checks")).isEqualTo(2 * 149);
+            assertThat(count(connection, "select count(*) from files f join categories c on c.file_id = f.id " +
+                    "where f.path = 'dir0/file0.pdf' and c.name = 'NO_DRM' and c.result = 'failed'")).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void testQueryWhileWriting() throws Exception {
+        File root = tmp.newFolder("input");
+        JdbcResultSink sink = new JdbcResultSink(url(), root);
+        try (Connection connection = DriverManager.getConnection(url())) {
+            write(sink, root, 0, 50);
+            long deadline = System.currentTimeMillis() + 10000;
+            while (sink.getCommitted() < 50 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertThat(sink.getCommitted()).isEqualTo(50);
+            assertThat(count(connection, "select count(*) from files")).isEqualTo(50);
+        } finally {
+            sink.close();
+        }
+        try {
+            sink.write(new File(root, "late.pdf"), Collections.<CheckResult>emptyList());
+            fail("writing to a closed sink should fail");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testBadUrl() throws Exception {
+        try {
+            new JdbcResultSink("jdbc:nosuchdriver:results", null);
+            fail("an unknown database should fail");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
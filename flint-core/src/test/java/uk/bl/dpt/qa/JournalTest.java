@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla;
+
+import au.gov.nla.flint.Flint;
+import au.gov.nla.flint.batch.BatchChecker;
+import au.gov.nla.flint.checks.CheckResult;
+import au.gov.nla.flint.formats.SlowFormat;
+import au.gov.nla.flint.results.Journal;
+import au.gov.nla.flint.results.ResultSink;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class JournalTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private List<File> files;
+
+    @Before
+    public void setUp() throws Exception {
+        SlowFormat.started.clear();
+        files = new ArrayList<File>();
+        for (int i = 0; i < 6; i++) {
+            File f = tmp.newFile(String.format("file%02d.slow", i));
+            Files.write(f.toPath(), "1".getBytes());
+            files.add(f);
+        }
+    }
+
+    /**
+     * A sink that remembers the names of the files written to it
+     */
+    private static class Collector implements ResultSink {
+        private final List<String> names = new ArrayList<String>();
+
+        @Override
+        public void write(File file, List<CheckResult> results) {
+            assertThat(results).hasSize(1);
+            assertThat(results.get(0).getFilename()).isEqualTo(file.getName());
+            names.add(file.getName());
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void testResumeSkipsJournaledFiles() throws Exception {
+        File journalFile = new File(tmp.getRoot(), "run.journal");
+
+        // a run that dies half way, in the middle of writing a record
+        try (Journal journal = Journal.create(journalFile)) {
+            BatchChecker batch = new BatchChecker(new Flint());
+            batch.setJournal(journal);
+            batch.check(files.subList(0, 3), new Collector());
+        }
+        try (FileOutputStream out = new FileOutputStream(journalFile, true)) {
+            out.write(new byte[] {0, 0, 1, 0, 1, 2, 3});
+        }
+
+        SlowFormat.started.clear();
+        Collector output = new Collector();
+        try (Journal journal = Journal.resume(journalFile, output)) {
+            assertThat(journal.getCompletedCount()).isEqualTo(3);
+            assertThat(journal.isCompleted(files.get(2))).isTrue();
+            assertThat(journal.isCompleted(files.get(3))).isFalse();
+            BatchChecker batch = new BatchChecker(new Flint());
+            batch.setThreads(2);
+            batch.setJournal(journal);
+            batch.check(files, output);
+        }
+        assertThat(new ArrayList<String>(SlowFormat.started)).containsOnly("file03.slow", "file04.slow", "file05.slow");
+        assertThat(output.names).containsExactly("file00.slow", "file01.slow", "file02.slow",
+                "file03.slow", "file04.slow", "file05.slow");
+
+        // the broken record was replaced by the new ones
+        Collector replayed = new Collector();
+        Journal.resume(journalFile, replayed).close();
+        assertThat(replayed.names).isEqualTo(output.names);
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsOtherFiles() throws Exception {
+        File notAJournal = tmp.newFile("results.xml");
+        Files.write(notAJournal.toPath(), "<?xml version='1.0'?><flint/>".getBytes());
+        Journal.resume(notAJournal, null);
+    }
+}
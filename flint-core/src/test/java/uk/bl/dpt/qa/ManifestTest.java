@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla;
+
+import au.gov.nla.flint.Flint;
+import au.gov.nla.flint.batch.BatchChecker;
+import au.gov.nla.flint.batch.Manifest;
+import au.gov.nla.flint.checks.CheckResult;
+import au.gov.nla.flint.formats.SlowFormat;
+import au.gov.nla.flint.results.ResultSink;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ManifestTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static List<Manifest.Entry> read(String text, boolean nul) {
+        List<Manifest.Entry> entries = new ArrayList<Manifest.Entry>();
+        for (Manifest.Entry entry : new Manifest(new StringReader(text), nul)) {
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    @Test
+    public void testNewlineDelimited() {
+        List<Manifest.Entry> entries = read("/a/one.pdf\n\n/a/two words.epub\t123\tapplication/epub+zip\r\n" +
+                "/a/three.mobi\t\tapplication/x-mobipocket-ebook\n/a/four\tnot-a-size", false);
+        assertThat(entries).hasSize(4);
+        assertThat(entries.get(0).getFile()).isEqualTo(new File("/a/one.pdf"));
+        assertThat(entries.get(0).getSize()).isEqualTo(-1);
+        assertThat(entries.get(0).getMimeType()).isNull();
+        assertThat(entries.get(1).getFile()).isEqualTo(new File("/a/two words.epub"));
+        assertThat(entries.get(1).getSize()).isEqualTo(123);
+        assertThat(entries.get(1).getMimeType()).isEqualTo("application/epub+zip");
+        assertThat(entries.get(2).getSize()).isEqualTo(-1);
+        assertThat(entries.get(2).getMimeType()).isEqualTo("application/x-mobipocket-ebook");
+        assertThat(entries.get(3).getFile()).isEqualTo(new File("/a/four"));
+        assertThat(entries.get(3).getSize()).isEqualTo(-1);
+    }
+
+    @Test
+    public void testNulDelimited() {
+        List<Manifest.Entry> entries = read("/a/new\nline.pdf\0/a/b.pdf\0", true);
+        assertThat(entries).hasSize(2);
+        assertThat(entries.get(0).getFile()).isEqualTo(new File("/a/new\nline.pdf"));
+        assertThat(entries.get(1).getFile()).isEqualTo(new File("/a/b.pdf"));
+    }
+
+    @Test
+    public void testKnownMimeTypeIsUsed() throws Exception {
+        // no .slow extension, so only the given mime type can select SlowFormat
+        File file = tmp.newFile("data.bin");
+        Files.write(file.toPath(), "1".getBytes());
+        Manifest manifest = new Manifest(new StringReader(file.getPath() + "\t1\t" + SlowFormat.MIME_TYPE + "\n"), false);
+        final List<List<CheckResult>> results = new ArrayList<List<CheckResult>>();
+        new BatchChecker(new Flint()).checkEntries(manifest, new ResultSink() {
+            @Override
+            public void write(File f, List<CheckResult> fileResults) {
+                results.add(fileResults);
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        assertThat(results).hasSize(1);
+        assertThat(results.get(0)).hasSize(1);
+        assertThat(results.get(0).get(0).getFormat()).isEqualTo("SLOW");
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla;
+
+import au.gov.nla.flint.metrics.LatencyHistogram;
+import au.gov.nla.flint.metrics.MetricsExporter;
+import au.gov.nla.flint.metrics.MetricsRegistry;
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class MetricsRegistryTest {
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 10000; i++) {
+            histogram.record(i);
+        }
+        assertThat(histogram.getCount()).isEqualTo(10000);
+        assertThat(histogram.getSum()).isEqualTo(10000L * 10001 / 2);
+        assertThat(histogram.getMax()).isEqualTo(10000);
+        // within the histogram's precision of 6.25%
+        assertThat(histogram.getValueAtPercentile(50)).isGreaterThanOrEqualTo(5000).isLessThanOrEqualTo(5313);
+        assertThat(histogram.getValueAtPercentile(99)).isGreaterThanOrEqualTo(9900).isLessThanOrEqualTo(10000);
+        assertThat(histogram.getValueAtPercentile(100)).isEqualTo(10000);
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(3);
+        histogram.record(7);
+        histogram.record(-1);
+        assertThat(histogram.getValueAtPercentile(0)).isEqualTo(0);
+        assertThat(histogram.getValueAtPercentile(50)).isEqualTo(3);
+        assertThat(histogram.getValueAtPercentile(100)).isEqualTo(7);
+        assertThat(new LatencyHistogram().getValueAtPercentile(99)).isEqualTo(0);
+    }
+
+    @Test
+    public void testPrometheusExport() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter(MetricsRegistry.FILES).addAndGet(3);
+        registry.counter(MetricsRegistry.ERRONEOUS, "format", "PDF").incrementAndGet();
+        registry.registerGauge("queue", () -> 42);
+        registry.histogram(MetricsRegistry.FORMAT_LATENCY, "format", "EPUB").record(10);
+
+        String text = MetricsExporter.toPrometheus(registry);
+        assertThat(text).contains("# TYPE flint_files_checked_total counter\nflint_files_checked_total 3\n");
+        assertThat(text).contains("flint_erroneous_results_total{format=\"PDF\"} 1\n");
+        assertThat(text).contains("# TYPE flint_queue gauge\nflint_queue 42\n");
+        assertThat(text).contains("# TYPE flint_format_latency_ms summary\n");
+        assertThat(text).contains("flint_format_latency_ms{format=\"EPUB\",quantile=\"0.99\"} 10\n");
+        assertThat(text).contains("flint_format_latency_ms_count{format=\"EPUB\"} 1\n");
+
+        String json = MetricsExporter.toJson(registry);
+        assertThat(json).contains("{\"name\": \"erroneous_results_total\", \"labels\": {\"format\": \"PDF\"}, \"value\": 1}");
+        assertThat(json).contains("\"p99\": 10");
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla;
+
+import au.gov.nla.flint.Flint;
+import au.gov.nla.flint.batch.BatchChecker;
+import au.gov.nla.flint.batch.ProcessWorkerPool;
+import au.gov.nla.flint.checks.CheckResult;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ProcessWorkerPoolTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File slowFile(String name, int millis) throws Exception {
+        File f = tmp.newFile(name);
+        Files.write(f.toPath(), Integer.toString(millis).getBytes());
+        return f;
+    }
+
+    @Test
+    public void testHungWorkerIsReplaced() throws Exception {
+        File quick = slowFile("quick.slow", 10);
+        File hanging = slowFile("hanging.slow", 60000);
+        try (ProcessWorkerPool pool = new ProcessWorkerPool(1, Collections.<String>emptyList())) {
+            pool.setMaxHeap("64m");
+            pool.setTimeout(3, TimeUnit.SECONDS);
+            BatchChecker batch = new BatchChecker(new Flint());
+            batch.setProcessPool(pool);
+            List<List<CheckResult>> results = batch.check(Arrays.asList(quick, hanging, quick));
+
+            assertThat(results).hasSize(3);
+            assertThat(results.get(0).get(0).getResult()).isEqualTo("passed");
+            // the hanging file is reported for the format that would have checked it
+            assertThat(results.get(1)).hasSize(1);
+            assertThat(results.get(1).get(0).getFormat()).isEqualTo("SLOW");
+            assertThat(results.get(1).get(0).getResult()).isEqualTo("erroneous");
+            assertThat(results.get(1).get(0).get(BatchChecker.WORKER_FAILED)).isNotNull();
+            // and the replacement worker carries on
+            assertThat(results.get(2).get(0).getResult()).isEqualTo("passed");
+            assertThat(pool.getReplaced()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void testSystemPropertiesReachWorkers() throws Exception {
+        File quick = slowFile("quick.slow", 10);
+        System.setProperty("flint.test.slow-fails", "true");
+        try (ProcessWorkerPool pool = new ProcessWorkerPool(1, Collections.<String>emptyList())) {
+            pool.setMaxHeap("64m");
+            pool.forwardSystemProperties();
+            BatchChecker batch = new BatchChecker(new Flint());
+            batch.setProcessPool(pool);
+            List<List<CheckResult>> results = batch.check(Collections.singletonList(quick));
+
+            assertThat(results.get(0).get(0).getFormat()).isEqualTo("SLOW");
+            assertThat(results.get(0).get(0).getResult()).isEqualTo("failed");
+        } finally {
+            System.clearProperty("flint.test.slow-fails");
+        }
+    }
+}
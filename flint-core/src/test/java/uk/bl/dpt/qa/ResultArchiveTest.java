@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla;
+
+import au.gov.nla.flint.checks.CheckResult;
+import au.gov.nla.flint.results.ResultArchive;
+import au.gov.nla.flint.results.ResultArchiveWriter;
+import au.gov.nla.flint.results.ResultSink;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class ResultArchiveTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File write(int files) throws IOException {
+        File root = tmp.newFolder("input");
+        File archive = new File(tmp.getRoot(), "results.flar");
+        ResultArchiveWriter writer = new ResultArchiveWriter(archive, root);
+        for (int i = 0; i < files; i++) {
+            File file = new File(root, "dir" + (i % 10) + "/file" + i + ".pdf");
+            writer.write(file, (i % 100 == 99) ? Collections.<CheckResult>emptyList()
+                    : Arrays.asList(TestResults.result(file.getName(), (i % 3 == 0) ? null : i % 3 == 1)));
+        }
+        writer.close();
+        return archive;
+    }
+
+    @Test
+    public void testLookup() throws Exception {
+        try (ResultArchive archive = ResultArchive.open(write(5000))) {
+            assertThat(archive.size()).isEqualTo(5000);
+            for (int i = 0; i < 5000; i += 7) {
+                List<CheckResult> results = archive.get("dir" + (i % 10) + "/file" + i + ".pdf");
+                assertThat(results).isNotNull();
+                if (i % 100 == 99) {
+                    assertThat(results).isEmpty();
+                    continue;
+                }
+                assertThat(results).hasSize(1);
+                assertThat(results.get(0).getFilename()).isEqualTo("file" + i + ".pdf");
+                assertThat(results.get(0).get("NO_DRM").getResult())
+                        .isEqualTo((i % 3 == 0) ? "error" : (i % 3 == 1) ? "passed" : "failed");
+            }
+            assertThat(archive.get("dir1/file2.pdf")).isNull();
+            assertThat(archive.get("nothing")).isNull();
+        }
+    }
+
+    @Test
+    public void testFindAndScan() throws Exception {
+        try (ResultArchive archive = ResultArchive.open(write(300))) {
+            List<String> failed = archive.find("PDF", "NO_DRM", "failed");
+            // file299 has no results
+            assertThat(failed).hasSize(99);
+            assertThat(failed.get(0)).isEqualTo("dir2/file2.pdf");
+            assertThat(archive.find(null, null, "erroneous")).hasSize(99);
+            assertThat(archive.find("EPUB", null, "passed")).isEmpty();
+
+            final List<String> scanned = new ArrayList<String>();
+            archive.scan(new ResultSink() {
+                @Override
+                public void write(File file, List<CheckResult> results) {
+                    scanned.add(file.getName());
+                }
+
+                @Override
+                public void close() {
+                }
+            });
+            assertThat(scanned).hasSize(300);
+            assertThat(scanned.get(299)).isEqualTo("file299.pdf");
+        }
+    }
+
+    @Test
+    public void testUnfinishedArchiveIsRejected() throws Exception {
+        File archive = write(10);
+        try (RandomAccessFile raf = new RandomAccessFile(archive, "rw")) {
+            raf.setLength(raf.length() - 1);
+        }
+        try {
+            ResultArchive.open(archive).close();
+            fail("an archive without its trailer can't be opened");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla;
+
+import au.gov.nla.flint.checks.CheckCheck;
+import au.gov.nla.flint.checks.CheckResult;
+import au.gov.nla.flint.results.Compression;
+import au.gov.nla.flint.results.CsvResultSink;
+import au.gov.nla.flint.results.JsonLinesResultSink;
+import au.gov.nla.flint.results.XmlResultSink;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ResultSinkTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private CheckResult result(String name) {
+        CheckResult result = TestResults.result(name, "PDF", false, null, 12L);
+        result.get("NO_DRM").add(new CheckCheck("checkDRM\"quoted\"", true, null));
+        return result;
+    }
+
+    private String read(File file) throws Exception {
+        try (InputStream in = Compression.forFile(file).decompress(new FileInputStream(file))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void testJsonLines() throws Exception {
+        StringWriter output = new StringWriter();
+        JsonLinesResultSink sink = new JsonLinesResultSink(output);
+        sink.write(new File("dir/a, b.pdf"), Arrays.asList(result("a, b.pdf")));
+        sink.write(new File("dir/empty.pdf"), Collections.<CheckResult>emptyList());
+        sink.write(new File("dir/c.pdf"), Arrays.asList(result("c.pdf")));
+        sink.close();
+
+        String[] lines = output.toString().split("\n");
+        assertThat(lines).hasSize(2);
+        assertThat(lines[0]).isEqualTo("{\"path\":\"dir/a, b.pdf\",\"name\":\"a, b.pdf\",\"format\":\"PDF\"," +
+                "\"version\":\"0.1.0\",\"result\":\"erroneous\",\"time\":12,\"categories\":[" +
+                "{\"name\":\"NO_DRM\",\"result\":\"failed\",\"checks\":[{\"name\":\"checkDRM\",\"result\":\"failed\"," +
+                "\"errorCount\":2},{\"name\":\"checkDRM\\\"quoted\\\"\",\"result\":\"passed\"}]}," +
+                "{\"name\":\"WELL_FORMED\",\"result\":\"error\",\"checks\":[{\"name\":\"isValid\",\"result\":\"error\"}]}]}");
+        assertThat(lines[1]).startsWith("{\"path\":\"dir/c.pdf\",");
+    }
+
+    @Test
+    public void testCsv() throws Exception {
+        StringWriter output = new StringWriter();
+        CsvResultSink sink = new CsvResultSink(output);
+        sink.writePaths(new File("dir"));
+        sink.write(new File("dir/a, b.pdf"), Arrays.asList(result("a, b.pdf")));
+        sink.close();
+
+        assertThat(output.toString()).isEqualTo(
+                "path,name,format,version,result,time,failed,erroneous\r\n" +
+                "\"a, b.pdf\",\"a, b.pdf\",PDF,0.1.0,erroneous,12,NO_DRM/checkDRM,WELL_FORMED/isValid\r\n");
+    }
+
+    @Test
+    public void testCompressionRoundTrip() throws Exception {
+        for (Compression compression : Compression.values()) {
+            File file = new File(tmp.getRoot(), "results.jsonl" + compression.getExtension());
+            assertThat(Compression.forFile(file)).isEqualTo(compression);
+            JsonLinesResultSink sink = new JsonLinesResultSink(file, compression, 0);
+            for (int i = 0; i < 100; i++) {
+                sink.write(new File("f" + i), Arrays.asList(result("f" + i)));
+            }
+            sink.close();
+
+            assertThat(sink.getFiles()).containsOnly(file);
+            String content = read(file);
+            assertThat(content.split("\n")).hasSize(100);
+            assertThat(content).contains("\"path\":\"f99\"");
+        }
+    }
+
+    @Test
+    public void testRollingMakesCompleteParts() throws Exception {
+        File file = new File(tmp.getRoot(), "results.xml.gz");
+        XmlResultSink sink = new XmlResultSink(file);
+        sink.close();
+        assertThat(read(file)).contains("<flint>");
+
+        file = new File(tmp.getRoot(), "rolled.xml.gz");
+        sink = new XmlResultSink(file, Compression.GZIP, 2);
+        for (int i = 0; i < 5; i++) {
+            sink.write(new File("f" + i), Arrays.asList(result("f" + i)));
+        }
+        sink.close();
+
+        List<File> parts = sink.getFiles();
+        assertThat(parts).hasSize(3);
+        assertThat(parts.get(0).getName()).isEqualTo("rolled-00000.xml.gz");
+        assertThat(parts.get(2).getName()).isEqualTo("rolled-00002.xml.gz");
+        int checkedFiles = 0;
+        for (File part : parts) {
+            String xml = read(part);
+            assertThat(xml).startsWith("<?xml").contains("</flint>");
+            checkedFiles += xml.split("<checkedFile ").length - 1;
+        }
+        assertThat(checkedFiles).isEqualTo(5);
+    }
+}
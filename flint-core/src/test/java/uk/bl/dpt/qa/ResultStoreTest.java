@@ -0,0 +1,114 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla;
+
+import au.gov.nla.flint.Flint;
+import au.gov.nla.flint.checks.CheckCategory;
+import au.gov.nla.flint.checks.CheckCheck;
+import au.gov.nla.flint.checks.CheckResult;
+import au.gov.nla.flint.checks.TaskMetrics;
+import au.gov.nla.flint.formats.SlowFormat;
+import au.gov.nla.flint.results.CheckResultCodec;
+import au.gov.nla.flint.results.ResultStore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ResultStoreTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testCodecRoundTrip() throws Exception {
+        CheckResult result = new CheckResult("a<b>.pdf", "PDF", "0.1.0", Arrays.asList("first", "unfilled"));
+        CheckCategory cc = new CheckCategory("first");
+        cc.add(new CheckCheck("ok", true, null));
+        cc.add(new CheckCheck("bad", false, 3));
+        cc.add(new CheckCheck("unknown", null, null));
+        result.add(cc);
+        result.setTime(42L);
+        result.addTaskMetrics(new TaskMetrics("first", 40, 30, 1 << 20, -1));
+
+        CheckResult decoded = CheckResultCodec.decode(CheckResultCodec.encode(result));
+        assertThat(decoded.getFilename()).isEqualTo("a<b>.pdf");
+        assertThat(decoded.getTime()).isEqualTo(42L);
+        assertThat(new ArrayList<String>(decoded.getCategories().keySet())).containsExactly("first", "unfilled");
+        assertThat(decoded.get("unfilled")).isNull();
+        assertThat(decoded.get("first").get("bad").getErrorCount()).isEqualTo(3);
+        assertThat(decoded.get("first").get("unknown").isHappy()).isNull();
+        assertThat(decoded.toString()).isEqualTo(result.toString());
+        assertThat(decoded.getTaskMetrics()).hasSize(1);
+        assertThat(decoded.getTaskMetrics().get(0).getAllocatedBytes()).isEqualTo(1 << 20);
+        assertThat(decoded.getTaskMetrics().get(0).getToolCpuTime()).isEqualTo(-1);
+    }
+
+    @Test
+    public void testUnchangedFilesAreNotValidatedAgain() throws Exception {
+        File dir = tmp.newFolder("input");
+        File one = new File(dir, "one.slow");
+        Files.write(one.toPath(), "5".getBytes());
+        ResultStore store = new ResultStore(tmp.newFolder("store"));
+
+        Flint flint = new Flint();
+        flint.setResultStore(store);
+        int before = SlowFormat.validations.get();
+        flint.check(one);
+        assertThat(SlowFormat.validations.get()).isEqualTo(before + 1);
+
+        // same content under another name comes from the store, with the new name
+        File copy = new File(dir, "copy.slow");
+        Files.write(copy.toPath(), "5".getBytes());
+        List<CheckResult> results = flint.check(copy);
+        assertThat(SlowFormat.validations.get()).isEqualTo(before + 1);
+        assertThat(store.getHits()).isEqualTo(1);
+        assertThat(results.get(0).getFilename()).isEqualTo("copy.slow");
+        assertThat(results.get(0).getResult()).isEqualTo("passed");
+
+        // changed content is validated again
+        Files.write(one.toPath(), "6".getBytes());
+        flint.check(one);
+        assertThat(SlowFormat.validations.get()).isEqualTo(before + 2);
+    }
+
+    @Test
+    public void testRenamedResultKeepsTaskMetrics() throws Exception {
+        CheckResult result = new CheckResult("one.pdf", "PDF", "0.1.0");
+        CheckCategory cc = new CheckCategory("first");
+        cc.add(new CheckCheck("ok", true, null));
+        result.add(cc);
+        result.setTime(42L);
+        result.addTaskMetrics(new TaskMetrics("first", 40, 30, 1 << 20, -1));
+        ResultStore store = new ResultStore(tmp.newFolder("store"));
+        store.put("abc", result);
+
+        CheckResult renamed = store.get("abc", "copy.pdf");
+        assertThat(renamed.getFilename()).isEqualTo("copy.pdf");
+        assertThat(renamed.getTime()).isEqualTo(42L);
+        assertThat(renamed.getTaskMetrics()).hasSize(1);
+        assertThat(renamed.getTaskMetrics().get(0).getAllocatedBytes()).isEqualTo(1 << 20);
+    }
+}
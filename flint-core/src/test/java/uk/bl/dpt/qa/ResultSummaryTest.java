@@ -0,0 +1,111 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla;
+
+import au.gov.nla.flint.checks.CheckResult;
+import au.gov.nla.flint.results.ResultSink;
+import au.gov.nla.flint.results.ResultSummary;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ResultSummaryTest {
+
+    @Test
+    public void testCounts() throws Exception {
+        ResultSummary summary = new ResultSummary();
+        final List<File> written = new ArrayList<File>();
+        ResultSink sink = summary.counting(new ResultSink() {
+            @Override
+            public void write(File file, List<CheckResult> results) {
+                written.add(file);
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        sink.write(new File("a.pdf"), Arrays.asList(TestResults.result("a.pdf", "PDF", true, true, 10)));
+        sink.write(new File("b.pdf"), Arrays.asList(TestResults.result("b.pdf", "PDF", false, true, 20)));
+        sink.write(new File("c.pdf"), Arrays.asList(TestResults.result("c.pdf", "PDF", true, null, 30)));
+        sink.write(new File("d.epub"), Arrays.asList(TestResults.result("d.epub", "EPUB", true, true, 40)));
+        sink.write(new File("e.txt"), Collections.<CheckResult>emptyList());
+
+        assertThat(written).hasSize(5);
+        assertThat(summary.getFiles()).isEqualTo(5);
+        assertThat(summary.getUnchecked()).isEqualTo(1);
+        assertThat(summary.getCounts("PDF")).isEqualTo(new long[]{1, 1, 1});
+        assertThat(summary.getCounts("PDF", "NO_DRM")).isEqualTo(new long[]{2, 1, 0});
+        assertThat(summary.getCounts("PDF", "WELL_FORMED")).isEqualTo(new long[]{2, 0, 1});
+        assertThat(summary.getCounts("EPUB")).isEqualTo(new long[]{1, 0, 0});
+        assertThat(summary.getCounts("MOBI")).isEqualTo(new long[]{0, 0, 0});
+        assertThat(summary.getTimes("PDF").getMax()).isEqualTo(30);
+        assertThat(summary.getTimes("PDF").getValueAtPercentile(50)).isEqualTo(20);
+
+        StringWriter xml = new StringWriter();
+        summary.toXML(new PrintWriter(xml));
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new ByteArrayInputStream(xml.toString().getBytes(StandardCharsets.UTF_8)));
+        Element root = doc.getDocumentElement();
+        assertThat(root.getAttribute("files")).isEqualTo("5");
+        Element epub = (Element) root.getElementsByTagName("format").item(0);
+        assertThat(epub.getAttribute("name")).isEqualTo("EPUB");
+        Element pdf = (Element) root.getElementsByTagName("format").item(1);
+        assertThat(pdf.getAttribute("failed")).isEqualTo("1");
+        Element check = (Element) pdf.getElementsByTagName("check").item(0);
+        assertThat(check.getAttribute("name")).isEqualTo("checkDRM");
+        assertThat(check.getAttribute("passed")).isEqualTo("2");
+        assertThat(check.getAttribute("failed")).isEqualTo("1");
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        final ResultSummary summary = new ResultSummary();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 4; t++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        summary.record(TestResults.result("f", "PDF", i % 2 == 0, true, i));
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertThat(executor.awaitTermination(1, TimeUnit.MINUTES)).isTrue();
+        assertThat(summary.getCounts("PDF")).isEqualTo(new long[]{2000, 2000, 0});
+        assertThat(summary.getTimes("PDF").getCount()).isEqualTo(4000);
+    }
+}
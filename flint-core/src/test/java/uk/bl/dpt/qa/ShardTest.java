@@ -0,0 +1,186 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla;
+
+import au.gov.nla.flint.Flint;
+import au.gov.nla.flint.batch.BatchChecker;
+import au.gov.nla.flint.batch.FileWalker;
+import au.gov.nla.flint.batch.Shard;
+import au.gov.nla.flint.results.Journal;
+import au.gov.nla.flint.results.ReportMerger;
+import au.gov.nla.flint.results.XmlResultSink;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ShardTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File root;
+
+    @Before
+    public void setUp() throws Exception {
+        root = tmp.newFolder("collection");
+        // "a-b" sorts before "a/..." as a string, but after it in a walk
+        for (String dir : new String[] {"a", "a/deeper", "a-b", "z"}) {
+            new File(root, dir).mkdirs();
+        }
+        for (int i = 0; i < 40; i++) {
+            String dir = new String[] {"", "a/", "a/deeper/", "a-b/", "z/"}[i % 5];
+            Files.write(new File(root, dir + "file" + i + ".slow").toPath(), "1".getBytes());
+        }
+    }
+
+    private List<String> walk(Shard shard) {
+        List<String> paths = new ArrayList<String>();
+        try (FileWalker walker = new FileWalker(root)) {
+            walker.setShard(shard);
+            for (File file : walker) {
+                paths.add(Shard.relativePath(root, file));
+            }
+        }
+        return paths;
+    }
+
+    @Test
+    public void testWalkIsSorted() {
+        List<String> paths = walk(null);
+        assertThat(paths).hasSize(40);
+        List<String> sorted = new ArrayList<String>(paths);
+        Collections.sort(sorted, Shard.PATH_ORDER);
+        assertThat(paths).isEqualTo(sorted);
+        assertThat(paths.indexOf("a/deeper/file2.slow")).isLessThan(paths.indexOf("a-b/file3.slow"));
+    }
+
+    @Test
+    public void testShardsAreDisjointAndComplete() {
+        Set<String> all = new HashSet<String>();
+        for (int i = 1; i <= 3; i++) {
+            List<String> shard = walk(new Shard(i, 3));
+            assertThat(shard).isNotEmpty();
+            for (String path : shard) {
+                assertThat(all.add(path)).isTrue();
+            }
+            // the same every time
+            assertThat(walk(Shard.parse(i + "/3"))).isEqualTo(shard);
+        }
+        assertThat(all).isEqualTo(new HashSet<String>(walk(null)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidShard() {
+        Shard.parse("0/3");
+    }
+
+    @Test
+    public void testMergeShardReports() throws Exception {
+        List<InputStream> reports = new ArrayList<InputStream>();
+        for (int i = 1; i <= 3; i++) {
+            ByteArrayOutputStream report = new ByteArrayOutputStream();
+            try (XmlResultSink sink = new XmlResultSink(report)) {
+                sink.writePaths(root);
+                FileWalker files = new FileWalker(root);
+                files.setShard(new Shard(i, 3));
+                BatchChecker batch = new BatchChecker(new Flint());
+                batch.setThreads(2);
+                batch.check(files, sink);
+            }
+            reports.add(new ByteArrayInputStream(report.toByteArray()));
+        }
+        ByteArrayOutputStream merged = new ByteArrayOutputStream();
+        ReportMerger.merge(reports, merged);
+        String xml = new String(merged.toByteArray(), StandardCharsets.UTF_8);
+
+        List<String> paths = new ArrayList<String>();
+        Matcher m = Pattern.compile("<checkedFile name='[^']*' path='([^']*)'").matcher(xml);
+        while (m.find()) {
+            paths.add(m.group(1));
+        }
+        // the same files in the same order as a single run
+        assertThat(paths).isEqualTo(walk(null));
+        assertThat(xml).startsWith("<?xml version='1.0' encoding='utf-8'?>\n<flint>\n    <checkedFile ");
+        assertThat(xml).endsWith("</checkedFile>\n</flint>\n");
+
+        // written the way a single run writes its report
+        ByteArrayOutputStream single = new ByteArrayOutputStream();
+        try (XmlResultSink sink = new XmlResultSink(single)) {
+            sink.writePaths(root);
+            new BatchChecker(new Flint()).check(new FileWalker(root), sink);
+        }
+        assertThat(xml).isEqualTo(new String(single.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testMergeResumedShardReports() throws Exception {
+        Flint flint = new Flint();
+        List<InputStream> reports = new ArrayList<InputStream>();
+        for (int i = 1; i <= 2; i++) {
+            Shard shard = new Shard(i, 2);
+            // a run of the shard that died half way through
+            File journalFile = new File(tmp.getRoot(), "shard" + i + ".journal");
+            try (Journal journal = Journal.create(journalFile)) {
+                List<String> paths = walk(shard);
+                for (String path : paths.subList(0, paths.size() / 2)) {
+                    File file = new File(root, path);
+                    journal.write(file, flint.check(file));
+                }
+            }
+
+            ByteArrayOutputStream report = new ByteArrayOutputStream();
+            try (XmlResultSink sink = new XmlResultSink(report)) {
+                // as the command line does, before the journaled results are replayed
+                sink.writePaths(root);
+                try (Journal journal = Journal.resume(journalFile, sink)) {
+                    BatchChecker batch = new BatchChecker(flint);
+                    batch.setJournal(journal);
+                    Flint.checkMany(root, batch, shard, sink);
+                }
+            }
+            reports.add(new ByteArrayInputStream(report.toByteArray()));
+        }
+        ByteArrayOutputStream merged = new ByteArrayOutputStream();
+        ReportMerger.merge(reports, merged);
+
+        ByteArrayOutputStream single = new ByteArrayOutputStream();
+        try (XmlResultSink sink = new XmlResultSink(single)) {
+            sink.writePaths(root);
+            new BatchChecker(new Flint()).check(new FileWalker(root), sink);
+        }
+        assertThat(new String(merged.toByteArray(), StandardCharsets.UTF_8))
+                .isEqualTo(new String(single.toByteArray(), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla;
+
+import au.gov.nla.flint.checks.CheckCategory;
+import au.gov.nla.flint.checks.CheckCheck;
+import au.gov.nla.flint.checks.CheckResult;
+
+/**
+ * Check-results for the tests of the result sinks, archives and summaries
+ */
+final class TestResults {
+
+    private TestResults() {
+    }
+
+    /**
+     * Create a result with a NO_DRM category holding a checkDRM check (with 2 errors if it
+     * failed) and a WELL_FORMED category holding an isValid check
+     * @param name the file name
+     * @param format the format name
+     * @param drm the outcome of checkDRM, null for an error
+     * @param valid the outcome of isValid, null for an error
+     * @param time the time taken [ms]
+     * @return the result
+     */
+    static CheckResult result(String name, String format, Boolean drm, Boolean valid, long time) {
+        CheckCategory noDrm = new CheckCategory("NO_DRM");
+        noDrm.add(new CheckCheck("checkDRM", drm, Boolean.FALSE.equals(drm) ? 2 : null));
+        CheckCategory wellFormed = new CheckCategory("WELL_FORMED");
+        wellFormed.add(new CheckCheck("isValid", valid, null));
+        CheckResult result = new CheckResult(name, format, "0.1.0");
+        result.add(noDrm);
+        result.add(wellFormed);
+        result.setTime(time);
+        return result;
+    }
+
+    /**
+     * Create the result of a well-formed PDF file, see {@link #result(String, String, Boolean, Boolean, long)}
+     * @param name the file name
+     * @param drm the outcome of checkDRM, null for an error
+     * @return the result
+     */
+    static CheckResult result(String name, Boolean drm) {
+        return result(name, "PDF", drm, true, 5L);
+    }
+}
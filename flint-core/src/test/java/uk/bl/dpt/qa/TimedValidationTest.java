@@ -0,0 +1,256 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla;
+
+import au.gov.nla.flint.checks.CheckCategory;
+import au.gov.nla.flint.checks.CheckCheck;
+import au.gov.nla.flint.checks.CheckResult;
+import au.gov.nla.flint.checks.TaskMetrics;
+import au.gov.nla.flint.checks.TimedTask;
+import au.gov.nla.flint.checks.TimedTaskExecutor;
+import au.gov.nla.flint.checks.TimedValidation;
+import au.gov.nla.flint.wrappers.ToolRunner;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class TimedValidationTest {
+
+    /**
+     * A task that keeps running for a while, ignoring interrupts
+     */
+    private static class StubbornTask extends TimedTask {
+        private final long runFor;
+
+        StubbornTask(long timeout, long runFor) {
+            this("stubborn", timeout, runFor);
+        }
+
+        StubbornTask(String name, long timeout, long runFor) {
+            super(name, timeout);
+            this.runFor = runFor;
+        }
+
+        @Override
+        public LinkedHashMap<String, CheckCategory> call() {
+            long end = System.currentTimeMillis() + runFor;
+            while (System.currentTimeMillis() < end) {
+                Thread.onSpinWait();
+            }
+            CheckCategory cc = new CheckCategory(name);
+            cc.add(new CheckCheck("done", true, null));
+            LinkedHashMap<String, CheckCategory> cmap = new LinkedHashMap<String, CheckCategory>();
+            cmap.put(cc.getName(), cc);
+            return cmap;
+        }
+    }
+
+    /**
+     * A task that blocks for a while, like a wrapper waiting for I/O or a child process
+     */
+    private static class SleepingTask extends TimedTask {
+        private final long sleepFor;
+
+        SleepingTask(String name, long timeout, long sleepFor) {
+            super(name, timeout);
+            this.sleepFor = sleepFor;
+        }
+
+        @Override
+        public LinkedHashMap<String, CheckCategory> call() throws Exception {
+            Thread.sleep(sleepFor);
+            CheckCategory cc = new CheckCategory(name);
+            cc.add(new CheckCheck("done", true, null));
+            LinkedHashMap<String, CheckCategory> cmap = new LinkedHashMap<String, CheckCategory>();
+            cmap.put(cc.getName(), cc);
+            return cmap;
+        }
+    }
+
+    /**
+     * A task that runs an external tool, which keeps the CPU busy without writing any output
+     */
+    private static class ToolTask extends TimedTask {
+        ToolTask(String name, long timeout) {
+            super(name, timeout);
+        }
+
+        @Override
+        public LinkedHashMap<String, CheckCategory> call() throws Exception {
+            int exit = new ToolRunner().runCommand(new ArrayList<String>(Arrays.asList("/bin/sh", "-c",
+                    "i=0; while [ $i -lt 300000 ]; do i=$((i+1)); done")));
+            CheckCategory cc = new CheckCategory(name);
+            cc.add(new CheckCheck("done", exit == 0, null));
+            LinkedHashMap<String, CheckCategory> cmap = new LinkedHashMap<String, CheckCategory>();
+            cmap.put(cc.getName(), cc);
+            return cmap;
+        }
+    }
+
+    @Test
+    public void testTaskWithinTimeout() {
+        LinkedHashMap<String, CheckCategory> result = TimedValidation.validate(new StubbornTask(5, 10), new File("x"));
+        assertThat(result.get("stubborn").getResult()).isEqualTo("passed");
+    }
+
+    @Test
+    public void testTimeoutIsTrackedUntilTaskStops() throws Exception {
+        TimedTaskExecutor executor = TimedTaskExecutor.getInstance();
+        long timedOutBefore = executor.getTimedOut();
+
+        LinkedHashMap<String, CheckCategory> result = TimedValidation.validate(new StubbornTask(1, 2500), new File("x"));
+        assertThat(result.get("stubborn").getResult()).isEqualTo("failed");
+        assertThat(executor.getTimedOut()).isEqualTo(timedOutBefore + 1);
+        assertThat(executor.getAbandonedRunning()).isEqualTo(1);
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (executor.getAbandonedRunning() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertThat(executor.getAbandonedRunning()).isEqualTo(0);
+    }
+
+    @Test
+    public void testWaitingForASlotCountsAgainstTheTimeout() throws Exception {
+        TimedTaskExecutor executor = TimedTaskExecutor.getInstance();
+        final CountDownLatch release = new CountDownLatch(1);
+        int free = executor.getMaxRunning() - executor.getRunning();
+        for (int i = 0; i < free; i++) {
+            executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    release.await();
+                    return null;
+                }
+            }, "blocker", 5);
+        }
+        Thread releaser = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(700);
+                } catch (InterruptedException e) {
+                    // release right away
+                } finally {
+                    release.countDown();
+                }
+            }
+        };
+        releaser.start();
+        try {
+            // gets a slot after 0.7 seconds, but would need another 0.6 to finish
+            long start = System.currentTimeMillis();
+            LinkedHashMap<String, CheckCategory> result =
+                    TimedValidation.validate(new SleepingTask("late", 1, 600), new File("x"));
+            assertThat(result.get("late").getResult()).isEqualTo("failed");
+            assertThat(System.currentTimeMillis() - start).isLessThan(1250);
+        } finally {
+            release.countDown();
+            releaser.join();
+        }
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (executor.getRunning() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+    }
+
+    @Test
+    public void testIndependentTasksRunSideBySide() {
+        List<TimedTask> tasks = new ArrayList<TimedTask>();
+        tasks.add(new SleepingTask("first", 5, 400));
+        tasks.add(new SleepingTask("second", 5, 400));
+        tasks.add(new SleepingTask("third", 5, 400));
+
+        long start = System.currentTimeMillis();
+        LinkedHashMap<String, CheckCategory> result = TimedValidation.validateIndependent(new File("x"), 5, tasks);
+        long took = System.currentTimeMillis() - start;
+
+        assertThat(took).isLessThan(1000);
+        assertThat(new ArrayList<String>(result.keySet())).containsExactly("first", "second", "third");
+        for (CheckCategory cc : result.values()) {
+            assertThat(cc.getResult()).isEqualTo("passed");
+        }
+    }
+
+    @Test
+    public void testIndependentTasksShareOverallDeadline() throws Exception {
+        List<TimedTask> tasks = new ArrayList<TimedTask>();
+        tasks.add(new SleepingTask("quick", 5, 10));
+        tasks.add(new SleepingTask("slow", 5, 2500));
+
+        LinkedHashMap<String, CheckCategory> result = TimedValidation.validateIndependent(new File("x"), 1, tasks);
+        assertThat(result.get("quick").getResult()).isEqualTo("passed");
+        assertThat(result.get("slow").getResult()).isEqualTo("failed");
+
+        // let the abandoned task finish so other tests start from a clean executor
+        long deadline = System.currentTimeMillis() + 10000;
+        while (TimedTaskExecutor.getInstance().getAbandonedRunning() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+    }
+
+    @Test
+    public void testTaskMetricsAreRecorded() throws Exception {
+        StubbornTask busy = new StubbornTask("busy", 5, 100);
+        SleepingTask sleepy = new SleepingTask("sleepy", 5, 100);
+        List<TimedTask> tasks = new ArrayList<TimedTask>();
+        tasks.add(busy);
+        tasks.add(sleepy);
+        TimedValidation.validateIndependent(new File("x"), 5, tasks);
+
+        TaskMetrics busyMetrics = busy.getMetrics();
+        assertThat(busyMetrics.getName()).isEqualTo("busy");
+        assertThat(busyMetrics.getWallTime()).isGreaterThanOrEqualTo(90);
+        // the JVM may not measure CPU time, but if it does the spinning task used some
+        if (busyMetrics.getCpuTime() >= 0) {
+            assertThat(busyMetrics.getCpuTime()).isGreaterThan(0);
+            assertThat(sleepy.getMetrics().getCpuTime()).isLessThan(busyMetrics.getCpuTime());
+        }
+        assertThat(sleepy.getMetrics().getToolCpuTime()).isEqualTo(0);
+
+        CheckResult result = new CheckResult("x", "aFormat", "aVersion");
+        result.addTaskMetrics(tasks);
+        result.setTime(busyMetrics.getWallTime());
+        StringWriter xml = new StringWriter();
+        result.toXML(new PrintWriter(xml), "", "  ");
+        assertThat(xml.toString()).contains("<checkTask name='busy' wallTime='");
+    }
+
+    @Test
+    public void testToolCpuTimeIsSampledWhileTheToolRuns() throws Exception {
+        Assume.assumeTrue(new File("/bin/sh").canExecute());
+        ToolTask tool = new ToolTask("tool", 30);
+        TimedValidation.validateIndependent(new File("x"), 30, Collections.<TimedTask>singletonList(tool));
+
+        // the tool writes nothing, so only a timer sees it using the CPU
+        assertThat(tool.getMetrics().getToolCpuTime()).isGreaterThan(0);
+    }
+}
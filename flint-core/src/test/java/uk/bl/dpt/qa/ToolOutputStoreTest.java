@@ -0,0 +1,168 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla;
+
+import au.gov.nla.flint.Flint;
+import au.gov.nla.flint.checks.CheckResult;
+import au.gov.nla.flint.formats.ReportFormat;
+import au.gov.nla.flint.results.ResultStore;
+import au.gov.nla.flint.results.ToolOutputStore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class ToolOutputStoreTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testOutputsAreKeptPerTool() throws Exception {
+        ToolOutputStore store = new ToolOutputStore(tmp.newFolder("outputs"));
+        StringBuilder report = new StringBuilder("<report>");
+        for (int i = 0; i < 1000; i++) {
+            report.append("<message id=\"PDF-1\">repeated</message>");
+        }
+        byte[] output = report.append("</report>").toString().getBytes("UTF-8");
+
+        assertThat(store.get("abc", "tool 1.0")).isNull();
+        store.put("abc", "tool 1.0", output);
+        assertThat(store.get("abc", "tool 1.0")).isEqualTo(output);
+        // another version of the tool, or other content, doesn't see the output
+        assertThat(store.get("abc", "tool 1.1")).isNull();
+        assertThat(store.get("abd", "tool 1.0")).isNull();
+        assertThat(store.getHits()).isEqualTo(1);
+        assertThat(store.getMisses()).isEqualTo(3);
+        assertThat(store.getWrites()).isEqualTo(1);
+
+        // kept compressed
+        long size = 0;
+        for (File dir : new File(tmp.getRoot(), "outputs").listFiles()) {
+            for (File entry : dir.listFiles()) {
+                size += entry.length();
+            }
+        }
+        assertThat(size).isLessThan(output.length / 10);
+    }
+
+    @Test
+    public void testRepolicyDoesNotRunTheTool() throws Exception {
+        File dir = tmp.newFolder("input");
+        File one = new File(dir, "one.report");
+        Files.write(one.toPath(), "<doc><title>x</title></doc>".getBytes());
+        File two = new File(dir, "two.report");
+        Files.write(two.toPath(), "<doc/>".getBytes());
+        ToolOutputStore store = new ToolOutputStore(tmp.newFolder("outputs"));
+        ResultStore resultStore = new ResultStore(tmp.newFolder("results"));
+
+        Flint flint = new Flint();
+        flint.setResultStore(resultStore);
+        flint.setToolOutputStore(store);
+        int before = ReportFormat.toolRuns.get();
+        CheckResult full = flint.check(one).get(0);
+        assertThat(ReportFormat.toolRuns.get()).isEqualTo(before + 1);
+        assertThat(store.get(ResultStore.digest(one), ReportFormat.TOOL)).isEqualTo(Files.readAllBytes(one.toPath()));
+
+        Flint repolicy = new Flint();
+        repolicy.setResultStore(resultStore);
+        repolicy.setToolOutputStore(store);
+        repolicy.setRepolicy(true);
+        List<CheckResult> results = repolicy.newWorkerInstance().check(one);
+        assertThat(ReportFormat.toolRuns.get()).isEqualTo(before + 1);
+        assertThat(results).hasSize(1);
+        CheckResult result = results.get(0);
+        assertThat(result.getFormat()).isEqualTo("REPORT");
+        assertThat(result.getFilename()).isEqualTo("one.report");
+        assertThat(result.isFrozen()).isTrue();
+        // the stored categories besides the policy ones are kept
+        assertThat(new ArrayList<String>(result.getCategories().keySet()))
+                .isEqualTo(new ArrayList<String>(full.getCategories().keySet()));
+        assertThat(result.get("read").getResult()).isEqualTo(full.get("read").getResult());
+        assertThat(result.get("HasTitle").getResult()).isEqualTo(full.get("HasTitle").getResult());
+
+        // without a kept output, the file is checked as usual
+        results = repolicy.check(two);
+        assertThat(ReportFormat.toolRuns.get()).isEqualTo(before + 2);
+        assertThat(results.get(0).getCategories().containsKey("read")).isTrue();
+        assertThat(repolicy.check(two).get(0).getCategories().containsKey("read")).isTrue();
+        assertThat(ReportFormat.toolRuns.get()).isEqualTo(before + 2);
+    }
+
+    @Test
+    public void testRepolicyReplacesOnlyThePolicyCategories() throws Exception {
+        File dir = tmp.newFolder("input");
+        File one = new File(dir, "one.report");
+        Files.write(one.toPath(), "<doc/>".getBytes());
+        File two = new File(dir, "two.report");
+        Files.write(two.toPath(), "<doc><p/></doc>".getBytes());
+        ToolOutputStore store = new ToolOutputStore(tmp.newFolder("outputs"));
+        ResultStore resultStore = new ResultStore(tmp.newFolder("results"));
+
+        Flint flint = new Flint();
+        flint.setResultStore(resultStore);
+        flint.setToolOutputStore(store);
+        assertThat(flint.check(one).get(0).get("HasTitle").getResult()).isEqualTo("failed");
+        // two's output is kept, but not its result
+        Flint outputsOnly = new Flint();
+        outputsOnly.setToolOutputStore(store);
+        outputsOnly.check(two);
+
+        // the policy without its only pattern
+        Flint repolicy = new Flint(Collections.singletonMap("REPORT", Collections.singleton("NoSuchPattern")));
+        repolicy.setResultStore(resultStore);
+        repolicy.setToolOutputStore(store);
+        repolicy.setRepolicy(true);
+        int before = ReportFormat.toolRuns.get();
+        CheckResult result = repolicy.check(one).get(0);
+        assertThat(ReportFormat.toolRuns.get()).isEqualTo(before);
+        assertThat(new ArrayList<String>(result.getCategories().keySet())).containsExactly("read");
+        assertThat(result.getResult()).isEqualTo("passed");
+
+        // without a kept result, the file is validated in full
+        result = repolicy.check(two).get(0);
+        assertThat(ReportFormat.toolRuns.get()).isEqualTo(before + 1);
+        assertThat(new ArrayList<String>(result.getCategories().keySet())).containsExactly("read");
+    }
+
+    @Test
+    public void testRepolicyNeedsAStore() throws Exception {
+        try {
+            new Flint().setRepolicy(true);
+            fail("re-evaluating the policy without a store should fail");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        Flint flint = new Flint();
+        flint.setToolOutputStore(new ToolOutputStore(tmp.newFolder("outputs")));
+        try {
+            flint.setRepolicy(true);
+            fail("re-evaluating the policy without a result store should fail");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla;
+
+import au.gov.nla.flint.checks.CheckCategory;
+import au.gov.nla.flint.checks.CheckCheck;
+import au.gov.nla.flint.checks.CheckResult;
+import au.gov.nla.flint.results.XmlResultSink;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class XmlResultSinkTest {
+
+    private CheckResult result(String name) {
+        CheckCategory cc = new CheckCategory("testCc");
+        cc.add(new CheckCheck("testCheck", true, null));
+        CheckResult result = new CheckResult(name, "aFormat", "aVersion");
+        result.add(cc);
+        result.setTime(1L);
+        return result;
+    }
+
+    @Test
+    public void testManyFilesMakeOneDocument() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        XmlResultSink sink = new XmlResultSink(output);
+        sink.write(new File("a"), Arrays.asList(result("a")));
+        sink.write(new File("b"), Collections.<CheckResult>emptyList());
+        sink.write(new File("c"), Arrays.asList(result("c"), result("c")));
+        sink.close();
+
+        String xml = output.toString("utf-8");
+        assertThat(xml.indexOf("<?xml")).isEqualTo(xml.lastIndexOf("<?xml"));
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new ByteArrayInputStream(output.toByteArray()));
+        assertThat(doc.getDocumentElement().getNodeName()).isEqualTo("flint");
+        assertThat(doc.getElementsByTagName("checkedFile").getLength()).isEqualTo(3);
+    }
+
+    @Test
+    public void testEmptyRunIsWellFormed() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new XmlResultSink(output).close();
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new ByteArrayInputStream(output.toByteArray()));
+        assertThat(doc.getDocumentElement().getNodeName()).isEqualTo("flint");
+    }
+}
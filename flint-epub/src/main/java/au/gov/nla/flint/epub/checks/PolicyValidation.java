@@ -4,13 +4,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import au.gov.nla.flint.checks.CheckCategory;
 import au.gov.nla.flint.checks.TimedTask;
-import au.gov.nla.flint.formats.EPUBFormat;
-import au.gov.nla.flint.formats.PolicyAware;
+import au.gov.nla.flint.formats.CompiledPolicy;
+import au.gov.nla.flint.results.ToolOutputStore;
 import au.gov.nla.flint.wrappers.EpubCheckWrapper;
 
 import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.LinkedHashMap;
-import java.util.Set;
 
 /**
  * Wrapper around the policy-validation process that produces an error message
@@ -19,28 +23,45 @@ import java.util.Set;
 public class PolicyValidation extends TimedTask {
 
     private Logger logger;
-    private Set<String> patternFilter;
+    private CompiledPolicy policy;
+    private ToolOutputStore toolOutputs;
 
     /**
      * Constructor for PolicyValidation.
      *
      * @param timeout the time [s] after which a TimeOutException is thrown and logged as
      *                an 'erroneous' {@link au.gov.nla.flint.checks.CheckCategory}
-     * @param patternFilter a set of strings that represent patterns to be included
-     *                      in following operations.
+     * @param policy the format's policy, compiled with its pattern filter
      */
-    public PolicyValidation(long timeout, Set<String> patternFilter) {
+    public PolicyValidation(long timeout, CompiledPolicy policy) {
         super(FixedCategories.POLICY_VALIDATION.toString(), timeout);
-        this.patternFilter = patternFilter;
+        this.policy = policy;
         this.logger = LoggerFactory.getLogger(this.getClass());
     }
 
+    /**
+     * Keep the EpubCheck report, so that the policy can be checked again without running EpubCheck.
+     *
+     * @param toolOutputs the store to keep it in, or null not to keep it
+     */
+    public void setToolOutputStore(ToolOutputStore toolOutputs) {
+        this.toolOutputs = toolOutputs;
+    }
+
     @Override
     public LinkedHashMap<String, CheckCategory> call() throws Exception {
         logger.info("Performing a policy validation on {}", contentFile);
         StreamSource outputXml = new EpubCheckWrapper().check(contentFile);
-        return PolicyAware.policyValidationResult(outputXml,
-                new StreamSource(EPUBFormat.getPolicyStatically()), patternFilter);
+        if (toolOutputs != null) {
+            byte[] xml = Files.readAllBytes(Paths.get(URI.create(outputXml.getSystemId())));
+            try {
+                toolOutputs.put(contentFile, EpubCheckWrapper.getVersion(), xml);
+            } catch (IOException e) {
+                logger.warn("can't keep the EpubCheck report of {}: {}", contentFile, e);
+            }
+            outputXml = new StreamSource(new ByteArrayInputStream(xml));
+        }
+        return policy.validate(outputXml);
     }
 
 }
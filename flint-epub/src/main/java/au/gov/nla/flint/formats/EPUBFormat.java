@@ -17,18 +17,22 @@
 package au.gov.nla.flint.formats;
 
 import au.gov.nla.flint.checks.CheckResult;
+import au.gov.nla.flint.checks.TimedTask;
 import au.gov.nla.flint.checks.TimedValidation;
 import au.gov.nla.flint.epub.checks.FixedCategories;
 import au.gov.nla.flint.epub.checks.PolicyValidation;
 import au.gov.nla.flint.epub.checks.SpecificDrmChecks;
 import au.gov.nla.flint.epub.checks.Wellformedness;
+import au.gov.nla.flint.wrappers.EpubCheckWrapper;
 
-import javax.xml.transform.stream.StreamSource;
 import java.io.File;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
@@ -46,6 +50,11 @@ public class EPUBFormat extends PolicyAware implements Format {
     // when does a wrapper's task timeout [seconds]
     private final static long WRAPPER_TIMEOUT = 10 * 60;
 
+    private final static Set<String> MIME_TYPES = Collections.unmodifiableSet(new HashSet<String>(
+            Arrays.asList("application/epub+zip", "application/x-ibooks+zip")));
+    private final static Set<String> EXTENSIONS = Collections.unmodifiableSet(new HashSet<String>(
+            Arrays.asList("epub", "ibooks")));
+
     public Map<String, Map<String, Set<String>>> getFixedCategories() {
         final Set<String> noDRM = new TreeSet<String>() {{
             add("checkForRightsFile");
@@ -71,46 +80,60 @@ public class EPUBFormat extends PolicyAware implements Format {
         cats.addAll(getFixedCategories().keySet());
         // add a potential policy validation error to all category names
         cats.add(FixedCategories.POLICY_VALIDATION.name());
-        cats.addAll(requestPolicyPatternNames(new StreamSource(this.getPolicy())));
+        cats.addAll(getCompiledPolicy().getPatternNames());
         return cats;
     }
 
     @Override
     public CheckResult validationResult(File contentFile) {
         CheckResult checkResult;
+        CompiledPolicy policy;
         try {
+            policy = getCompiledPolicy();
             checkResult = new CheckResult(contentFile.getName(), this.getFormatName(), this.getVersion(), getAllCategoryNames());
         } catch (Exception e) {
             throw new RuntimeException("could not initialise check-result! reason: {}", e);
         }
         Long startTime = System.currentTimeMillis();
-        checkResult.addAll(TimedValidation.validate(new PolicyValidation(WRAPPER_TIMEOUT, patternFilter), contentFile));
-        checkResult.addAll(TimedValidation.validate(new SpecificDrmChecks(WRAPPER_TIMEOUT, patternFilter), contentFile));
-        checkResult.addAll(TimedValidation.validate(new Wellformedness(WRAPPER_TIMEOUT, patternFilter), contentFile));
+        List<TimedTask> tasks = new ArrayList<TimedTask>();
+        PolicyValidation policyValidation = new PolicyValidation(WRAPPER_TIMEOUT, policy);
+        policyValidation.setToolOutputStore(toolOutputs);
+        tasks.add(policyValidation);
+        tasks.add(new SpecificDrmChecks(WRAPPER_TIMEOUT, patternFilter));
+        tasks.add(new Wellformedness(WRAPPER_TIMEOUT, patternFilter));
+        // the checks don't depend on each other's results, so run them side by side
+        checkResult.addAll(TimedValidation.validateIndependent(contentFile, WRAPPER_TIMEOUT, tasks));
+        checkResult.addTaskMetrics(tasks);
         checkResult.setTime(System.currentTimeMillis() - startTime);
         logger.info("all checks done for {}", this.getFormatName());
         return checkResult;
     }
 
+    @Override
+    public String getPolicyTool() {
+        return EpubCheckWrapper.getVersion();
+    }
+
     @Override
     public boolean canCheck(File pFile, String pMimetype) {
         return (canCheck(pMimetype) ||
                 //simple check
-                pFile.getName().toLowerCase().endsWith(".epub") ||
-                pFile.getName().toLowerCase().endsWith(".ibooks"));
+                EXTENSIONS.contains(FormatDispatch.extension(pFile.getName())));
     }
 
     @Override
     public boolean canCheck(String pMimetype) {
-        return acceptedMimeTypes().contains(pMimetype);
+        return MIME_TYPES.contains(pMimetype);
     }
 
     @Override
     public Collection<String> acceptedMimeTypes() {
-        return new HashSet<String>() {{
-            add("application/epub+zip");
-            add("application/x-ibooks+zip");
-        }};
+        return MIME_TYPES;
+    }
+
+    @Override
+    public Collection<String> acceptedExtensions() {
+        return EXTENSIONS;
     }
 
 
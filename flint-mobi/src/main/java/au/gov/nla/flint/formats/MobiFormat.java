@@ -4,7 +4,9 @@ package au.gov.nla.flint.formats;
 import java.io.File;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -24,6 +26,11 @@ public class MobiFormat  extends PolicyAware implements Format {
     // when does a wrapper's task timeout [seconds]
     private final static long WRAPPER_TIMEOUT = 10 * 60;
 
+    private final static Set<String> MIME_TYPES = Collections.unmodifiableSet(new HashSet<String>(
+            Arrays.asList("application/x-mobipocket-ebook", "application/vnd.amazon.ebook")));
+    private final static Set<String> EXTENSIONS = Collections.unmodifiableSet(new HashSet<String>(
+            Arrays.asList("mobi", "azw", "azw3", "prc")));
+
     @Override
     @SuppressWarnings("serial")
     public Map<String, Map<String, Set<String>>> getFixedCategories() {
@@ -67,7 +74,9 @@ public class MobiFormat  extends PolicyAware implements Format {
         
         Long startTime = System.currentTimeMillis();
         
-        checkResult.addAll(TimedValidation.validate(new SpecificDrmChecks(WRAPPER_TIMEOUT, patternFilter), contentFile));
+        SpecificDrmChecks drmChecks = new SpecificDrmChecks(WRAPPER_TIMEOUT, patternFilter);
+        checkResult.addAll(TimedValidation.validate(drmChecks, contentFile));
+        checkResult.addTaskMetrics(drmChecks.getMetrics());
         
         checkResult.setTime(System.currentTimeMillis() - startTime);
         logger.info("all checks done for {}", this.getFormatName());
@@ -79,25 +88,22 @@ public class MobiFormat  extends PolicyAware implements Format {
     public boolean canCheck(File pFile, String pMimetype) {
         return (canCheck(pMimetype) ||
                 //simple check
-                pFile.getName().toLowerCase().endsWith(".mobi")
-                || pFile.getName().toLowerCase().endsWith(".azw")
-                || pFile.getName().toLowerCase().endsWith(".azw3")
-                || pFile.getName().toLowerCase().endsWith(".prc")
-               );
+                EXTENSIONS.contains(FormatDispatch.extension(pFile.getName())));
     }
 
     @Override
     public boolean canCheck(String pMimetype) {
-        return acceptedMimeTypes().contains(pMimetype);
+        return MIME_TYPES.contains(pMimetype);
     }
     
     @Override
-    @SuppressWarnings("serial")
     public Collection<String> acceptedMimeTypes() {
-        return new HashSet<String>() {{
-            add("application/x-mobipocket-ebook");
-            add("application/vnd.amazon.ebook");
-        }};
+        return MIME_TYPES;
+    }
+
+    @Override
+    public Collection<String> acceptedExtensions() {
+        return EXTENSIONS;
     }
 
     @Override
@@ -110,6 +116,12 @@ public class MobiFormat  extends PolicyAware implements Format {
         return "0.1.0";
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        // every check creates its own MobiBook, nothing is shared between files
+        return true;
+    }
+
     @Override
     public InputStream getPolicy() {
         return getClass().getResourceAsStream(SCH_POLICY);
@@ -18,18 +18,22 @@
 package au.gov.nla.flint.formats;
 
 import au.gov.nla.flint.checks.CheckResult;
+import au.gov.nla.flint.checks.TimedTask;
 import au.gov.nla.flint.checks.TimedValidation;
+import au.gov.nla.flint.metrics.MetricsRegistry;
+import au.gov.nla.flint.pdf.PDFAnalysisContext;
 import au.gov.nla.flint.pdf.checks.FixedCategories;
 import au.gov.nla.flint.pdf.checks.PolicyValidation;
 import au.gov.nla.flint.pdf.checks.SpecificDrmChecks;
 import au.gov.nla.flint.pdf.checks.Wellformedness;
+import au.gov.nla.flint.wrappers.PDFBoxWrapper;
 
-import javax.xml.transform.stream.StreamSource;
 import java.io.File;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
@@ -61,6 +65,16 @@ public class PDFFormat extends PolicyAware implements Format {
     // when does a wrapper's task timeout [seconds]
     private final static long WRAPPER_TIMEOUT = 10 * 60;
 
+    private final static Set<String> MIME_TYPES = Collections.singleton("application/pdf");
+    private final static Set<String> EXTENSIONS = Collections.singleton("pdf");
+
+    static {
+        MetricsRegistry.getInstance().registerGauge("pdf_preflight_cache_hits_total",
+                () -> PDFBoxWrapper.getPreflightCacheStats().hitCount());
+        MetricsRegistry.getInstance().registerGauge("pdf_preflight_cache_misses_total",
+                () -> PDFBoxWrapper.getPreflightCacheStats().missCount());
+    }
+
     @SuppressWarnings("serial")
     @Override
     public Map<String, Map<String, Set<String>>> getFixedCategories() {
@@ -91,45 +105,69 @@ public class PDFFormat extends PolicyAware implements Format {
         cats.addAll(getFixedCategories().keySet());
         // add a potential policy validation error to all category names
         cats.add(FixedCategories.POLICY_VALIDATION.toString());
-        cats.addAll(requestPolicyPatternNames(new StreamSource(getPolicy())));
+        cats.addAll(getCompiledPolicy().getPatternNames());
         return cats;
     }
 
     @Override
     public CheckResult validationResult(File contentFile) {
         CheckResult checkResult;
+        CompiledPolicy policy;
         try {
+            policy = getCompiledPolicy();
             checkResult = new CheckResult(contentFile.getName(), this.getFormatName(), this.getVersion(), getAllCategoryNames());
         } catch (Exception e) {
             throw new RuntimeException("could not initialise check-result! reason: "+e);
         }
         Long startTime = System.currentTimeMillis();
 
-        if (!System.getProperty("enable-pdfbox", "true").equalsIgnoreCase("false")) {
-            checkResult.addAll(TimedValidation.validate(new PolicyValidation(WRAPPER_TIMEOUT, patternFilter), contentFile));
+        // the file is read, loaded and preflighted once for all checks
+        PDFAnalysisContext context = new PDFAnalysisContext(contentFile);
+        try {
+            List<TimedTask> tasks = new ArrayList<TimedTask>();
+            if (!System.getProperty("enable-pdfbox", "true").equalsIgnoreCase("false")) {
+                PolicyValidation policyValidation = new PolicyValidation(WRAPPER_TIMEOUT, policy, context);
+                policyValidation.setToolOutputStore(toolOutputs);
+                tasks.add(policyValidation);
+            }
+            tasks.add(new SpecificDrmChecks(WRAPPER_TIMEOUT, patternFilter, context));
+            tasks.add(new Wellformedness(WRAPPER_TIMEOUT, patternFilter, context));
+            // the checks don't depend on each other's results, so run them side by side
+            checkResult.addAll(TimedValidation.validateIndependent(contentFile, WRAPPER_TIMEOUT, tasks));
+            checkResult.addTaskMetrics(tasks);
+        } finally {
+            context.close();
         }
-        checkResult.addAll(TimedValidation.validate(new SpecificDrmChecks(WRAPPER_TIMEOUT, patternFilter), contentFile));
-        checkResult.addAll(TimedValidation.validate(new Wellformedness(WRAPPER_TIMEOUT, patternFilter), contentFile));
 
         checkResult.setTime(System.currentTimeMillis() - startTime);
         logger.info("all checks done for {}", this.getFormatName());
         return checkResult;
     }
 
+    @Override
+    public String getPolicyTool() {
+        return PDFBoxWrapper.getPreflightVersion();
+    }
+
     @Override
     public boolean canCheck(File pFile, String mType) {
         return (canCheck(mType) ||
-                pFile.getName().toLowerCase().endsWith(".pdf"));
+                EXTENSIONS.contains(FormatDispatch.extension(pFile.getName())));
     }
 
     @Override
     public boolean canCheck(String mType) {
-        return (mType != null && acceptedMimeTypes().contains(mType));
+        return (mType != null && MIME_TYPES.contains(mType));
     }
 
     @Override
     public Collection<String> acceptedMimeTypes() {
-        return new HashSet<String>() {{ add("application/pdf"); }};
+        return MIME_TYPES;
+    }
+
+    @Override
+    public Collection<String> acceptedExtensions() {
+        return EXTENSIONS;
     }
 
     @Override
@@ -142,6 +180,14 @@ public class PDFFormat extends PolicyAware implements Format {
         return "0.1.0";
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        // the analysis context, the checks and the tool wrappers are created per file, preflight
+        // results are kept in PDFBoxWrapper's static (thread-safe) cache, and the compiled policy
+        // is only replaced when the pattern filter is set, which happens before checking starts
+        return true;
+    }
+
     @Override
     public InputStream getPolicy() {
         return PDFFormat.class.getResourceAsStream(SCH_POLICY);
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint.pdf;
+
+import au.gov.nla.flint.wrappers.PDFBoxWrapper;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.transform.TransformerException;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Everything the PDF checks need to know about one file, worked out at most once and
+ * shared between {@link au.gov.nla.flint.pdf.checks.SpecificDrmChecks},
+ * {@link au.gov.nla.flint.pdf.checks.Wellformedness} and
+ * {@link au.gov.nla.flint.pdf.checks.PolicyValidation}, which may run at the same time.
+ *
+ * The PDFBox document is loaded once, from the file (with buffered random access, so a
+ * large PDF is never held in memory as a whole); preflight, which can only parse from a
+ * File, is run once and its xml output kept for all checks that need it. Jhove and Calibre
+ * still read the file themselves.
+ *
+ * Close the context when the checks are done with the file to release the document;
+ * closing does not wait for checks that are still running.
+ */
+public class PDFAnalysisContext implements Closeable {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(PDFAnalysisContext.class);
+
+    private final File file;
+
+    private final Object documentLock = new Object();
+    private final AtomicReference<PDDocument> document = new AtomicReference<PDDocument>();
+    private boolean documentLoaded = false;
+    private IOException documentFailure;
+
+    private final Object preflightLock = new Object();
+    private boolean preflightDone = false;
+    private byte[] preflightXml;
+    private Exception preflightFailure;
+    private boolean preflightValid = false;
+
+    private volatile boolean closed = false;
+
+    /**
+     * Create a new context; nothing is read until a check asks for it
+     * @param file the PDF file to analyse
+     */
+    public PDFAnalysisContext(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return the file this context is about
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * The PDFBox document, loaded on first use. It is owned by the context and must not be closed
+     * by the caller.
+     * @return the loaded document
+     * @throws IOException if the document could not be loaded; the same failure is reported to
+     * every caller
+     */
+    public PDDocument getDocument() throws IOException {
+        synchronized (documentLock) {
+            checkOpen();
+            if (!documentLoaded) {
+                documentLoaded = true;
+                try {
+                    LOGGER.debug("loading PDF document {}", file);
+                    document.set(Loader.loadPDF(file));
+                } catch (IOException e) {
+                    documentFailure = e;
+                }
+                if (closed) {
+                    // closed while we were loading
+                    closeDocument();
+                }
+            }
+            if (documentFailure != null) {
+                throw documentFailure;
+            }
+            PDDocument doc = document.get();
+            if (doc == null) {
+                throw new IOException("PDF analysis context for " + file + " has been closed");
+            }
+            return doc;
+        }
+    }
+
+    /**
+     * Check if the PDF has DRM or not, see {@link au.gov.nla.flint.wrappers.PDFBoxWrapper#hasDRM(java.io.File)}
+     * @return whether the file has DRM or not
+     */
+    public boolean hasDRM() {
+        try {
+            return getDocument().isEncrypted();
+        } catch (Exception e) {
+            return PDFBoxWrapper.isDRMFailure(e);
+        }
+    }
+
+    /**
+     * The output of the preflight validation as xml, produced on first use
+     * @return the preflight xml
+     * @throws Exception whatever stopped preflight from producing the xml; the same failure is
+     * reported to every caller
+     */
+    public byte[] getPreflightXml() throws Exception {
+        runPreflight();
+        synchronized (preflightLock) {
+            if (preflightFailure != null) {
+                throw preflightFailure;
+            }
+            return preflightXml;
+        }
+    }
+
+    /**
+     * Whether preflight got through the file, see {@link au.gov.nla.flint.wrappers.PDFBoxWrapper#isValid(java.io.File)}
+     * @return true if valid, false if not
+     */
+    public boolean isValidPDFBox() {
+        try {
+            runPreflight();
+        } catch (IOException e) {
+            LOGGER.warn("IOException leads to invalidity", e);
+            return false;
+        }
+        synchronized (preflightLock) {
+            return preflightValid;
+        }
+    }
+
+    private void runPreflight() throws IOException {
+        synchronized (preflightLock) {
+            checkOpen();
+            if (preflightDone) {
+                return;
+            }
+            preflightDone = true;
+            try {
+                preflightXml = new PDFBoxWrapper().preflightToXml(file).toByteArray();
+                preflightValid = true;
+            } catch (TransformerException e) {
+                // preflight itself got through, only the conversion to xml failed
+                preflightFailure = e;
+                preflightValid = true;
+            } catch (Exception e) {
+                LOGGER.warn("Exception leads to invalidity", e);
+                preflightFailure = e;
+            }
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("PDF analysis context for " + file + " has been closed");
+        }
+    }
+
+    private void closeDocument() {
+        PDDocument doc = document.getAndSet(null);
+        if (doc != null) {
+            try {
+                doc.close();
+            } catch (IOException e) {
+                LOGGER.warn("could not close PDF document {}: {}", file, e);
+            }
+        }
+    }
+
+    /**
+     * Release the document. Checks that are still running (e.g. after
+     * a timeout) will fail on their next access.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        closeDocument();
+    }
+}
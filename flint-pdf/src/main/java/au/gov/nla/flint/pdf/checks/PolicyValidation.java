@@ -21,15 +21,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import au.gov.nla.flint.checks.CheckCategory;
 import au.gov.nla.flint.checks.TimedTask;
-import au.gov.nla.flint.formats.PDFFormat;
-import au.gov.nla.flint.formats.PolicyAware;
+import au.gov.nla.flint.formats.CompiledPolicy;
+import au.gov.nla.flint.pdf.PDFAnalysisContext;
+import au.gov.nla.flint.results.ToolOutputStore;
 import au.gov.nla.flint.wrappers.PDFBoxWrapper;
 
 import javax.xml.transform.stream.StreamSource;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.LinkedHashMap;
-import java.util.Set;
 
 /**
  * Wrapper around the policy-validation process that produces an error message
@@ -38,28 +38,58 @@ import java.util.Set;
 public class PolicyValidation extends TimedTask {
 
     private Logger logger;
-    private Set<String> patternFilter;
+    private CompiledPolicy policy;
+    private PDFAnalysisContext context;
+    private ToolOutputStore toolOutputs;
 
     /**
      * Constructor for PolicyValidation.
      *
      * @param timeout the time [s] after which a TimeOutException is thrown and logged as
      *                an 'erroneous' {@link au.gov.nla.flint.checks.CheckCategory}
-     * @param patternFilter a set of strings that represent patterns to be included
-     *                      in following operations.
+     * @param policy the format's policy, compiled with its pattern filter
      */
-    public PolicyValidation(long timeout, Set<String> patternFilter) {
+    public PolicyValidation(long timeout, CompiledPolicy policy) {
+        this(timeout, policy, null);
+    }
+
+    /**
+     * Constructor for PolicyValidation that shares the preflight result with other checks.
+     *
+     * @param timeout the time [s] after which a TimeOutException is thrown and logged as
+     *                an 'erroneous' {@link au.gov.nla.flint.checks.CheckCategory}
+     * @param policy the format's policy, compiled with its pattern filter
+     * @param context the analysis context of the file to check (null to run preflight here)
+     */
+    public PolicyValidation(long timeout, CompiledPolicy policy, PDFAnalysisContext context) {
         super(FixedCategories.POLICY_VALIDATION.toString(), timeout);
-        this.patternFilter = patternFilter;
+        this.policy = policy;
+        this.context = context;
         this.logger = LoggerFactory.getLogger(this.getClass());
     }
 
+    /**
+     * Keep the preflight report, so that the policy can be checked again without running preflight.
+     *
+     * @param toolOutputs the store to keep it in, or null not to keep it
+     */
+    public void setToolOutputStore(ToolOutputStore toolOutputs) {
+        this.toolOutputs = toolOutputs;
+    }
+
     @Override
     public LinkedHashMap<String, CheckCategory> call() throws Exception {
         logger.info("Performing a policy validation on {}", contentFile);
-        ByteArrayOutputStream outputXml = new PDFBoxWrapper().preflightToXml(contentFile);
-        return PolicyAware.policyValidationResult(new StreamSource(new ByteArrayInputStream(outputXml.toByteArray())),
-                new StreamSource(PDFFormat.getPolicyStatically()), patternFilter);
+        byte[] outputXml = context != null ? context.getPreflightXml()
+                : new PDFBoxWrapper().preflightToXml(contentFile).toByteArray();
+        if (toolOutputs != null) {
+            try {
+                toolOutputs.put(contentFile, PDFBoxWrapper.getPreflightVersion(), outputXml);
+            } catch (IOException e) {
+                logger.warn("can't keep the preflight report of {}: {}", contentFile, e);
+            }
+        }
+        return policy.validate(new StreamSource(new ByteArrayInputStream(outputXml)));
     }
 
 }
\ No newline at end of file
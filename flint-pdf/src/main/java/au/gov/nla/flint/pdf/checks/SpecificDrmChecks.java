@@ -20,6 +20,7 @@ package au.gov.nla.flint.pdf.checks;
 import au.gov.nla.flint.checks.CheckCategory;
 import au.gov.nla.flint.checks.CheckCheck;
 import au.gov.nla.flint.checks.TimedTask;
+import au.gov.nla.flint.pdf.PDFAnalysisContext;
 import au.gov.nla.flint.wrappers.PDFBoxWrapper;
 import java.util.LinkedHashMap;
 import java.util.Set;
@@ -34,6 +35,7 @@ public class SpecificDrmChecks extends TimedTask {
 
     private Logger logger;
     private Set<String> patternFilter;
+    private PDFAnalysisContext context;
 
     /**
      * Create a SpeficDRMChecks Object that times out if calls take longer than expected
@@ -41,8 +43,19 @@ public class SpecificDrmChecks extends TimedTask {
      * @param pPatternFilter a set of strings indicating which categories to use and not
      */
     public SpecificDrmChecks(long pTimeout, Set<String> pPatternFilter) {
+        this(pTimeout, pPatternFilter, null);
+    }
+
+    /**
+     * Create a SpeficDRMChecks Object that uses the document already loaded by other checks
+     * @param pTimeout timeout to use
+     * @param pPatternFilter a set of strings indicating which categories to use and not
+     * @param pContext the analysis context of the file to check (null to load the file here)
+     */
+    public SpecificDrmChecks(long pTimeout, Set<String> pPatternFilter, PDFAnalysisContext pContext) {
         super(FixedCategories.NO_DRM.toString(), pTimeout);
         this.patternFilter = pPatternFilter;
+        this.context = pContext;
         this.logger = LoggerFactory.getLogger(this.getClass());
     }
 
@@ -50,11 +63,10 @@ public class SpecificDrmChecks extends TimedTask {
     public LinkedHashMap<String, CheckCategory> call() throws Exception {
         LinkedHashMap<String, CheckCategory> cmap = new LinkedHashMap<String, CheckCategory>();
         if (patternFilter == null || patternFilter.contains(FixedCategories.NO_DRM.toString()) ) {
-            PDFBoxWrapper pdfBoxWrapper = new PDFBoxWrapper();
-            
             logger.info("Adding specific DRM checks for {} to check-result", contentFile);
+            boolean hasDRM = context != null ? context.hasDRM() : new PDFBoxWrapper().hasDRM(contentFile);
             CheckCategory cc = new CheckCategory(FixedCategories.NO_DRM.toString());
-            cc.add(new CheckCheck("checkDRMPDFBoxAbsolute", !pdfBoxWrapper.hasDRM(contentFile), null));
+            cc.add(new CheckCheck("checkDRMPDFBoxAbsolute", !hasDRM, null));
             logger.debug(cc.get("checkDRMPDFBoxAbsolute").toString());
             cmap.put(cc.getName(), cc);
         }
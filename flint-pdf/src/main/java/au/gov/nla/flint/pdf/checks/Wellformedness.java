@@ -23,6 +23,7 @@ import org.slf4j.LoggerFactory;
 import au.gov.nla.flint.checks.CheckCategory;
 import au.gov.nla.flint.checks.CheckCheck;
 import au.gov.nla.flint.checks.TimedTask;
+import au.gov.nla.flint.pdf.PDFAnalysisContext;
 import au.gov.nla.flint.wrappers.CalibreWrapper;
 import au.gov.nla.flint.wrappers.Jhove1Wrapper;
 import au.gov.nla.flint.wrappers.PDFBoxWrapper;
@@ -38,6 +39,7 @@ public class Wellformedness extends TimedTask {
 
     private Logger logger;
     private Set<String> patternFilter;
+    private PDFAnalysisContext context;
 
     /**
      * Constructor for Wellformedness.
@@ -48,8 +50,22 @@ public class Wellformedness extends TimedTask {
      *                      in following operations.
      */
     public Wellformedness(long timeout, Set<String> patternFilter) {
+        this(timeout, patternFilter, null);
+    }
+
+    /**
+     * Constructor for Wellformedness that shares the preflight result with other checks.
+     *
+     * @param timeout the time [s] after which a TimeOutException is thrown and logged as
+     *                an 'erroneous' {@link au.gov.nla.flint.checks.CheckCategory}
+     * @param patternFilter a set of strings that represent patterns to be included
+     *                      in following operations.
+     * @param context the analysis context of the file to check (null to run preflight here)
+     */
+    public Wellformedness(long timeout, Set<String> patternFilter, PDFAnalysisContext context) {
         super(FixedCategories.WELL_FORMED.toString(), timeout);
         this.patternFilter = patternFilter;
+        this.context = context;
         this.logger = LoggerFactory.getLogger(this.getClass());
     }
 
@@ -62,7 +78,8 @@ public class Wellformedness extends TimedTask {
             CheckCategory cc = new CheckCategory(catName);
 
             if (!System.getProperty("enable-pdfbox", "true").equalsIgnoreCase("false")) {
-                cc.add(new CheckCheck("isValidPDFBox", new PDFBoxWrapper().isValid(contentFile), null));
+                boolean valid = context != null ? context.isValidPDFBox() : new PDFBoxWrapper().isValid(contentFile);
+                cc.add(new CheckCheck("isValidPDFBox", valid, null));
                 logger.debug(cc.get("isValidPDFBox").toString());
             }
 
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint.pdf;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class PDFAnalysisContextTest {
+
+    private static File corpusFile(String name) {
+        return new File(PDFAnalysisContextTest.class.getResource("/format_corpus/" + name).getPath());
+    }
+
+    @Test
+    public void testDocumentIsLoadedOnce() throws Exception {
+        PDFAnalysisContext context = new PDFAnalysisContext(corpusFile("text_only_fontsEmbeddedAll.pdf"));
+        try {
+            Assert.assertSame(context.getDocument(), context.getDocument());
+            Assert.assertFalse(context.hasDRM());
+        } finally {
+            context.close();
+        }
+    }
+
+    @Test
+    public void testOpenPasswordIsDRM() {
+        PDFAnalysisContext context = new PDFAnalysisContext(corpusFile("encryption_openpassword.pdf"));
+        try {
+            Assert.assertTrue(context.hasDRM());
+            // the failure to load is remembered rather than parsing again
+            Assert.assertTrue(context.hasDRM());
+        } finally {
+            context.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testClosedContextCannotBeUsed() throws Exception {
+        PDFAnalysisContext context = new PDFAnalysisContext(corpusFile("text_only_fontsEmbeddedAll.pdf"));
+        context.getDocument();
+        context.close();
+        context.getDocument();
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2014 The British Library/SCAPE Project Consortium
+ * Authors: William Palmer (William.Palmer@bl.uk)
+ *          Alecs Geuder (Alecs.Geuder@bl.uk)
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package au.gov.nla.flint.pdf;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import au.gov.nla.flint.wrappers.PDFBoxWrapper;
+
+@SuppressWarnings("javadoc")
+public class PDFBoxWrapperTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testPreflightResultIsCachedPerFile() throws Exception {
+        File original = new File(PDFBoxWrapperTest.class.getResource("/format_corpus/text_only_fontsEmbeddedAll.pdf").getPath());
+        // same name, different directory
+        File copy = new File(tmp.newFolder(), original.getName());
+        Files.copy(original.toPath(), copy.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+
+        long hits = PDFBoxWrapper.getPreflightCacheStats().hitCount();
+        long misses = PDFBoxWrapper.getPreflightCacheStats().missCount();
+
+        byte[] first = new PDFBoxWrapper().preflightToXml(original).toByteArray();
+        Assert.assertTrue(new PDFBoxWrapper().isValid(original));
+        new PDFBoxWrapper().preflightToXml(copy);
+
+        Assert.assertEquals(hits + 1, PDFBoxWrapper.getPreflightCacheStats().hitCount());
+        Assert.assertEquals(misses + 2, PDFBoxWrapper.getPreflightCacheStats().missCount());
+        // every caller gets the same report
+        Assert.assertArrayEquals(first, new PDFBoxWrapper().preflightToXml(original).toByteArray());
+    }
+}
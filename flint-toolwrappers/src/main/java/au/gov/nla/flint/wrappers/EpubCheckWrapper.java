@@ -41,6 +41,13 @@ public class EpubCheckWrapper {
 
     public EpubCheckWrapper() {}
 
+    /**
+     * @return name and version of the tool behind {@link #check(java.io.File)}, e.g. "epubcheck 4.2.6"
+     */
+    public static String getVersion() {
+        return "epubcheck " + EpubCheck.version();
+    }
+
     /**
      * Check an epub file against a XmlReportWithMessageIds policy
      * @param file file to check
@@ -17,6 +17,11 @@
  */
 package au.gov.nla.flint.wrappers;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import org.apache.commons.compress.PasswordRequiredException;
 import org.apache.pdfbox.Loader;
 import org.apache.pdfbox.io.RandomAccess;
@@ -24,12 +29,12 @@ import org.apache.pdfbox.pdfparser.PDFParser;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.encryption.AccessPermission;
 import org.apache.pdfbox.pdmodel.encryption.InvalidPasswordException;
-import org.apache.pdfbox.preflight.PreflightDocument;
 import org.apache.pdfbox.preflight.ValidationResult;
 import org.apache.pdfbox.preflight.exception.SyntaxValidationException;
 import org.apache.pdfbox.preflight.parser.PreflightParser;
 import org.apache.pdfbox.preflight.parser.XmlResultParser;
 import org.apache.pdfbox.text.PDFTextStripper;
+import org.apache.pdfbox.util.Version;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
@@ -45,8 +50,9 @@ import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
 import java.io.*;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Class to wrap the Apache PDFBox library
@@ -55,43 +61,103 @@ public class PDFBoxWrapper {
 
     private static Logger LOGGER = LoggerFactory.getLogger(PDFBoxWrapper.class);
 
-    private final Map<String, Element> pseudoCache = new HashMap<String, Element>();
-
-    private final XmlResultParser parser = new CachingXmlResultParser();
+    /**
+     * Preflight is used more than once for different purposes (and possibly by several
+     * workers), so its result is cached for performance reasons. Entries are keyed by
+     * the absolute path, size and modification time of the file, so a changed file or
+     * another file of the same name is never served a stale result. The cache is bounded
+     * by the size of the cached xml (system property flint.preflight-cache.max-bytes).
+     */
+    private static final Cache<PreflightKey, PreflightOutcome> PREFLIGHT_CACHE = CacheBuilder.newBuilder()
+            .maximumWeight(Long.getLong("flint.preflight-cache.max-bytes", 64L * 1024 * 1024))
+            .weigher(new Weigher<PreflightKey, PreflightOutcome>() {
+                @Override
+                public int weigh(PreflightKey key, PreflightOutcome outcome) {
+                    return outcome.xml == null ? 1 : outcome.xml.length;
+                }
+            })
+            .recordStats()
+            .build();
 
     public PDFBoxWrapper() {}
 
     /**
-     * As preflight is used more than once for different purposes the result
-     * shall be cached for performance reasons.
+     * @return name and version of the tool behind {@link #preflightToXml(java.io.File)},
+     *         e.g. "preflight 3.0.2"
      */
-    private class CachingXmlResultParser extends XmlResultParser {
-        public Element validate (Document rdocument, File source) throws IOException {
-            synchronized (this.getClass()) {
-                if (pseudoCache.containsKey(source.getName())) {
-                    // can be null, which means it's not valid
-                    Element preflight = pseudoCache.get(source.getName());
-                    // we only cache ONCE and clear after.
-                    pseudoCache.clear();
-                    return preflight;
-                }
-            }
-            // state that one has dealt with this file:
-            pseudoCache.put(source.getName(), null);
+    public static String getPreflightVersion() {
+        return "preflight " + Version.getVersion();
+    }
 
-            // now do the actual work that will finish with caching and returning the element
-            // in case something goes wrong, the empty entry above will remain testifying we have tried.
+    /**
+     * @return hit, miss and eviction statistics of the preflight result cache
+     */
+    public static CacheStats getPreflightCacheStats() {
+        return PREFLIGHT_CACHE.stats();
+    }
+
+    /**
+     * Identifies one version of a file
+     */
+    private static final class PreflightKey {
+        private final String path;
+        private final long size;
+        private final long lastModified;
+
+        PreflightKey(File file) {
+            this.path = file.getAbsolutePath();
+            this.size = file.length();
+            this.lastModified = file.lastModified();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PreflightKey)) return false;
+            PreflightKey other = (PreflightKey) o;
+            return size == other.size && lastModified == other.lastModified && path.equals(other.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return (path.hashCode() * 31 + Long.hashCode(size)) * 31 + Long.hashCode(lastModified);
+        }
+    }
+
+    /**
+     * The cached result of running preflight over a file: either the xml report or
+     * the failure that stopped it
+     */
+    private static final class PreflightOutcome {
+        private final byte[] xml;
+        private final Exception failure;
+
+        PreflightOutcome(byte[] xml, Exception failure) {
+            this.xml = xml;
+            this.failure = failure;
+        }
+
+        /**
+         * @return true if preflight got through the file (even if converting
+         * the report to xml failed afterwards)
+         */
+        boolean preflightPassed() {
+            return failure == null || failure instanceof TransformerException;
+        }
+    }
+
+    /**
+     * Turns preflight's ValidationResult into the report element that goes into the xml.
+     */
+    private static class PreflightXmlResultParser extends XmlResultParser {
+        public Element validate (Document rdocument, File source) throws IOException {
             String pdfType = null;
             ValidationResult result = null;
             long before = System.currentTimeMillis();
-            PreflightDocument document = null;
             try {
                 LOGGER.debug("Beginning the preflight validation.. of {}", source.getName());
                 result = PreflightParser.validate(source);
             } catch (SyntaxValidationException e) {
                 result = e.getResult();
-            } finally {
-                if (document != null) document.close();
             }
             long after = System.currentTimeMillis();
 
@@ -107,21 +173,62 @@ public class PDFBoxWrapper {
                 // valid ?
                 createResponseWithError(rdocument, pdfType, result, preflight);
             }
-            pseudoCache.put(source.getName(), preflight);
             return preflight;
         }
     }
 
     /**
-     * Runs preflight over the pdf file and produces an output file.
-     * If the transformation of the preflight output Element to xml
+     * Get the (cached) preflight outcome of a file, running preflight if needed.
+     * Concurrent calls for the same file wait for one preflight run. A run stopped by an
+     * interrupt says nothing about the file, so its outcome is not cached; threads that
+     * waited for it (and were not interrupted themselves) run preflight again.
      * @param pFile the input file
-     * @return the output-stream of the preflight validation (null if errors occurred).
-     * @throws IOException
-     * @throws TransformerException 
+     * @return the outcome of preflight for this version of the file
      */
-    public ByteArrayOutputStream preflightToXml(File pFile) throws IOException, TransformerException {
-        Element result = parser.validate(pFile);
+    private static PreflightOutcome preflight(final File pFile) {
+        final boolean[] ranHere = new boolean[1];
+        while (true) {
+            try {
+                return PREFLIGHT_CACHE.get(new PreflightKey(pFile), new Callable<PreflightOutcome>() {
+                    @Override
+                    public PreflightOutcome call() throws Exception {
+                        ranHere[0] = true;
+                        try {
+                            return new PreflightOutcome(runPreflight(pFile), null);
+                        } catch (Exception e) {
+                            if (Thread.currentThread().isInterrupted() || causedByInterrupt(e)) {
+                                // thrown out of the loader, so that it is not cached
+                                throw e;
+                            }
+                            return new PreflightOutcome(null, e);
+                        }
+                    }
+                });
+            } catch (ExecutionException | UncheckedExecutionException e) {
+                if (!ranHere[0] && causedByInterrupt(e.getCause()) && !Thread.currentThread().isInterrupted()) {
+                    // the run this thread waited for was interrupted and left nothing in the cache
+                    continue;
+                }
+                return new PreflightOutcome(null, (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e);
+            }
+        }
+    }
+
+    /**
+     * @return true if the exception (or one of its causes) comes from interrupting the thread
+     */
+    private static boolean causedByInterrupt(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof InterruptedException || t instanceof InterruptedIOException
+                    || t instanceof ClosedByInterruptException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] runPreflight(File pFile) throws IOException, TransformerException {
+        Element result = new PreflightXmlResultParser().validate(pFile);
         LOGGER.debug("generating xml from preflight generated element for {}", pFile);
         Document doc = result.getOwnerDocument();
         doc.appendChild(result);
@@ -131,6 +238,33 @@ public class PDFBoxWrapper {
         transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
         ByteArrayOutputStream output = new ByteArrayOutputStream();
         transformer.transform(new DOMSource(doc), new StreamResult(output));
+        return output.toByteArray();
+    }
+
+    /**
+     * Runs preflight over the pdf file and produces an output file.
+     * If the transformation of the preflight output Element to xml
+     * @param pFile the input file
+     * @return the output-stream of the preflight validation (null if errors occurred).
+     * @throws IOException
+     * @throws TransformerException 
+     */
+    public ByteArrayOutputStream preflightToXml(File pFile) throws IOException, TransformerException {
+        PreflightOutcome outcome = preflight(pFile);
+        if (outcome.failure instanceof IOException) {
+            throw (IOException) outcome.failure;
+        }
+        if (outcome.failure instanceof TransformerException) {
+            throw (TransformerException) outcome.failure;
+        }
+        if (outcome.failure instanceof RuntimeException) {
+            throw (RuntimeException) outcome.failure;
+        }
+        if (outcome.failure != null) {
+            throw new IOException(outcome.failure);
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream(outcome.xml.length);
+        output.write(outcome.xml, 0, outcome.xml.length);
         return output;
     }
 
@@ -140,18 +274,15 @@ public class PDFBoxWrapper {
      * @return true if valid, false if not
      */
     public boolean isValid(File pFile) {
-        try {
-            if (parser.validate(pFile) == null) {
-                return false;
+        PreflightOutcome outcome = preflight(pFile);
+        if (!outcome.preflightPassed()) {
+            if (outcome.failure instanceof IOException) {
+                LOGGER.warn("IOException leads to invalidity", outcome.failure);
+            } else if (outcome.failure instanceof IllegalArgumentException) {
+                LOGGER.warn("IllegalArgumentException leads to invalidity", outcome.failure);
+            } else {
+                LOGGER.warn("Exception leads to invalidity", outcome.failure);
             }
-        } catch (IOException e) {
-            LOGGER.warn("IOException leads to invalidity", e);
-            return false;
-        } catch (IllegalArgumentException e) {
-            LOGGER.warn("IllegalArgumentException leads to invalidity", e);
-            return false;
-        } catch (Exception e) {
-            LOGGER.warn("Exception leads to invalidity", e);
             return false;
         }
 
@@ -172,32 +303,38 @@ public class PDFBoxWrapper {
 			ret = doc.isEncrypted();
 			doc.close();
 
-		} catch (InvalidPasswordException e) {
-			ret = true;
+		} catch (Exception e) {
+			ret = isDRMFailure(e);
 		}
-		catch(IOException e) {
+		return ret;
+	}
 
+	/**
+	 * Interpret an exception thrown while loading a PDF with regard to DRM: some files
+	 * can only not be loaded because they are encrypted
+	 * @param e the exception thrown by {@link org.apache.pdfbox.Loader}
+	 * @return true if the failure shows that the file has DRM, false if we can't tell
+	 */
+	public static boolean isDRMFailure(Exception e) {
+		if (e instanceof InvalidPasswordException) {
+			return true;
+		}
+		if (e instanceof IOException) {
 			// This may occur when a suitable security handler cannot be found
-			if(e.getMessage().contains("BadSecurityHandlerException")) {
-				// if this happens then there must be some sort of DRM here
-				ret = true;
-			}
-
-		} catch (Exception e) {
-
-			e.printStackTrace();
+			// if this happens then there must be some sort of DRM here
+			return e.getMessage() != null && e.getMessage().contains("BadSecurityHandlerException");
+		}
 
-			// See comments in https://issues.apache.org/jira/browse/PDFBOX-1757
-			// PDFBox state that these files have errors and their parser is correct
-			// The only way to find out that the parser doesn't like it is to catch
-			// a general Exception.
+		e.printStackTrace();
 
-			// If we reach this point then we have no idea of whether the file contains
-			// DRM or not.  Return false and hope it is detected elsewhere.
+		// See comments in https://issues.apache.org/jira/browse/PDFBOX-1757
+		// PDFBox state that these files have errors and their parser is correct
+		// The only way to find out that the parser doesn't like it is to catch
+		// a general Exception.
 
-			ret = false;
-		}
-		return ret;
+		// If we reach this point then we have no idea of whether the file contains
+		// DRM or not.  Return false and hope it is detected elsewhere.
+		return false;
 	}
 
 
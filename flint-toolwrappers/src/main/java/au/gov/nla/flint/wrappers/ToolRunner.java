@@ -22,8 +22,16 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class runs an external tool via command line and buffers stdout and stderr
@@ -34,6 +42,27 @@ import java.util.List;
 public class ToolRunner {
 
 	private boolean gRedirectStderr = false;
+
+	//CPU time [ns] of all tools run by a thread so far, and how many of them it is not known for
+	private static final ThreadLocal<long[]> gToolCpuTime = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			return new long[2];
+		}
+	};
+
+	//how often to sample the CPU time of a running tool [ns]
+	private static final long CPU_SAMPLE_INTERVAL = TimeUnit.MILLISECONDS.toNanos(20);
+
+	//samples the CPU time of running tools, whether or not they write any output
+	private static final ScheduledExecutorService gCpuSampler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "flint-tool-cpu-sampler");
+			t.setDaemon(true);
+			return t;
+		}
+	});
 	
 	/**
 	 * Create a new ToolRunner (not redirecting stderr to stdout)
@@ -107,17 +136,40 @@ public class ToolRunner {
 		} else {
 			gStderr = null;
 		}
+		// the CPU time of a process is only known while it runs, so keep the latest sample
+		final AtomicLong cpuTime = new AtomicLong(-1);
+		ScheduledFuture<?> sampler = gCpuSampler.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				long sample = sampleCpuTime(proc);
+				if(sample >= 0) {
+					cpuTime.accumulateAndGet(sample, Math::max);
+				}
+			}
+		}, CPU_SAMPLE_INTERVAL, CPU_SAMPLE_INTERVAL, TimeUnit.NANOSECONDS);
+		proc.onExit().thenRun(() -> sampler.cancel(false));
 		// consume buffers
 		// use the fact that exitvalue will throw an exception if the process is still running to drain the buffer
-		while(true) {
-			try {
-				proc.exitValue();
-			} catch(IllegalThreadStateException e) {
-				byteArrayStdout.write(stdout.read());
-				byteArrayStderr.write(stderr.read());
-				continue;
+		try {
+			while(true) {
+				try {
+					proc.exitValue();
+				} catch(IllegalThreadStateException e) {
+					byteArrayStdout.write(stdout.read());
+					byteArrayStderr.write(stderr.read());
+					continue;
+				}
+				break;
 			}
-			break;
+		} finally {
+			sampler.cancel(false);
+		}
+		long[] toolCpuTime = gToolCpuTime.get();
+		long sample = Math.max(cpuTime.get(), sampleCpuTime(proc));
+		if(sample >= 0) {
+			toolCpuTime[0] += sample;
+		} else {
+			toolCpuTime[1]++;
 		}
 		
 		//reconstruct a buffer
@@ -137,6 +189,36 @@ public class ToolRunner {
 		return proc.exitValue();
 	}
 	
+	/**
+	 * Get the CPU time of all tools the current thread has run so far.  The CPU time of a tool
+	 * is sampled every 20ms while it runs, so it is a lower bound; tools that finish before
+	 * the first sample count towards {@link #getToolsWithUnknownCpuTime()} instead.
+	 * @return CPU time [ns]
+	 */
+	public static long getToolCpuTime() {
+		return gToolCpuTime.get()[0];
+	}
+
+	/**
+	 * Get how many of the tools the current thread has run so far have no CPU time in
+	 * {@link #getToolCpuTime()}, because they finished before it could be sampled or the
+	 * OS doesn't report it.
+	 * @return the number of tools
+	 */
+	public static long getToolsWithUnknownCpuTime() {
+		return gToolCpuTime.get()[1];
+	}
+
+	/**
+	 * Get the CPU time a process has used so far
+	 * @param pProc the process
+	 * @return CPU time [ns], -1 if not known
+	 */
+	private static long sampleCpuTime(Process pProc) {
+		Optional<Duration> cpu = pProc.info().totalCpuDuration();
+		return cpu.isPresent() ? cpu.get().toNanos() : -1;
+	}
+
 	/**
 	 * Get stdout buffer
 	 * @return stdout buffer